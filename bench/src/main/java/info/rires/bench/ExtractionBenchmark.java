@@ -0,0 +1,55 @@
+package info.rires.bench;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import info.rires.document.ContentExtractor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Extracting the text of web pages with every {@link ContentExtractor}. An operation is a page.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class ExtractionBenchmark {
+
+    @Param({"jsoup", "fast"})
+    public String extractor;
+
+    private ContentExtractor contentExtractor;
+    private List<String> pages;
+    private final StringBuilder text = new StringBuilder();
+
+    @Setup
+    public void setUp() {
+        contentExtractor = ContentExtractor.forName(extractor);
+        pages = Fixtures.pages(Fixtures.DOCS);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Fixtures.DOCS)
+    public int extract() {
+        int length = 0;
+        for (String page : pages) {
+            text.setLength(0);
+            contentExtractor.extract(page, text);
+            length += text.length();
+        }
+        return length;
+    }
+}
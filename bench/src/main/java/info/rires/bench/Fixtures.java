@@ -0,0 +1,64 @@
+package info.rires.bench;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import info.rires.document.CorpusGenerator;
+
+/**
+ * The inputs of the benchmarks: the same documents, generated by a {@link CorpusGenerator} from a
+ * fixed seed, in every input format of the indexer, so that the results of two runs, or of two
+ * formats, can be compared.
+ */
+public final class Fixtures {
+
+    public static final long SEED = CorpusGenerator.DEFAULT_SEED;
+    public static final int DOCS = 500;
+
+    private static final int VOCABULARY = 20000;
+
+    private Fixtures() {
+    }
+
+    /**
+     * @return a trectext file (newswire, TREC disks 1-5) of the given number of documents
+     */
+    public static byte[] trectext(int docs) {
+        return file("trectext", docs);
+    }
+
+    /**
+     * @return a trecweb file (GOV2, WT10g) of the given number of documents
+     */
+    public static byte[] trecweb(int docs) {
+        return file("trecweb", docs);
+    }
+
+    /**
+     * @return the given number of html pages, with http headers as in the WARC records
+     */
+    public static List<String> pages(int docs) {
+        CorpusGenerator generator = new CorpusGenerator(SEED, VOCABULARY);
+        List<String> pages = new ArrayList<>(docs);
+        for (int doc = 0; doc < docs; doc++) {
+            pages.add(generator.page());
+        }
+        return pages;
+    }
+
+    /**
+     * @param format the name of the format, as registered with DocumentSources: trectext, trecweb,
+     *               clueweb09 or clueweb12, whose WARC files start with a warcinfo record
+     * @return an uncompressed file of the given number of documents
+     */
+    public static byte[] file(String format, int docs) {
+        CorpusGenerator generator = new CorpusGenerator(SEED, VOCABULARY);
+        StringBuilder file = new StringBuilder();
+        generator.appendHeader(format, file);
+        for (int doc = 0; doc < docs; doc++) {
+            generator.appendDocument(format, 0, doc, file);
+        }
+        return file.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
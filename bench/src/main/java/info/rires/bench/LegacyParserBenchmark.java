@@ -0,0 +1,87 @@
+package info.rires.bench;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import info.rires.document.Gov2Record;
+import info.rires.document.TrecTextDocIterator;
+import info.rires.document.TrecWebDocIterator;
+import info.rires.document.WarcRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The line based TREC iterators and the GOV2 record parser, the readers the
+ * {@link ParserBenchmark DocumentSources} replaced, as a baseline. An operation is a document.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class LegacyParserBenchmark {
+
+    private byte[] trectext;
+    private byte[] trecweb;
+    // the documents of the trecweb fixture, without their DOC tags, as parseGov2Record takes them
+    private final List<StringBuilder> gov2Documents = new ArrayList<>();
+
+    @Setup
+    public void setUp() {
+        trectext = Fixtures.trectext(Fixtures.DOCS);
+        trecweb = Fixtures.trecweb(Fixtures.DOCS);
+        final String web = new String(trecweb, StandardCharsets.UTF_8);
+        for (int start = web.indexOf(Gov2Record.DOC); start >= 0; start = web.indexOf(Gov2Record.DOC, start + 1)) {
+            final int end = web.indexOf(Gov2Record.TERMINATING_DOC, start);
+            gov2Documents.add(new StringBuilder(web.substring(start + Gov2Record.DOC.length(), end).trim()));
+        }
+    }
+
+    private static BufferedReader reader(byte[] file) {
+        return new BufferedReader(new InputStreamReader(new ByteArrayInputStream(file), StandardCharsets.UTF_8));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Fixtures.DOCS)
+    public void trecTextDocIterator(Blackhole blackhole) throws Exception {
+        TrecTextDocIterator docs = new TrecTextDocIterator(reader(trectext));
+        while (docs.hasNext()) {
+            blackhole.consume(docs.next());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Fixtures.DOCS)
+    public void trecWebDocIterator(Blackhole blackhole) throws Exception {
+        TrecWebDocIterator docs = new TrecWebDocIterator(reader(trecweb));
+        while (docs.hasNext()) {
+            blackhole.consume(docs.next());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Fixtures.DOCS)
+    public void parseGov2Record(Blackhole blackhole) {
+        for (StringBuilder document : gov2Documents) {
+            WarcRecord record = Gov2Record.parseGov2Record(document);
+            blackhole.consume(record.id());
+            blackhole.consume(record.contentView());
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package info.rires.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import info.rires.document.DocumentSource;
+import info.rires.document.DocumentSources;
+import info.rires.document.WarcRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Splitting an input file into records with the {@link DocumentSource} of every format, the way
+ * the indexing threads read the decompressed files. An operation is a record.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class ParserBenchmark {
+
+    @Param({"trectext", "trecweb", "clueweb09", "clueweb12"})
+    public String format;
+
+    private DocumentSource.Factory source;
+    private byte[] file;
+
+    @Setup
+    public void setUp() {
+        source = DocumentSources.get(format);
+        file = Fixtures.file(format, Fixtures.DOCS);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Fixtures.DOCS)
+    public void documentSource(Blackhole blackhole) throws IOException {
+        try (DocumentSource records = source.open(new ByteArrayInputStream(file))) {
+            for (WarcRecord record = records.next(); record != null; record = records.next()) {
+                blackhole.consume(record.id());
+                blackhole.consume(record.contentLength());
+            }
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package info.rires.index;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import info.rires.bench.Fixtures;
+import info.rires.document.DocumentSource;
+import info.rires.document.DocumentSources;
+import info.rires.document.WarcRecord;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Turning records into documents, and indexing them, with the code of {@link RiseBuildIndex}: the
+ * html extraction and the construction of the document, and the analysis and inversion of the
+ * IndexWriter. An operation is a record.
+ *
+ * The records are read again before every invocation, since they keep their decoded content, so
+ * that decoding it is measured as well.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class IndexingBenchmark {
+
+    private static final double RAM_BUFFER_MB = 64;
+
+    @Param({"trectext", "trecweb", "clueweb09"})
+    public String format;
+
+    private Path tmp;
+    private RiseBuildIndex builder;
+    private DocumentSource.Factory source;
+    private byte[] file;
+    private final List<WarcRecord> records = new ArrayList<>(Fixtures.DOCS);
+    private Directory dir;
+    private IndexWriter writer;
+
+    @Setup
+    public void setUp() throws IOException {
+        tmp = Files.createTempDirectory("rires-bench");
+        builder = new RiseBuildIndex(tmp.toString(), tmp.resolve("index").toString(), format, "porter", true);
+        builder.prepare();
+        source = DocumentSources.get(format);
+        file = Fixtures.file(format, Fixtures.DOCS);
+    }
+
+    @Setup(Level.Iteration)
+    public void openWriter() throws IOException {
+        dir = new RAMDirectory();
+        writer = builder.newIndexWriter(dir, RAM_BUFFER_MB, IndexWriterConfig.OpenMode.CREATE);
+    }
+
+    @Setup(Level.Invocation)
+    public void readRecords() throws IOException {
+        records.clear();
+        try (DocumentSource in = source.open(new ByteArrayInputStream(file))) {
+            for (WarcRecord record = in.next(); record != null; record = in.next()) {
+                records.add(record);
+            }
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void closeWriter() throws IOException {
+        writer.close();
+        dir.close();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(tmp.resolve("index"));
+        Files.deleteIfExists(tmp);
+    }
+
+    /**
+     * Builds the documents in new fields, as the parser threads of the pipeline do.
+     */
+    @Benchmark
+    @OperationsPerInvocation(Fixtures.DOCS)
+    public void buildDocument(Blackhole blackhole) {
+        for (WarcRecord record : records) {
+            blackhole.consume(builder.buildDocument(record, format));
+        }
+    }
+
+    /**
+     * Builds the documents in the reused fields of the thread and adds them to the index, as the
+     * indexing threads do without a pipeline.
+     */
+    @Benchmark
+    @OperationsPerInvocation(Fixtures.DOCS)
+    public int indexWarcRecord() throws IOException {
+        int indexed = 0;
+        for (WarcRecord record : records) {
+            indexed += builder.indexWarcRecord(writer, record, format);
+        }
+        return indexed;
+    }
+}
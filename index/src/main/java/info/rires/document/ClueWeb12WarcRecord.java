@@ -0,0 +1,51 @@
+package info.rires.document;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Record of the ClueWeb12 collection.
+ */
+public final class ClueWeb12WarcRecord extends ClueWebWarcRecord {
+
+    public static final String WARC_VERSION = "WARC/1.0";
+
+    private ClueWeb12WarcRecord(Map<String, String> header, byte[] content) {
+        super(header, content);
+    }
+
+    /**
+     * @return the next record, or null at the end of the input
+     */
+    public static ClueWeb12WarcRecord readNextWarcRecord(DataInputStream in, String version) throws IOException {
+        return readNextWarcRecord(in, version, null);
+    }
+
+    /**
+     * @param type only return the records of this WARC-Type, the content of the others is skipped
+     * @return the next record, or null at the end of the input
+     */
+    public static ClueWeb12WarcRecord readNextWarcRecord(DataInputStream in, String version, String type) throws IOException {
+        Map<String, String> header = newHeader();
+        byte[] content = readNext(in, version, type, header);
+        return content == null ? null : new ClueWeb12WarcRecord(header, content);
+    }
+}
@@ -0,0 +1,177 @@
+package info.rires.document;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A record of a ClueWeb WARC file.
+ *
+ * The header is parsed when the record is read, the content is kept as the raw bytes and only
+ * decoded to characters the first time it is asked for. Records of unwanted types can be skipped
+ * by the reader without their content being copied at all.
+ */
+public abstract class ClueWebWarcRecord implements WarcRecord {
+
+    public static final String WARC_TYPE = "WARC-Type";
+    public static final String WARC_TREC_ID = "WARC-TREC-ID";
+    public static final String WARC_TARGET_URI = "WARC-Target-URI";
+    public static final String CONTENT_LENGTH = "Content-Length";
+
+    private final Map<String, String> header;
+    private final byte[] content;
+    private String decoded;
+
+    protected ClueWebWarcRecord(Map<String, String> header, byte[] content) {
+        this.header = header;
+        this.content = content;
+    }
+
+    /**
+     * @return the value of a header field, or null
+     */
+    public String header(String name) {
+        return header.get(name);
+    }
+
+    @Override
+    public String id() {
+        return header.get(WARC_TREC_ID);
+    }
+
+    @Override
+    public String url() {
+        return header.get(WARC_TARGET_URI);
+    }
+
+    @Override
+    public String type() {
+        return header.get(WARC_TYPE);
+    }
+
+    @Override
+    public int contentLength() {
+        return content.length;
+    }
+
+    @Override
+    public String content() {
+        if (decoded == null)
+            decoded = new String(content, StandardCharsets.UTF_8);
+        return decoded;
+    }
+
+    @Override
+    public ByteBuffer contentBytes() {
+        return ByteBuffer.wrap(content).asReadOnlyBuffer();
+    }
+
+    /**
+     * Reads the next record of the given type, skipping the content of the records of other types.
+     *
+     * @param version the version line starting every record, e.g. WARC/0.18
+     * @param type    the WARC-Type of the records to return, or null for all the records
+     * @param header  filled in with the header fields of the returned record
+     * @return the content of the record, or null at the end of the input
+     */
+    protected static byte[] readNext(DataInputStream in, String version, String type,
+                                     Map<String, String> header) throws IOException {
+        while (true) {
+            header.clear();
+
+            // look for the start of the next record
+            String line;
+            do {
+                line = readLine(in);
+                if (line == null)
+                    return null;
+            } while (!line.startsWith(version));
+
+            while ((line = readLine(in)) != null && !line.isEmpty()) {
+                int colon = line.indexOf(':');
+                if (colon > 0)
+                    header.put(line.substring(0, colon).trim(), line.substring(colon + 1).trim());
+            }
+            if (line == null)
+                return null;
+
+            String length = header.get(CONTENT_LENGTH);
+            if (length == null)
+                throw new IOException("record without " + CONTENT_LENGTH);
+            final int contentLength;
+            try {
+                contentLength = Integer.parseInt(length);
+            } catch (NumberFormatException e) {
+                throw new IOException("invalid " + CONTENT_LENGTH + ": " + length);
+            }
+
+            if (type != null && !type.equals(header.get(WARC_TYPE))) {
+                skipFully(in, contentLength);
+                continue;
+            }
+
+            byte[] content = new byte[contentLength];
+            in.readFully(content);
+            return content;
+        }
+    }
+
+    protected static Map<String, String> newHeader() {
+        return new HashMap<>();
+    }
+
+    /**
+     * @return the next line without its terminator, or null at the end of the input
+     */
+    private static String readLine(DataInputStream in) throws IOException {
+        ByteArrayOutputStream line = null;
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n')
+                break;
+            if (line == null)
+                line = new ByteArrayOutputStream(128);
+            line.write(b);
+        }
+        if (b == -1 && line == null)
+            return null;
+        if (line == null)
+            return "";
+        String s = new String(line.toByteArray(), StandardCharsets.UTF_8);
+        return s.endsWith("\r") ? s.substring(0, s.length() - 1) : s;
+    }
+
+    private static void skipFully(DataInputStream in, int n) throws IOException {
+        while (n > 0) {
+            int skipped = in.skipBytes(n);
+            if (skipped <= 0) {
+                if (in.read() == -1)
+                    throw new EOFException();
+                skipped = 1;
+            }
+            n -= skipped;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package info.rires.document;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Turns the raw content of a record (html, possibly preceded by http headers) into the text that
+ * gets indexed. Implementations are stateless and shared by all the indexing threads.
+ */
+public interface ContentExtractor {
+
+    /**
+     * Appends the text of the page to the given buffer.
+     *
+     * @throws IllegalArgumentException if the content cannot be parsed
+     */
+    void extract(CharSequence content, StringBuilder text);
+
+    /**
+     * @param name "jsoup" for the accurate, DOM based extraction or "fast" for the streaming tag stripper
+     */
+    static ContentExtractor forName(String name) {
+        if ("jsoup".equals(name))
+            return new JsoupContentExtractor();
+        if ("fast".equals(name))
+            return new StreamingContentExtractor();
+        throw new IllegalArgumentException("unknown content extractor: " + name);
+    }
+}
@@ -0,0 +1,348 @@
+package info.rires.document;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
+
+/*
+Synthetic collections in the input formats of the indexer, for reproducing indexing and search
+performance without the real collections.
+Writes gzipped files of documents generated from a seed: trectext files of newswire articles,
+trecweb files of web pages (GOV2) and WARC files of http responses (ClueWeb09, ClueWeb12), whose
+records are gzip members of their own as in the real collections. The text is drawn from a
+Zipfian vocabulary of made-up words, the short words being the frequent ones, and the web pages
+wrap it in html with the usual noise: scripts, styles, navigation links, comments and entities.
+The same seed generates the same collection.
+
+usage: CorpusGenerator [-format trectext|trecweb|clueweb09|clueweb12] [-docs N] [-mb MB]
+                       [-docsPerFile N] [-vocabulary N] [-seed S] dir
+ */
+public final class CorpusGenerator {
+
+    public static final long DEFAULT_SEED = 20170401L;
+    public static final int DEFAULT_VOCABULARY = 20000;
+    public static final int DEFAULT_DOCS_PER_FILE = 10000;
+
+    private static final String[] SYLLABLES = {
+            "ba", "ce", "di", "fo", "gu", "ha", "je", "ki", "lo", "mu", "na", "pe", "qui", "ro", "su",
+            "ta", "ve", "wi", "xo", "yu", "za", "an", "er", "in", "on", "un", "str", "th", "ck", "ng"};
+
+    private final Random random;
+    private final String[] words;
+    private final double[] cumulative;
+
+    /**
+     * @param vocabulary the number of distinct words
+     */
+    public CorpusGenerator(long seed, int vocabulary) {
+        random = new Random(seed);
+        // distinct words, the shortest ones first so they get the highest frequencies
+        Set<String> distinct = new LinkedHashSet<>();
+        StringBuilder word = new StringBuilder();
+        while (distinct.size() < vocabulary) {
+            word.setLength(0);
+            int syllables = 1 + random.nextInt(4 + vocabulary / 100000);
+            for (int i = 0; i < syllables; i++) {
+                word.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+            }
+            distinct.add(word.toString());
+        }
+        words = distinct.toArray(new String[0]);
+        Arrays.sort(words, Comparator.comparingInt(String::length));
+
+        cumulative = new double[words.length];
+        double sum = 0;
+        for (int rank = 0; rank < words.length; rank++) {
+            sum += 1.0 / (rank + 1);
+            cumulative[rank] = sum;
+        }
+        for (int rank = 0; rank < words.length; rank++) {
+            cumulative[rank] /= sum;
+        }
+    }
+
+    public CorpusGenerator() {
+        this(DEFAULT_SEED, DEFAULT_VOCABULARY);
+    }
+
+    /**
+     * @return the rank of a word drawn from the Zipfian distribution
+     */
+    private int rank() {
+        int rank = Arrays.binarySearch(cumulative, random.nextDouble());
+        return rank < 0 ? Math.min(-rank - 1, words.length - 1) : rank;
+    }
+
+    public String word() {
+        return words[rank()];
+    }
+
+    /**
+     * @return a few paragraphs of text, separated by blank lines
+     */
+    public String text() {
+        StringBuilder text = new StringBuilder(4096);
+        int paragraphs = 1 + random.nextInt(6);
+        for (int p = 0; p < paragraphs; p++) {
+            int sentences = 2 + random.nextInt(8);
+            for (int s = 0; s < sentences; s++) {
+                int length = 4 + random.nextInt(20);
+                for (int w = 0; w < length; w++) {
+                    String next = word();
+                    if (w == 0) {
+                        text.append(Character.toUpperCase(next.charAt(0))).append(next, 1, next.length());
+                    } else {
+                        text.append(' ').append(next);
+                    }
+                }
+                text.append(". ");
+            }
+            text.append("\n\n");
+        }
+        return text.toString();
+    }
+
+    /**
+     * @return a query of 1 to maxTerms words, drawn from the same distribution as the text but
+     * without the most frequent 1% of the vocabulary, which queries hardly use
+     */
+    public String query(int maxTerms) {
+        StringBuilder query = new StringBuilder();
+        int terms = 1 + random.nextInt(maxTerms);
+        for (int t = 0; t < terms; t++) {
+            int rank = rank();
+            while (rank < words.length / 100) {
+                rank = rank();
+            }
+            if (t > 0)
+                query.append(' ');
+            query.append(words[rank]);
+        }
+        return query.toString();
+    }
+
+    public String url(int doc) {
+        return "http://www." + word() + word() + ".com/" + word() + "/" + doc + ".html";
+    }
+
+    /**
+     * @return an html page around some text
+     */
+    public String html(String text) {
+        StringBuilder html = new StringBuilder(text.length() * 2);
+        html.append("<!DOCTYPE html>\n<html><head><title>").append(word()).append(' ').append(word()).append("</title>\n")
+                .append("<meta charset=\"utf-8\"><meta name=\"keywords\" content=\"").append(word()).append(',').append(word()).append("\">\n")
+                .append("<style>body { font-family: sans-serif; } .").append(word()).append(" { margin: 0 auto; }</style>\n")
+                .append("<script type=\"text/javascript\">var ").append(word()).append(" = function(a) { return a < 2 && a > 0; };</script>\n")
+                .append("</head>\n<body>\n<!-- ").append(word()).append(" -->\n<div class=\"nav\"><ul>");
+        int links = random.nextInt(12);
+        for (int i = 0; i < links; i++) {
+            html.append("<li><a href=\"/").append(word()).append("\">").append(word()).append("</a></li>");
+        }
+        html.append("</ul></div>\n");
+        for (String paragraph : text.split("\n\n")) {
+            if (paragraph.isEmpty())
+                continue;
+            html.append("<div><p>");
+            String[] tokens = paragraph.split(" ");
+            for (int i = 0; i < tokens.length; i++) {
+                if (i > 0)
+                    html.append(' ');
+                switch (random.nextInt(40)) {
+                    case 0: html.append("<b>").append(tokens[i]).append("</b>"); break;
+                    case 1: html.append("<a href=\"").append(url(i)).append("\">").append(tokens[i]).append("</a>"); break;
+                    case 2: html.append(tokens[i]).append(" &amp;"); break;
+                    default: html.append(tokens[i]);
+                }
+            }
+            html.append("</p></div>\n");
+        }
+        html.append("<div class=\"footer\">&copy; ").append(word()).append("</div>\n</body></html>\n");
+        return html.toString();
+    }
+
+    /**
+     * @return an html page with http headers, as in the WARC records
+     */
+    public String page() {
+        return httpResponse(html(text()));
+    }
+
+    private static String httpResponse(String html) {
+        return "HTTP/1.1 200 OK\r\nContent-Type: text/html; charset=utf-8\r\nContent-Length: "
+                + html.getBytes(StandardCharsets.UTF_8).length + "\r\n\r\n" + html;
+    }
+
+    private static boolean isWarc(String format) {
+        return "clueweb09".equals(format) || "clueweb12".equals(format);
+    }
+
+    /**
+     * Appends what comes before the documents of a file: the warcinfo record of WARC files, nothing
+     * for the other formats.
+     */
+    public void appendHeader(String format, StringBuilder out) {
+        if (isWarc(format)) {
+            appendWarcRecord(out, warcVersion(format), "warcinfo", null, null, "software: rires CorpusGenerator\r\n");
+        }
+    }
+
+    /**
+     * Appends a document of a file, with an id made of the numbers of the file and of the document
+     * in the file the way the collection names them.
+     */
+    public void appendDocument(String format, int file, int doc, StringBuilder out) {
+        switch (format) {
+            case "trectext":
+                out.append("<DOC>\n<DOCNO> ").append(String.format(Locale.ROOT, "FT%03d-%d", file, doc)).append(" </DOCNO>\n")
+                        .append("<HEADLINE>\n").append(word()).append(' ').append(word()).append("\n</HEADLINE>\n")
+                        .append("<TEXT>\n").append(text()).append("</TEXT>\n</DOC>\n");
+                break;
+            case "trecweb":
+                out.append("<DOC>\n<DOCNO>").append(String.format(Locale.ROOT, "GX%03d-%02d-%07d", file / 100, file % 100, doc)).append("</DOCNO>\n")
+                        .append("<DOCHDR>\n").append(url(doc)).append('\n')
+                        .append("HTTP/1.1 200 OK\nContent-Type: text/html\n</DOCHDR>\n")
+                        .append(html(text())).append("</DOC>\n");
+                break;
+            case "clueweb09":
+                appendWarcRecord(out, warcVersion(format), "response",
+                        String.format(Locale.ROOT, "clueweb09-en%04d-%02d-%05d", file / 100, file % 100, doc), url(doc), page());
+                break;
+            case "clueweb12":
+                appendWarcRecord(out, warcVersion(format), "response",
+                        String.format(Locale.ROOT, "clueweb12-%04dtw-%02d-%05d", file / 100, file % 100, doc), url(doc), page());
+                break;
+            default:
+                throw new IllegalArgumentException("cannot generate documents of the format " + format);
+        }
+    }
+
+    private static String warcVersion(String format) {
+        return "clueweb09".equals(format) ? "WARC/0.18" : "WARC/1.0";
+    }
+
+    private static void appendWarcRecord(StringBuilder out, String version, String type, String id, String url, String content) {
+        out.append(version).append("\r\n")
+                .append("WARC-Type: ").append(type).append("\r\n");
+        if (id != null)
+            out.append("WARC-TREC-ID: ").append(id).append("\r\n");
+        if (url != null)
+            out.append("WARC-Target-URI: ").append(url).append("\r\n");
+        out.append("Content-Length: ").append(content.getBytes(StandardCharsets.UTF_8).length).append("\r\n")
+                .append("\r\n").append(content).append("\r\n\r\n");
+    }
+
+    /**
+     * Writes a collection of gzipped files to a directory, which is created if needed.
+     *
+     * @param docs        the number of documents, 0 for no limit
+     * @param bytes       the uncompressed size to stop at, 0 for no limit
+     * @param docsPerFile the number of documents of every file but the last
+     * @return the number of documents written
+     */
+    public long generate(String format, Path dir, long docs, long bytes, int docsPerFile) throws IOException {
+        if (docs <= 0 && bytes <= 0)
+            throw new IllegalArgumentException("the number of documents or the size of the collection is needed");
+        Files.createDirectories(dir);
+        final boolean warc = isWarc(format);
+        final StringBuilder text = new StringBuilder(1 << 16);
+        long written = 0;
+        long size = 0;
+        for (int file = 0; (docs <= 0 || written < docs) && (bytes <= 0 || size < bytes); file++) {
+            final Path path = dir.resolve(String.format(Locale.ROOT, "%s-%05d%s", format, file, warc ? ".warc.gz" : ".gz"));
+            try (OutputStream out = Files.newOutputStream(path)) {
+                // every WARC record is a gzip member, the other files are a single member
+                GZIPOutputStream member = new GZIPOutputStream(out, 1 << 16);
+                text.setLength(0);
+                appendHeader(format, text);
+                for (int doc = 0; doc < docsPerFile && (docs <= 0 || written < docs) && (bytes <= 0 || size < bytes); doc++) {
+                    appendDocument(format, file, doc, text);
+                    written++;
+                    if (warc || text.length() >= 1 << 16) {
+                        size += write(text, member);
+                        if (warc) {
+                            member.finish();
+                            member = new GZIPOutputStream(out, 1 << 16);
+                        }
+                    }
+                }
+                size += write(text, member);
+                member.finish();
+            }
+        }
+        return written;
+    }
+
+    /**
+     * @return the number of bytes written, the buffer is cleared
+     */
+    private static int write(StringBuilder text, OutputStream out) throws IOException {
+        final byte[] bytes = text.toString().getBytes(StandardCharsets.UTF_8);
+        out.write(bytes);
+        text.setLength(0);
+        return bytes.length;
+    }
+
+    public static void main(String[] args) throws IOException {
+        String format = "trectext";
+        long docs = 0;
+        long megabytes = 0;
+        int docsPerFile = DEFAULT_DOCS_PER_FILE;
+        int vocabulary = DEFAULT_VOCABULARY;
+        long seed = DEFAULT_SEED;
+        String dir = null;
+        for (int i = 0; i < args.length; i++) {
+            if ("-format".equals(args[i]))
+                format = args[++i];
+            else if ("-docs".equals(args[i]))
+                docs = Long.parseLong(args[++i]);
+            else if ("-mb".equals(args[i]))
+                megabytes = Long.parseLong(args[++i]);
+            else if ("-docsPerFile".equals(args[i]))
+                docsPerFile = Integer.parseInt(args[++i]);
+            else if ("-vocabulary".equals(args[i]))
+                vocabulary = Integer.parseInt(args[++i]);
+            else if ("-seed".equals(args[i]))
+                seed = Long.parseLong(args[++i]);
+            else
+                dir = args[i];
+        }
+        if (dir == null || (docs <= 0 && megabytes <= 0)) {
+            System.out.println("usage: CorpusGenerator [-format trectext|trecweb|clueweb09|clueweb12] [-docs N] [-mb MB]\n"
+                    + "                       [-docsPerFile N] [-vocabulary N] [-seed S] dir");
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        long written = new CorpusGenerator(seed, vocabulary).generate(format, Paths.get(dir), docs, megabytes << 20, docsPerFile);
+        System.out.println(written + " " + format + " documents written to " + dir + " in "
+                + (System.currentTimeMillis() - start) + " ms");
+    }
+}
@@ -0,0 +1,62 @@
+package info.rires.document;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * A single pass over the documents of one input file of a collection.
+ *
+ * Every collection format has its own implementation, registered by name in
+ * {@link DocumentSources}, so the readers can be optimized and benchmarked on their own and new
+ * collections can be added without touching the indexer.
+ */
+public interface DocumentSource extends Closeable {
+
+    /**
+     * @return the next record of the input, or null at its end
+     */
+    WarcRecord next() throws IOException;
+
+    /**
+     * Opens the input files of one collection format.
+     */
+    interface Factory {
+
+        /**
+         * @param in the (decompressed) input, closed with the source
+         */
+        DocumentSource open(InputStream in) throws IOException;
+
+        /**
+         * Opens an uncompressed input file.
+         */
+        default DocumentSource open(Path file) throws IOException {
+            return open(Files.newInputStream(file));
+        }
+
+        /**
+         * @return whether the content of the records is html that the text has to be extracted from
+         */
+        boolean html();
+    }
+}
@@ -0,0 +1,59 @@
+package info.rires.document;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of the {@link DocumentSource} formats, by the name given to the indexer.
+ */
+public final class DocumentSources {
+
+    private static final Map<String, DocumentSource.Factory> FACTORIES = new ConcurrentHashMap<>();
+
+    static {
+        register("trectext", TrecDocumentSource.TRECTEXT);
+        register("trecweb", TrecDocumentSource.TRECWEB);
+        register("clueweb09", WarcDocumentSource.CLUEWEB09);
+        register("clueweb12", WarcDocumentSource.CLUEWEB12);
+    }
+
+    private DocumentSources() {
+    }
+
+    public static void register(String name, DocumentSource.Factory factory) {
+        FACTORIES.put(name, factory);
+    }
+
+    /**
+     * @throws IllegalArgumentException if no format is registered under the name
+     */
+    public static DocumentSource.Factory get(String name) {
+        DocumentSource.Factory factory = FACTORIES.get(name);
+        if (factory == null)
+            throw new IllegalArgumentException("unknown collection format: " + name + ", known formats: " + names());
+        return factory;
+    }
+
+    public static Set<String> names() {
+        return new TreeSet<>(FACTORIES.keySet());
+    }
+}
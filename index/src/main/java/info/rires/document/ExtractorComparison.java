@@ -0,0 +1,110 @@
+package info.rires.document;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.apache.lucene.document.Document;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/*
+Side by side throughput of the content extractors.
+Loads the pages of the given files (trecweb files, gzipped or not, or single html pages) into
+memory and runs every extractor over all of them a few times.
+
+usage: ExtractorComparison [-rounds N] file...
+ */
+public final class ExtractorComparison {
+
+    private static final String[] EXTRACTORS = {"jsoup", "fast"};
+
+    private ExtractorComparison() {
+    }
+
+    private static void load(Path file, List<String> pages) throws IOException {
+        String name = file.getFileName().toString();
+        if (name.endsWith(".html") || name.endsWith(".htm")) {
+            pages.add(new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+            return;
+        }
+        InputStream in = Files.newInputStream(file);
+        if (name.endsWith(".gz"))
+            in = new GZIPInputStream(in, Gov2Record.BUFFER_SIZE);
+        try (TrecDocScanner docs = new TrecDocScanner(in, true)) {
+            while (docs.hasNext()) {
+                Document doc = docs.next();
+                if (doc.getField("contents") != null)
+                    pages.add(doc.getField("contents").stringValue());
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int rounds = 5;
+        List<String> pages = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if ("-rounds".equals(args[i]))
+                rounds = Integer.parseInt(args[++i]);
+            else
+                load(Paths.get(args[i]), pages);
+        }
+        if (pages.isEmpty()) {
+            System.out.println("usage: ExtractorComparison [-rounds N] file...");
+            return;
+        }
+
+        long chars = 0;
+        for (String page : pages)
+            chars += page.length();
+        System.out.println(pages.size() + " pages, " + chars + " chars");
+
+        StringBuilder text = new StringBuilder();
+        for (String name : EXTRACTORS) {
+            ContentExtractor extractor = ContentExtractor.forName(name);
+            long textChars = 0;
+            long best = Long.MAX_VALUE;
+            // the first round warms up
+            for (int round = 0; round <= rounds; round++) {
+                textChars = 0;
+                long start = System.nanoTime();
+                for (String page : pages) {
+                    text.setLength(0);
+                    try {
+                        extractor.extract(page, text);
+                    } catch (IllegalArgumentException iae) {
+                        continue;
+                    }
+                    textChars += text.length();
+                }
+                long elapsed = System.nanoTime() - start;
+                if (round > 0)
+                    best = Math.min(best, elapsed);
+            }
+            double seconds = best / 1e9;
+            System.out.println(String.format("%-6s %10.1f pages/s %8.2f Mchars/s  text/html %.3f",
+                    name, pages.size() / seconds, chars / seconds / 1e6, (double) textChars / chars));
+        }
+    }
+}
@@ -31,6 +31,10 @@ public final class Gov2Record {
 
     public static final int BUFFER_SIZE = 1 << 16; // 64K
 
+    /**
+     * Parses a GOV2 document held in the builder. The record copies its content, the builder can
+     * be reused for the next document.
+     */
     public static WarcRecord parseGov2Record(StringBuilder builder) {
 
         int i = builder.indexOf(DOCNO);
@@ -51,7 +55,12 @@ public final class Gov2Record {
 
         if (j < i) throw new RuntimeException(TERMINATING_DOCHDR + " comes before " + DOCHDR);
 
-        final String content = builder.substring(j + TERMINATING_DOCHDR.length()).trim();
+        // trimmed in place, so that the content is copied once
+        int start = j + TERMINATING_DOCHDR.length();
+        int end = builder.length();
+        while (start < end && builder.charAt(start) <= ' ') start++;
+        while (end > start && builder.charAt(end - 1) <= ' ') end--;
+        final String content = builder.substring(start, end);
 
         return new WarcRecord() {
             @Override
@@ -73,6 +82,11 @@ public final class Gov2Record {
             public String type() {
                 return "response";
             }
+
+            @Override
+            public int contentLength() {
+                return content.length();
+            }
         };
     }
 }
\ No newline at end of file
@@ -0,0 +1,430 @@
+package info.rires.document;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+/**
+ * Gzip input stream that inflates the members of a multi-member archive in parallel.
+ *
+ * ClueWeb WARC files are a concatenation of gzip members, one per record. This stream scans
+ * the compressed input for member headers, cuts it into segments of whole members and inflates
+ * the segments on the given executor, while the inflated bytes are handed back in order.
+ *
+ * A member header can't be told apart from the same bytes inside compressed data without
+ * inflating, so every segment is verified to end exactly with a member trailer whose crc and
+ * size match. When a segment fails that check, when the first {@link #MIN_SEGMENT} bytes hold a
+ * single member header (e.g. single-member GOV2 files), or when no member boundary shows up within
+ * {@link #MAX_SEGMENT} bytes, the rest of the input is read through a plain {@link GZIPInputStream},
+ * so that a reader never buffers more than a few segments.
+ */
+public final class ParallelGZIPInputStream extends InputStream {
+
+    private static final int MIN_SEGMENT = 1 << 18; // 256K
+    private static final int MAX_SEGMENT = 1 << 22; // 4M
+    private static final int READ_SIZE = 1 << 16; // 64K
+
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+
+    private static final class Segment {
+        final byte[] compressed;
+        final Future<byte[]> inflated;
+
+        Segment(byte[] compressed, Future<byte[]> inflated) {
+            this.compressed = compressed;
+            this.inflated = inflated;
+        }
+    }
+
+    private final InputStream in;
+    private final ExecutorService executor;
+    private final int window;
+    private final Deque<Segment> pending = new ArrayDeque<>();
+
+    // compressed bytes that have been read but not cut into a segment yet
+    private byte[] buf = new byte[MIN_SEGMENT * 2];
+    private int start = 0;
+    private int end = 0;
+    private boolean inputDone = false;
+    private boolean scanDone = false;
+    // whether a second member header was found at the start of the input
+    private boolean multiMember = false;
+
+    private byte[] current = new byte[0];
+    private int pos = 0;
+
+    private InputStream sequential;
+    private boolean closed = false;
+
+    /**
+     * @param in       the compressed input
+     * @param executor the pool inflating the segments, usually shared by all the readers
+     * @param window   the number of segments inflated ahead of the reader
+     */
+    public ParallelGZIPInputStream(InputStream in, ExecutorService executor, int window) {
+        this.in = in;
+        this.executor = executor;
+        this.window = Math.max(1, window);
+    }
+
+    @Override
+    public int read() throws IOException {
+        while (pos == current.length) {
+            if (!advance())
+                return sequential == null ? -1 : sequential.read();
+        }
+        return current[pos++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0)
+            return 0;
+        while (pos == current.length) {
+            if (!advance())
+                return sequential == null ? -1 : sequential.read(b, off, len);
+        }
+        int n = Math.min(len, current.length - pos);
+        System.arraycopy(current, pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
+    @Override
+    public int available() throws IOException {
+        if (pos < current.length)
+            return current.length - pos;
+        return sequential == null ? 0 : sequential.available();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        for (Segment s : pending)
+            s.inflated.cancel(true);
+        pending.clear();
+        if (sequential != null)
+            sequential.close();
+        else
+            in.close();
+    }
+
+    /**
+     * Moves to the next inflated segment.
+     *
+     * @return false if the parallel part of the stream is exhausted, either at the end of the
+     * input or because the rest has to be read through {@link #sequential}
+     */
+    private boolean advance() throws IOException {
+        if (closed)
+            throw new IOException("Stream closed");
+        if (sequential != null)
+            return false;
+        fill();
+        Segment segment = pending.poll();
+        if (segment == null) {
+            if (scanDone && start < end)
+                startSequential(null);
+            return false;
+        }
+        fill();
+
+        byte[] inflated;
+        try {
+            inflated = segment.inflated.get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while inflating");
+        } catch (ExecutionException ee) {
+            throw new IOException("inflating failed", ee.getCause());
+        }
+        if (inflated == null) {
+            // the segment did not end at a member boundary, fall back from its start
+            startSequential(segment);
+            return false;
+        }
+        current = inflated;
+        pos = 0;
+        return true;
+    }
+
+    /**
+     * Cuts and submits segments until the read-ahead window is full.
+     */
+    private void fill() throws IOException {
+        while (!scanDone && pending.size() < window) {
+            final byte[] segment = nextSegment();
+            if (segment == null)
+                break;
+            pending.add(new Segment(segment, executor.submit(new Callable<byte[]>() {
+                @Override
+                public byte[] call() {
+                    return inflateMembers(segment);
+                }
+            })));
+        }
+    }
+
+    /**
+     * @return the next run of whole members, or null once scanning has stopped
+     */
+    private byte[] nextSegment() throws IOException {
+        if (!multiMember) {
+            // a single-member input is streamed as it is rather than buffered to look for a boundary
+            while (!inputDone && end - start < MIN_SEGMENT)
+                readMore();
+            if (findMember(buf, start + 1, Math.min(end, start + MIN_SEGMENT)) < 0) {
+                scanDone = true;
+                return null;
+            }
+            multiMember = true;
+        }
+        // offset from start where the scan for the next header resumes
+        int from = MIN_SEGMENT;
+        while (true) {
+            int cut = findMember(buf, start + from, end);
+            if (cut >= 0) {
+                byte[] segment = Arrays.copyOfRange(buf, start, cut);
+                start = cut;
+                return segment;
+            }
+            if (inputDone) {
+                scanDone = true;
+                if (start == end)
+                    return null;
+                byte[] segment = Arrays.copyOfRange(buf, start, end);
+                start = end;
+                return segment;
+            }
+            if (end - start >= MAX_SEGMENT) {
+                // no member boundary in sight, leave the rest to the sequential stream
+                scanDone = true;
+                return null;
+            }
+            // a header may straddle the end of what has been read so far
+            from = Math.max(from, end - start - 9);
+            readMore();
+        }
+    }
+
+    private void readMore() throws IOException {
+        if (start > 0) {
+            System.arraycopy(buf, start, buf, 0, end - start);
+            end -= start;
+            start = 0;
+        }
+        if (buf.length - end < READ_SIZE)
+            buf = Arrays.copyOf(buf, buf.length * 2);
+        int n = in.read(buf, end, buf.length - end);
+        if (n < 0)
+            inputDone = true;
+        else
+            end += n;
+    }
+
+    /**
+     * Reads the rest of the input, starting with the given segment, through a plain gzip stream.
+     */
+    private void startSequential(Segment from) throws IOException {
+        int size = end - start;
+        if (from != null)
+            size += from.compressed.length;
+        for (Segment s : pending)
+            size += s.compressed.length;
+
+        byte[] head = new byte[size];
+        int off = 0;
+        if (from != null) {
+            System.arraycopy(from.compressed, 0, head, off, from.compressed.length);
+            off += from.compressed.length;
+        }
+        for (Segment s : pending) {
+            s.inflated.cancel(true);
+            System.arraycopy(s.compressed, 0, head, off, s.compressed.length);
+            off += s.compressed.length;
+        }
+        pending.clear();
+        System.arraycopy(buf, start, head, off, end - start);
+        start = end = 0;
+        buf = null;
+        scanDone = true;
+
+        sequential = new GZIPInputStream(new HeadInputStream(head, in), Gov2Record.BUFFER_SIZE);
+    }
+
+    /**
+     * Finds the next position that looks like the start of a gzip member.
+     */
+    static int findMember(byte[] b, int from, int to) {
+        for (int i = from; i + 10 <= to; i++) {
+            if (b[i] != 0x1f || b[i + 1] != (byte) 0x8b || b[i + 2] != 8)
+                continue;
+            // reserved flag bits must be zero
+            if ((b[i + 3] & 0xe0) != 0)
+                continue;
+            int xfl = b[i + 8] & 0xff;
+            if (xfl != 0 && xfl != 2 && xfl != 4)
+                continue;
+            int os = b[i + 9] & 0xff;
+            if (os > 13 && os != 255)
+                continue;
+            return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Inflates a run of whole gzip members.
+     *
+     * @return the inflated bytes, or null if the data does not consist of complete, valid members
+     */
+    static byte[] inflateMembers(byte[] in) {
+        byte[] out = new byte[Math.max(1024, in.length * 4)];
+        int outLen = 0;
+        int p = 0;
+        Inflater inflater = new Inflater(true);
+        CRC32 crc = new CRC32();
+        try {
+            while (p < in.length) {
+                p = skipHeader(in, p);
+                if (p < 0)
+                    return null;
+
+                inflater.reset();
+                inflater.setInput(in, p, in.length - p);
+                int memberStart = outLen;
+                while (!inflater.finished()) {
+                    if (outLen == out.length)
+                        out = Arrays.copyOf(out, out.length * 2);
+                    int n = inflater.inflate(out, outLen, out.length - outLen);
+                    if (n == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                        return null;
+                    outLen += n;
+                }
+                p = in.length - inflater.getRemaining();
+
+                if (p + 8 > in.length)
+                    return null;
+                crc.reset();
+                crc.update(out, memberStart, outLen - memberStart);
+                if (readInt(in, p) != (int) crc.getValue() || readInt(in, p + 4) != outLen - memberStart)
+                    return null;
+                p += 8;
+            }
+        } catch (DataFormatException e) {
+            return null;
+        } finally {
+            inflater.end();
+        }
+        return outLen == out.length ? out : Arrays.copyOf(out, outLen);
+    }
+
+    /**
+     * @return the offset of the deflate data of the member starting at p, or -1 if there is no valid header
+     */
+    private static int skipHeader(byte[] b, int p) {
+        if (findMember(b, p, Math.min(b.length, p + 10)) != p)
+            return -1;
+        int flags = b[p + 3];
+        p += 10;
+        if ((flags & FEXTRA) != 0) {
+            if (p + 2 > b.length)
+                return -1;
+            p += 2 + ((b[p] & 0xff) | (b[p + 1] & 0xff) << 8);
+        }
+        if ((flags & FNAME) != 0) {
+            while (p < b.length && b[p] != 0) p++;
+            p++;
+        }
+        if ((flags & FCOMMENT) != 0) {
+            while (p < b.length && b[p] != 0) p++;
+            p++;
+        }
+        if ((flags & FHCRC) != 0)
+            p += 2;
+        return p < b.length ? p : -1;
+    }
+
+    private static int readInt(byte[] b, int p) {
+        return (b[p] & 0xff) | (b[p + 1] & 0xff) << 8 | (b[p + 2] & 0xff) << 16 | (b[p + 3] & 0xff) << 24;
+    }
+
+    /**
+     * Already read bytes followed by the rest of the input. Unlike {@link java.io.SequenceInputStream}
+     * it reports what is available across the switch, which {@link GZIPInputStream} relies on to
+     * look for a following member.
+     */
+    private static final class HeadInputStream extends InputStream {
+        private final byte[] head;
+        private int pos = 0;
+        private final InputStream in;
+
+        HeadInputStream(byte[] head, InputStream in) {
+            this.head = head;
+            this.in = in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (pos < head.length)
+                return head[pos++] & 0xff;
+            return in.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (pos < head.length) {
+                int n = Math.min(len, head.length - pos);
+                System.arraycopy(head, pos, b, off, n);
+                pos += n;
+                return n;
+            }
+            return in.read(b, off, len);
+        }
+
+        @Override
+        public int available() throws IOException {
+            if (pos < head.length)
+                return head.length - pos;
+            return in.available();
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package info.rires.document;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Fast extraction: a single pass over the html that drops the markup, comments and the bodies
+ * of script and style elements, decodes character references and collapses whitespace, without
+ * building a DOM. Tags other than inline formatting ones (b, i, span, ...) separate words.
+ */
+public final class StreamingContentExtractor implements ContentExtractor {
+
+    private static final String[] INLINE_TAGS = {
+            "a", "abbr", "acronym", "b", "big", "cite", "code", "em", "font", "i", "kbd",
+            "s", "small", "span", "strike", "strong", "sub", "sup", "tt", "u"
+    };
+
+    private static final String[] RAW_TEXT_TAGS = {"script", "style"};
+
+    private static final String[] ENTITY_NAMES = {
+            "amp", "lt", "gt", "quot", "apos", "nbsp", "copy", "reg", "trade", "mdash", "ndash",
+            "hellip", "laquo", "raquo", "lsquo", "rsquo", "ldquo", "rdquo", "middot", "bull"
+    };
+    private static final char[] ENTITY_VALUES = {
+            '&', '<', '>', '"', '\'', '\u00a0', '\u00a9', '\u00ae', '\u2122', '\u2014', '\u2013',
+            '\u2026', '\u00ab', '\u00bb', '\u2018', '\u2019', '\u201c', '\u201d', '\u00b7', '\u2022'
+    };
+
+    // longest character reference that is decoded, e.g. &#x10FFFF;
+    private static final int MAX_ENTITY = 10;
+
+    @Override
+    public void extract(CharSequence html, StringBuilder text) {
+        final int start = text.length();
+        final int n = html.length();
+        boolean separate = false;
+        int i = 0;
+        while (i < n) {
+            char c = html.charAt(i);
+            if (c == '<' && i + 1 < n) {
+                char d = html.charAt(i + 1);
+                if (d == '!') {
+                    i = regionMatches(html, i, "<!--") ? skipPast(html, i + 4, "-->") : skipTag(html, i + 2);
+                    separate = true;
+                    continue;
+                }
+                if (d == '?') {
+                    i = skipTag(html, i + 2);
+                    separate = true;
+                    continue;
+                }
+                boolean closing = d == '/';
+                int nameStart = closing ? i + 2 : i + 1;
+                if (nameStart < n && isLetter(html.charAt(nameStart))) {
+                    int nameEnd = nameStart;
+                    while (nameEnd < n && isTagNameChar(html.charAt(nameEnd))) nameEnd++;
+                    i = skipTag(html, nameEnd);
+                    if (!closing) {
+                        String rawText = find(RAW_TEXT_TAGS, html, nameStart, nameEnd);
+                        if (rawText != null)
+                            i = skipRawText(html, i, rawText);
+                    }
+                    if (find(INLINE_TAGS, html, nameStart, nameEnd) == null)
+                        separate = true;
+                    continue;
+                }
+                // not a tag, a literal '<'
+            }
+
+            if (c == '&') {
+                int semicolon = -1;
+                for (int j = i + 1; j < n && j <= i + MAX_ENTITY; j++) {
+                    if (html.charAt(j) == ';') {
+                        semicolon = j;
+                        break;
+                    }
+                }
+                int codePoint = semicolon < 0 ? -1 : decodeEntity(html, i + 1, semicolon);
+                if (codePoint >= 0) {
+                    i = semicolon + 1;
+                    if (codePoint == '\u00a0') {
+                        separate = true;
+                        continue;
+                    }
+                    separate = appendSeparator(text, start, separate);
+                    text.appendCodePoint(codePoint);
+                    continue;
+                }
+                // not a known character reference, a literal '&'
+            }
+
+            if (Character.isWhitespace(c) || c == '\u00a0') {
+                separate = true;
+            } else {
+                separate = appendSeparator(text, start, separate);
+                text.append(c);
+            }
+            i++;
+        }
+    }
+
+    private static boolean appendSeparator(StringBuilder text, int start, boolean separate) {
+        if (separate && text.length() > start)
+            text.append(' ');
+        return false;
+    }
+
+    /**
+     * @return the position after the '>' closing the tag, attribute values are not interpreted
+     */
+    private static int skipTag(CharSequence html, int from) {
+        for (int i = from, n = html.length(); i < n; i++) {
+            if (html.charAt(i) == '>')
+                return i + 1;
+        }
+        return html.length();
+    }
+
+    private static int skipPast(CharSequence html, int from, String end) {
+        for (int i = from, n = html.length() - end.length(); i <= n; i++) {
+            if (regionMatches(html, i, end))
+                return i + end.length();
+        }
+        return html.length();
+    }
+
+    /**
+     * Skips the contents of a script or style element up to and including its end tag.
+     */
+    private static int skipRawText(CharSequence html, int from, String name) {
+        for (int i = from, n = html.length() - name.length() - 2; i <= n; i++) {
+            if (html.charAt(i) == '<' && html.charAt(i + 1) == '/'
+                    && equalsIgnoreCase(html, i + 2, i + 2 + name.length(), name)) {
+                int after = i + 2 + name.length();
+                if (after == html.length() || !isTagNameChar(html.charAt(after)))
+                    return skipTag(html, after);
+            }
+        }
+        return html.length();
+    }
+
+    /**
+     * @return the code point of the character reference in [from, to), or -1 if it is not one
+     */
+    private static int decodeEntity(CharSequence html, int from, int to) {
+        if (from >= to)
+            return -1;
+        if (html.charAt(from) == '#') {
+            int radix = 10;
+            int i = from + 1;
+            if (i < to && (html.charAt(i) == 'x' || html.charAt(i) == 'X')) {
+                radix = 16;
+                i++;
+            }
+            if (i == to)
+                return -1;
+            int value = 0;
+            for (; i < to; i++) {
+                int digit = Character.digit(html.charAt(i), radix);
+                if (digit < 0)
+                    return -1;
+                value = value * radix + digit;
+            }
+            return Character.isValidCodePoint(value) && value != 0 ? value : -1;
+        }
+        for (int k = 0; k < ENTITY_NAMES.length; k++) {
+            String name = ENTITY_NAMES[k];
+            if (name.length() == to - from && regionMatches(html, from, name))
+                return ENTITY_VALUES[k];
+        }
+        return -1;
+    }
+
+    private static String find(String[] names, CharSequence html, int from, int to) {
+        for (String name : names) {
+            if (equalsIgnoreCase(html, from, to, name))
+                return name;
+        }
+        return null;
+    }
+
+    private static boolean equalsIgnoreCase(CharSequence html, int from, int to, String lowerCase) {
+        if (to - from != lowerCase.length() || to > html.length())
+            return false;
+        for (int i = 0; i < lowerCase.length(); i++) {
+            if (Character.toLowerCase(html.charAt(from + i)) != lowerCase.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean regionMatches(CharSequence html, int from, String s) {
+        if (from + s.length() > html.length())
+            return false;
+        for (int i = 0; i < s.length(); i++) {
+            if (html.charAt(from + i) != s.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean isLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static boolean isTagNameChar(char c) {
+        return isLetter(c) || (c >= '0' && c <= '9') || c == '-' || c == ':';
+    }
+}
@@ -0,0 +1,68 @@
+package info.rires.document;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A document of a TREC formatted file, its body kept as UTF-8 bytes until it is asked for.
+ */
+public final class TrecDocRecord implements WarcRecord {
+
+    private final String docno;
+    private final byte[] body;
+    private String content;
+
+    public TrecDocRecord(String docno, byte[] body) {
+        this.docno = docno;
+        this.body = body;
+    }
+
+    @Override
+    public String id() {
+        return docno;
+    }
+
+    @Override
+    public String content() {
+        if (content == null)
+            content = new String(body, StandardCharsets.UTF_8);
+        return content;
+    }
+
+    @Override
+    public String url() {
+        return null;
+    }
+
+    @Override
+    public String type() {
+        return "response";
+    }
+
+    @Override
+    public int contentLength() {
+        return body.length;
+    }
+
+    @Override
+    public ByteBuffer contentBytes() {
+        return ByteBuffer.wrap(body).asReadOnlyBuffer();
+    }
+}
@@ -0,0 +1,291 @@
+package info.rires.document;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/*
+Byte level TREC Document Scanner.
+Replacement for TrecTextDocIterator (trectext) and TrecWebDocIterator (trecweb, skips the
+<DOCHDR> block) that finds the tags by matching bytes, without line splitting or regular
+expressions. The docno is decoded right away, the body is only copied out as bytes and decoded
+when it is indexed.
+ */
+public class TrecDocScanner implements Iterator<Document>, Closeable {
+
+    private static final byte[] DOC = ascii("<DOC>");
+    private static final byte[] TERMINATING_DOC = ascii("</DOC>");
+    private static final byte[] DOCNO = ascii("<DOCNO>");
+    private static final byte[] TERMINATING_DOCNO = ascii("</DOCNO>");
+    private static final byte[] DOCHDR = ascii("<DOCHDR>");
+    private static final byte[] TERMINATING_DOCHDR = ascii("</DOCHDR>");
+    private static final byte[] EMPTY = new byte[0];
+
+    private final InputStream in;
+    private final boolean skipHeader;
+
+    // the scanned bytes are [pos, limit) of buf
+    private ByteBuffer buf;
+    private int pos = 0;
+    private int limit;
+    private boolean eof = false;
+
+    private byte[] scratch;
+    private TrecDocRecord next;
+
+    /**
+     * Scans a stream of (decompressed) TREC documents.
+     *
+     * @param skipHeader whether to leave the <DOCHDR> block out of the contents, as for trecweb
+     */
+    public TrecDocScanner(InputStream in, boolean skipHeader) {
+        this.in = in;
+        this.skipHeader = skipHeader;
+        this.buf = ByteBuffer.wrap(new byte[Gov2Record.BUFFER_SIZE]);
+        this.limit = 0;
+    }
+
+    /**
+     * Scans TREC documents held in memory, e.g. a mapped file.
+     */
+    public TrecDocScanner(ByteBuffer bytes, boolean skipHeader) {
+        this.in = null;
+        this.skipHeader = skipHeader;
+        this.buf = bytes.slice();
+        this.limit = buf.limit();
+        this.eof = true;
+    }
+
+    /**
+     * Scans an uncompressed file through a memory mapping.
+     */
+    public static TrecDocScanner map(Path file, boolean skipHeader) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE)
+                throw new IOException("file too large to be mapped: " + file);
+            return new TrecDocScanner(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), skipHeader);
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null) {
+            try {
+                next = scan();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return next != null;
+    }
+
+    @Override
+    public Document next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        TrecDocRecord record = next;
+        next = null;
+
+        Document doc = new Document();
+        if (record.id() != null) {
+            doc.add(new StringField("docno", record.id(), Field.Store.YES));
+            doc.add(new SortedDocValuesField("docno", new BytesRef(record.id())));
+        }
+        if (record.contentLength() > 0)
+            doc.add(new TextField("contents", record.content(), Field.Store.NO));
+        return doc;
+    }
+
+    /**
+     * The record interface of the scanner, the body is copied out of the buffer but not decoded.
+     * The docno of the record is null for a document without one, its content is empty if the body
+     * is blank.
+     *
+     * @return the next document, or null at the end of the input
+     */
+    public TrecDocRecord nextRecord() throws IOException {
+        if (next != null) {
+            TrecDocRecord record = next;
+            next = null;
+            return record;
+        }
+        return scan();
+    }
+
+    @Override
+    public void remove() {
+        // Do nothing, but don't complain
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (in != null)
+            in.close();
+    }
+
+    /**
+     * @return the next document, or null at the end of the input
+     */
+    private TrecDocRecord scan() throws IOException {
+        int docStart;
+        while ((docStart = indexOf(DOC, pos, limit)) < 0) {
+            // a tag may straddle the end of the buffer
+            pos = Math.max(pos, limit - DOC.length + 1);
+            if (!fill())
+                return null;
+        }
+        pos = docStart;
+
+        int from = docStart + DOC.length;
+        int docEnd;
+        while ((docEnd = indexOf(TERMINATING_DOC, from, limit)) < 0) {
+            int scanned = Math.max(from, limit - TERMINATING_DOC.length + 1) - pos;
+            if (!fill()) {
+                // unterminated document at the end of the input
+                docEnd = limit;
+                break;
+            }
+            from = pos + scanned;
+        }
+        // filling moves the bytes around, the document still starts at pos
+        docStart = pos;
+
+        String docno = null;
+        int bodyStart = docStart + DOC.length;
+
+        int i = indexOf(DOCNO, bodyStart, docEnd);
+        if (i >= 0) {
+            int j = indexOf(TERMINATING_DOCNO, i + DOCNO.length, docEnd);
+            if (j >= 0) {
+                docno = decode(i + DOCNO.length, j, StandardCharsets.US_ASCII).trim();
+                bodyStart = j + TERMINATING_DOCNO.length;
+            }
+        }
+
+        if (skipHeader) {
+            i = indexOf(DOCHDR, bodyStart, docEnd);
+            if (i >= 0) {
+                int j = indexOf(TERMINATING_DOCHDR, i + DOCHDR.length, docEnd);
+                if (j >= 0)
+                    bodyStart = j + TERMINATING_DOCHDR.length;
+            }
+        }
+
+        byte[] body = isBlank(bodyStart, docEnd) ? EMPTY : copy(bodyStart, docEnd);
+
+        pos = Math.min(limit, docEnd + TERMINATING_DOC.length);
+        return new TrecDocRecord(docno, body);
+    }
+
+    /**
+     * Moves the unscanned bytes to the front of the buffer, growing it if they fill it, and
+     * reads more of the input.
+     *
+     * @return false if there is nothing more to read
+     */
+    private boolean fill() throws IOException {
+        if (eof)
+            return false;
+        byte[] array = buf.array();
+        int remaining = limit - pos;
+        if (remaining == array.length) {
+            byte[] grown = new byte[array.length * 2];
+            System.arraycopy(array, pos, grown, 0, remaining);
+            array = grown;
+            buf = ByteBuffer.wrap(array);
+        } else if (pos > 0) {
+            System.arraycopy(array, pos, array, 0, remaining);
+        }
+        pos = 0;
+        limit = remaining;
+
+        int n = in.read(array, limit, array.length - limit);
+        if (n < 0) {
+            eof = true;
+            return false;
+        }
+        limit += n;
+        return true;
+    }
+
+    private int indexOf(byte[] pattern, int from, int to) {
+        final byte first = pattern[0];
+        outer:
+        for (int i = from, max = to - pattern.length; i <= max; i++) {
+            if (buf.get(i) != first)
+                continue;
+            for (int k = 1; k < pattern.length; k++) {
+                if (buf.get(i + k) != pattern[k])
+                    continue outer;
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private boolean isBlank(int from, int to) {
+        for (int i = from; i < to; i++) {
+            // unsigned, the bytes of the non-ASCII characters are negative
+            if ((buf.get(i) & 0xff) > ' ')
+                return false;
+        }
+        return true;
+    }
+
+    private byte[] copy(int from, int to) {
+        byte[] bytes = new byte[to - from];
+        ByteBuffer view = buf.duplicate();
+        view.position(from);
+        view.get(bytes);
+        return bytes;
+    }
+
+    private String decode(int from, int to, java.nio.charset.Charset charset) {
+        if (buf.hasArray())
+            return new String(buf.array(), buf.arrayOffset() + from, to - from, charset);
+        // mapped input, copy out just the part that gets decoded
+        int length = to - from;
+        if (scratch == null || scratch.length < length)
+            scratch = new byte[Math.max(length, Gov2Record.BUFFER_SIZE)];
+        ByteBuffer view = buf.duplicate();
+        view.position(from);
+        view.get(scratch, 0, length);
+        return new String(scratch, 0, length, charset);
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,71 @@
+package info.rires.document;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+
+/**
+ * TREC formatted collections: trectext (TREC 1-3, 6-8, robust04) and trecweb (WT2G, WT10G, GOV2),
+ * read through {@link TrecDocScanner}.
+ */
+public final class TrecDocumentSource implements DocumentSource {
+
+    public static final DocumentSource.Factory TRECTEXT = new Format(false);
+    public static final DocumentSource.Factory TRECWEB = new Format(true);
+
+    private static final class Format implements DocumentSource.Factory {
+        private final boolean web;
+
+        Format(boolean web) {
+            this.web = web;
+        }
+
+        @Override
+        public DocumentSource open(InputStream in) {
+            return new TrecDocumentSource(new TrecDocScanner(in, web));
+        }
+
+        @Override
+        public DocumentSource open(Path file) throws IOException {
+            return new TrecDocumentSource(TrecDocScanner.map(file, web));
+        }
+
+        @Override
+        public boolean html() {
+            return web;
+        }
+    }
+
+    private final TrecDocScanner scanner;
+
+    private TrecDocumentSource(TrecDocScanner scanner) {
+        this.scanner = scanner;
+    }
+
+    @Override
+    public WarcRecord next() throws IOException {
+        return scanner.nextRecord();
+    }
+
+    @Override
+    public void close() throws IOException {
+        scanner.close();
+    }
+}
@@ -19,8 +19,10 @@ package info.rires.document;
 
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
+import org.apache.lucene.document.SortedDocValuesField;
 import org.apache.lucene.document.StringField;
 import org.apache.lucene.document.TextField;
+import org.apache.lucene.util.BytesRef;
 
 import java.io.*;
 import java.util.Iterator;
@@ -49,6 +51,7 @@ public class TrecTextDocIterator implements Iterator<Document> {
             String line;
             Pattern docno_tag = Pattern.compile("<DOCNO>\\s*(\\S+)\\s*<");
             boolean in_doc = false;
+            String docno = null;
             while (true) {
                 line = this.br.readLine();
                 if (line == null) {
@@ -69,10 +72,14 @@ public class TrecTextDocIterator implements Iterator<Document> {
                     break;
                 }
 
-                Matcher m = docno_tag.matcher(line);
-                if (m.find()) {
-                    String docno = m.group(1);
-                    doc.add(new StringField("docno", docno, Field.Store.YES));
+                // a document has a single id, the doc values field only takes one
+                if (docno == null) {
+                    Matcher m = docno_tag.matcher(line);
+                    if (m.find()) {
+                        docno = m.group(1);
+                        doc.add(new StringField("docno", docno, Field.Store.YES));
+                        doc.add(new SortedDocValuesField("docno", new BytesRef(docno)));
+                    }
                 }
 
                 sb.append(line);
@@ -19,8 +19,10 @@ package info.rires.document;
 
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
+import org.apache.lucene.document.SortedDocValuesField;
 import org.apache.lucene.document.StringField;
 import org.apache.lucene.document.TextField;
+import org.apache.lucene.util.BytesRef;
 
 import java.io.BufferedReader;
 import java.io.FileNotFoundException;
@@ -55,6 +57,7 @@ public class TrecWebDocIterator implements Iterator<Document> {
             String line;
             Pattern docno_tag = Pattern.compile("<DOCNO>\\s*(\\S+)\\s*<");
             boolean in_doc = false, found_hdr = false;
+            String docno = null;
             while (true) {
                 line = this.br.readLine();
                 if (line == null) {
@@ -83,10 +86,14 @@ public class TrecWebDocIterator implements Iterator<Document> {
                     break;
                 }
 
-                Matcher m = docno_tag.matcher(line);
-                if (m.find()) {
-                    String docno = m.group(1);
-                    doc.add(new StringField("docno", docno, Field.Store.YES));
+                // a document has a single id, the doc values field only takes one
+                if (docno == null) {
+                    Matcher m = docno_tag.matcher(line);
+                    if (m.find()) {
+                        docno = m.group(1);
+                        doc.add(new StringField("docno", docno, Field.Store.YES));
+                        doc.add(new SortedDocValuesField("docno", new BytesRef(docno)));
+                    }
                 }
 
                 if (!found_hdr) {
@@ -0,0 +1,76 @@
+package info.rires.document;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * ClueWeb09 and ClueWeb12 WARC files. Only the response records are returned, the content of the
+ * other records is skipped without being copied.
+ */
+public final class WarcDocumentSource implements DocumentSource {
+
+    public static final String RESPONSE = "response";
+
+    public static final DocumentSource.Factory CLUEWEB09 = new DocumentSource.Factory() {
+        @Override
+        public DocumentSource open(InputStream in) {
+            return new WarcDocumentSource(in, true);
+        }
+
+        @Override
+        public boolean html() {
+            return true;
+        }
+    };
+
+    public static final DocumentSource.Factory CLUEWEB12 = new DocumentSource.Factory() {
+        @Override
+        public DocumentSource open(InputStream in) {
+            return new WarcDocumentSource(in, false);
+        }
+
+        @Override
+        public boolean html() {
+            return true;
+        }
+    };
+
+    private final DataInputStream in;
+    private final boolean clueweb09;
+
+    private WarcDocumentSource(InputStream in, boolean clueweb09) {
+        this.in = new DataInputStream(new BufferedInputStream(in, Gov2Record.BUFFER_SIZE));
+        this.clueweb09 = clueweb09;
+    }
+
+    @Override
+    public WarcRecord next() throws IOException {
+        if (clueweb09)
+            return ClueWeb09WarcRecord.readNextWarcRecord(in, ClueWeb09WarcRecord.WARC_VERSION, RESPONSE);
+        return ClueWeb12WarcRecord.readNextWarcRecord(in, ClueWeb12WarcRecord.WARC_VERSION, RESPONSE);
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
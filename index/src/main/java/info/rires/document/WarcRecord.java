@@ -17,8 +17,14 @@ package info.rires.document;
  * limitations under the License.
  */
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
 /**
  * Common Interface for both ClueWeb09 and ClueWeb12 Warc Record Types
+ *
+ * id(), url(), type() and contentLength() only look at the record header, so that records can be
+ * filtered before their content is decoded or copied.
  */
 public interface WarcRecord {
 
@@ -29,4 +35,25 @@ public interface WarcRecord {
     String url();
 
     String type();
+
+    /**
+     * @return the length of the content, in bytes for records read as bytes, in chars otherwise
+     */
+    default int contentLength() {
+        return content().length();
+    }
+
+    /**
+     * @return the content as characters, without copying it where the record allows
+     */
+    default CharSequence contentView() {
+        return content();
+    }
+
+    /**
+     * @return a read-only view of the raw (UTF-8) content bytes
+     */
+    default ByteBuffer contentBytes() {
+        return ByteBuffer.wrap(content().getBytes(StandardCharsets.UTF_8)).asReadOnlyBuffer();
+    }
 }
\ No newline at end of file
@@ -0,0 +1,273 @@
+package info.rires.index;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.cli.*;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.TopDocs;
+
+/**
+ * Runs a TREC topic file against an index and writes a TREC run file.
+ *
+ * The topics are searched concurrently on a fixed pool sharing one {@link Searcher}, every
+ * thread parsing its queries with its own parser. The ranking of a topic is written to the run
+ * file as soon as it is done, so the topics come out in the order they finish.
+ */
+public final class BatchSearch {
+    private static final Logger LOG = LogManager.getLogger(BatchSearch.class);
+
+    public static final int RUN_DEPTH = 1000;
+
+    private final Searcher searcher;
+    private final int depth;
+    private final String runTag;
+
+    public BatchSearch(Searcher searcher, int depth, String runTag) {
+        this.searcher = searcher;
+        this.depth = depth;
+        this.runTag = runTag;
+    }
+
+    /**
+     * Searches all the topics and writes their rankings to the run file.
+     *
+     * @param topics the query text by topic number
+     * @return the number of topics searched
+     */
+    public int run(Map<String, String> topics, final Writer run, int numThreads) throws IOException, InterruptedException {
+        final ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        final AtomicInteger searched = new AtomicInteger();
+        try {
+            final List<Future<?>> futures = new ArrayList<>(topics.size());
+            for (final Map.Entry<String, String> topic : topics.entrySet()) {
+                futures.add(executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            String ranking = search(topic.getKey(), topic.getValue());
+                            synchronized (run) {
+                                run.write(ranking);
+                            }
+                            searched.incrementAndGet();
+                        } catch (org.apache.lucene.queryparser.classic.ParseException pe) {
+                            LOG.error("Cannot parse topic " + topic.getKey() + ": " + topic.getValue(), pe);
+                        } catch (IOException ioe) {
+                            throw new UncheckedIOException("Searching topic " + topic.getKey() + " failed", ioe);
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException ee) {
+                    throw new IOException(ee.getCause());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return searched.get();
+    }
+
+    /**
+     * @return the lines of the run file for a topic
+     */
+    private String search(String qid, String text) throws IOException, org.apache.lucene.queryparser.classic.ParseException {
+        TopDocs hits = searcher.search(QueryParser.escape(text), depth);
+        String[] docnos = searcher.getDocnos(hits.scoreDocs);
+        StringBuilder lines = new StringBuilder(hits.scoreDocs.length * 48);
+        for (int i = 0; i < hits.scoreDocs.length; i++) {
+            lines.append(qid).append(" Q0 ").append(docnos[i]).append(' ')
+                    .append(i + 1).append(' ').append(hits.scoreDocs[i].score).append(' ').append(runTag).append('\n');
+        }
+        return lines.toString();
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        CommandLineParser parser = new DefaultParser();
+
+        Options options = new Options();
+        options.addOption( Option.builder("i")
+                .longOpt( "index" )
+                .desc( "the path to the index" )
+                .required(true)
+                .hasArg()
+                .argName("INDEX")
+                .build() );
+        options.addOption( Option.builder("t")
+                .longOpt( "topics" )
+                .desc( "the TREC topics file" )
+                .required(true)
+                .hasArg()
+                .argName("TOPICS")
+                .build() );
+        options.addOption( Option.builder("o")
+                .longOpt( "output" )
+                .desc( "the run file to write" )
+                .required(true)
+                .hasArg()
+                .argName("RUN")
+                .build() );
+        options.addOption( Option.builder("n")
+                .longOpt( "numThreads" )
+                .desc( "number of topics searched in parallel" )
+                .required(false)
+                .hasArg()
+                .argName("NUM_THREADS")
+                .build() );
+        options.addOption( Option.builder("k")
+                .longOpt( "depth" )
+                .desc( "number of documents retrieved per topic, default [" + RUN_DEPTH + "]" )
+                .required(false)
+                .hasArg()
+                .argName("DEPTH")
+                .build() );
+        options.addOption( Option.builder()
+                .longOpt( "segmentThreads" )
+                .desc( "number of threads searching the segments of each query concurrently, default [1]" )
+                .required(false)
+                .hasArg()
+                .argName("SEGMENT_THREADS")
+                .build() );
+        options.addOption( Option.builder()
+                .longOpt( "cacheEntries" )
+                .desc( "cache up to that many results, so that topics repeating a query are searched once, default [0] (no cache)" )
+                .required(false)
+                .hasArg()
+                .argName("ENTRIES")
+                .build() );
+        options.addOption( Option.builder()
+                .longOpt( "cacheMB" )
+                .desc( "memory bound of the result cache in MB, default [256]" )
+                .required(false)
+                .hasArg()
+                .argName("MB")
+                .build() );
+        options.addOption( Option.builder()
+                .longOpt( "feedback" )
+                .desc( "expand the queries with pseudo-relevance feedback: rm3 or ax (axiomatic), default none" )
+                .required(false)
+                .hasArg()
+                .argName("MODEL")
+                .build() );
+        options.addOption( Option.builder()
+                .longOpt( "fbDocs" )
+                .desc( "number of feedback documents, default [10] for rm3, [20] for ax" )
+                .required(false)
+                .hasArg()
+                .argName("DOCS")
+                .build() );
+        options.addOption( Option.builder()
+                .longOpt( "fbTerms" )
+                .desc( "number of expansion terms, default [10] for rm3, [20] for ax" )
+                .required(false)
+                .hasArg()
+                .argName("TERMS")
+                .build() );
+        options.addOption( Option.builder()
+                .longOpt( "field" )
+                .desc( "the part of the topics searched: title (default) or desc" )
+                .required(false)
+                .hasArg()
+                .argName("FIELD")
+                .build() );
+        options.addOption( Option.builder()
+                .longOpt( "tag" )
+                .desc( "the run tag, default [rires]" )
+                .required(false)
+                .hasArg()
+                .argName("TAG")
+                .build() );
+        options.addOption( Option.builder()
+                .longOpt( "slowQueryMillis" )
+                .desc( "log the topics whose parsing and search take at least that many ms, default [" + SearchMetrics.DEFAULT_SLOW_QUERY_MILLIS + "]" )
+                .required(false)
+                .hasArg()
+                .argName("MILLIS")
+                .build() );
+        options.addOption( Option.builder()
+                .longOpt( "latency" )
+                .desc( "write the latency percentiles by phase, similarity and query length, and the slow queries, to this json file" )
+                .required(false)
+                .hasArg()
+                .argName("FILE")
+                .build() );
+
+        HelpFormatter formatter = new HelpFormatter();
+
+        CommandLine line;
+        try {
+            line = parser.parse( options, args );
+        }
+        catch( ParseException exp ) {
+            System.out.println( "Unexpected exception:" + exp.getMessage() );
+            formatter.printHelp( "BatchSearch", options );
+            return;
+        }
+
+        final int numThreads = Integer.parseInt(line.getOptionValue("n",
+                String.valueOf(Runtime.getRuntime().availableProcessors())));
+        final Map<String, String> topics = TrecTopics.read(Paths.get(line.getOptionValue("t")),
+                line.getOptionValue("field", "title"));
+
+        Searcher searcher = new Searcher(line.getOptionValue("i"),
+                Integer.parseInt(line.getOptionValue("segmentThreads", "1")));
+        searcher.getMetrics().setSlowQueryMillis(Long.parseLong(line.getOptionValue("slowQueryMillis",
+                String.valueOf(SearchMetrics.DEFAULT_SLOW_QUERY_MILLIS))));
+        final int cacheEntries = Integer.parseInt(line.getOptionValue("cacheEntries", "0"));
+        if (cacheEntries > 0) {
+            searcher.setResultCache(new QueryResultCache(cacheEntries,
+                    Long.parseLong(line.getOptionValue("cacheMB", "256")) << 20));
+        }
+        if (line.hasOption("feedback")) {
+            PseudoRelevanceFeedback.Model model = PseudoRelevanceFeedback.Model.forName(line.getOptionValue("feedback"));
+            PseudoRelevanceFeedback defaults = model == PseudoRelevanceFeedback.Model.RM3
+                    ? PseudoRelevanceFeedback.rm3() : PseudoRelevanceFeedback.axiomatic();
+            searcher.setFeedback(new PseudoRelevanceFeedback(model,
+                    Integer.parseInt(line.getOptionValue("fbDocs", String.valueOf(defaults.getFeedbackDocs()))),
+                    Integer.parseInt(line.getOptionValue("fbTerms", String.valueOf(defaults.getFeedbackTerms()))),
+                    defaults.getWeight()));
+        }
+        try (BufferedWriter run = Files.newBufferedWriter(Paths.get(line.getOptionValue("o")), StandardCharsets.UTF_8)) {
+            BatchSearch batch = new BatchSearch(searcher,
+                    Integer.parseInt(line.getOptionValue("k", String.valueOf(RUN_DEPTH))),
+                    line.getOptionValue("tag", "rires"));
+
+            final long start = System.nanoTime();
+            int searched = batch.run(topics, run, numThreads);
+            final double seconds = (System.nanoTime() - start) / (double) TimeUnit.SECONDS.toNanos(1);
+            System.out.println(String.format("%d of %d topics searched with %d threads in %.2f s, %.1f queries/s",
+                    searched, topics.size(), numThreads, seconds, searched / seconds));
+            System.out.println(searcher.getMetrics());
+            if (searcher.getResultCache() != null) {
+                System.out.println(searcher.getResultCache());
+            }
+            if (line.hasOption("latency")) {
+                try (BufferedWriter latency = Files.newBufferedWriter(Paths.get(line.getOptionValue("latency")), StandardCharsets.UTF_8)) {
+                    latency.write("{\"latency\":" + searcher.getMetrics().getSnapshot()
+                            + ",\n\"slowQueries\":" + searcher.getMetrics().getSlowQueryLog() + "}\n");
+                }
+            }
+        } finally {
+            searcher.close();
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package info.rires.index;
+
+import java.io.IOException;
+import java.util.function.Function;
+
+import org.apache.lucene.analysis.TokenFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.KeywordAttribute;
+import org.apache.lucene.util.IOUtils;
+
+/**
+ * Stems the tokens through a {@link StemCache}, and with a stem filter on a cache miss.
+ *
+ * Lucene only exposes its stemmers as token filters, so a miss feeds the term to the stem filter
+ * through a token stream of its own, one token at a time, which goes through the reset, end and
+ * close of this filter along with its input. Keywords are left as they are, as the stem filters do.
+ */
+final class CachingStemFilter extends TokenFilter {
+
+    /**
+     * A stream of the one token it is given, that the stem filter reads from.
+     */
+    private static final class PendingToken extends TokenStream {
+        private final CharTermAttribute termAtt = addAttribute(CharTermAttribute.class);
+        private boolean pending;
+
+        void set(char[] term, int length) {
+            termAtt.copyBuffer(term, 0, length);
+            pending = true;
+        }
+
+        @Override
+        public boolean incrementToken() {
+            final boolean next = pending;
+            pending = false;
+            return next;
+        }
+
+        @Override
+        public void reset() throws IOException {
+            super.reset();
+            pending = false;
+        }
+    }
+
+    private final CharTermAttribute termAtt = addAttribute(CharTermAttribute.class);
+    private final KeywordAttribute keywordAtt = addAttribute(KeywordAttribute.class);
+    private final StemCache cache;
+    private final PendingToken token = new PendingToken();
+    private final TokenStream stemmer;
+    private final CharTermAttribute stemAtt;
+
+    /**
+     * @param stemFilter creates the stem filter the terms missing from the cache go through
+     */
+    CachingStemFilter(TokenStream input, StemCache cache, Function<TokenStream, TokenStream> stemFilter) {
+        super(input);
+        this.cache = cache;
+        this.stemmer = stemFilter.apply(token);
+        this.stemAtt = stemmer.getAttribute(CharTermAttribute.class);
+    }
+
+    @Override
+    public boolean incrementToken() throws IOException {
+        if (!input.incrementToken())
+            return false;
+        if (keywordAtt.isKeyword())
+            return true;
+
+        final char[] term = termAtt.buffer();
+        final int length = termAtt.length();
+        final char[] stem = cache.get(term, length);
+        if (stem != null) {
+            termAtt.copyBuffer(stem, 0, stem.length);
+            return true;
+        }
+        token.set(term, length);
+        stemmer.incrementToken();
+        cache.put(term, length, stemAtt.buffer(), stemAtt.length());
+        termAtt.copyBuffer(stemAtt.buffer(), 0, stemAtt.length());
+        return true;
+    }
+
+    @Override
+    public void reset() throws IOException {
+        super.reset();
+        // before the stem filter reads its first token
+        stemmer.reset();
+    }
+
+    @Override
+    public void end() throws IOException {
+        super.end();
+        stemmer.end();
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOUtils.close(input, stemmer);
+    }
+}
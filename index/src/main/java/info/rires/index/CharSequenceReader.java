@@ -0,0 +1,62 @@
+package info.rires.index;
+
+import java.io.Reader;
+
+/**
+ * Resettable {@link Reader} over a {@link CharSequence}, so that a field can be fed from a reused
+ * buffer without building a String for every document. Closing it is a no-op, the reader is
+ * reused by calling {@link #reset(CharSequence)}.
+ */
+final class CharSequenceReader extends Reader {
+
+    private CharSequence text = "";
+    private int pos = 0;
+
+    CharSequenceReader reset(CharSequence text) {
+        this.text = text;
+        this.pos = 0;
+        return this;
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) {
+        if (len == 0)
+            return 0;
+        final int end = text.length();
+        if (pos >= end)
+            return -1;
+        final int n = Math.min(len, end - pos);
+        if (text instanceof String) {
+            ((String) text).getChars(pos, pos + n, cbuf, off);
+        } else if (text instanceof StringBuilder) {
+            ((StringBuilder) text).getChars(pos, pos + n, cbuf, off);
+        } else {
+            for (int i = 0; i < n; i++)
+                cbuf[off + i] = text.charAt(pos + i);
+        }
+        pos += n;
+        return n;
+    }
+
+    @Override
+    public int read() {
+        return pos < text.length() ? text.charAt(pos++) : -1;
+    }
+
+    @Override
+    public long skip(long n) {
+        final int skipped = (int) Math.min(Math.max(n, 0), text.length() - pos);
+        pos += skipped;
+        return skipped;
+    }
+
+    @Override
+    public boolean ready() {
+        return true;
+    }
+
+    @Override
+    public void close() {
+        // reused, see reset
+    }
+}
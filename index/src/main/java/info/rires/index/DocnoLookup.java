@@ -0,0 +1,156 @@
+package info.rires.index;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.lucene.index.DocValuesType;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * Maps internal document ids to docnos and back.
+ *
+ * Docnos are read from the sorted doc values of {@link RiseBuildIndex#FIELD_ID}, rather than by
+ * loading the stored fields, which decompresses a whole block of documents for every id. Segments
+ * written without the doc values fall back to the stored field. Docnos are found through the
+ * postings of the indexed id field.
+ *
+ * Doc values are read forward only, so the batch lookups visit the documents in increasing order,
+ * whatever the order of the hits. A lookup holds no state besides the reader and can be shared by
+ * threads.
+ */
+public final class DocnoLookup {
+
+    private static final Set<String> DOCNO_FIELD = Collections.singleton(RiseBuildIndex.FIELD_ID);
+
+    private final IndexReader reader;
+    private final List<LeafReaderContext> leaves;
+
+    public DocnoLookup(IndexReader reader) {
+        this.reader = reader;
+        this.leaves = reader.leaves();
+    }
+
+    /**
+     * @return the docno of a document, or null if it has none
+     */
+    public String docno(int doc) throws IOException {
+        LeafReaderContext leaf = leaves.get(ReaderUtil.subIndex(doc, leaves));
+        SortedDocValues values = docValues(leaf.reader());
+        if (values == null)
+            return reader.document(doc, DOCNO_FIELD).get(RiseBuildIndex.FIELD_ID);
+        return lookup(values, doc - leaf.docBase);
+    }
+
+    /**
+     * @return the docnos of the hits, in the order of the hits
+     */
+    public String[] docnos(ScoreDoc[] hits) throws IOException {
+        int[] docs = new int[hits.length];
+        for (int i = 0; i < hits.length; i++)
+            docs[i] = hits[i].doc;
+        return docnos(docs);
+    }
+
+    /**
+     * @return the docnos of the documents, in the given order
+     */
+    public String[] docnos(int[] docs) throws IOException {
+        // the positions of the documents sorted by id, packed as (doc << 32 | position)
+        long[] order = new long[docs.length];
+        for (int i = 0; i < docs.length; i++)
+            order[i] = (long) docs[i] << 32 | i;
+        Arrays.sort(order);
+
+        String[] docnos = new String[docs.length];
+        LeafReaderContext leaf = null;
+        SortedDocValues values = null;
+        int previousDoc = -1;
+        String previous = null;
+        for (long o : order) {
+            int doc = (int) (o >>> 32);
+            int position = (int) o;
+            if (doc == previousDoc) {
+                // the iterator can't go back to the same document
+                docnos[position] = previous;
+                continue;
+            }
+            if (leaf == null || doc >= leaf.docBase + leaf.reader().maxDoc()) {
+                leaf = leaves.get(ReaderUtil.subIndex(doc, leaves));
+                values = docValues(leaf.reader());
+            }
+            if (values == null) {
+                previous = reader.document(doc, DOCNO_FIELD).get(RiseBuildIndex.FIELD_ID);
+            } else {
+                previous = lookup(values, doc - leaf.docBase);
+            }
+            previousDoc = doc;
+            docnos[position] = previous;
+        }
+        return docnos;
+    }
+
+    /**
+     * @return the internal id of the live document with the given docno, or -1 if there is none
+     */
+    public int internalId(String docno) throws IOException {
+        final BytesRef id = new BytesRef(docno);
+        for (LeafReaderContext leaf : leaves) {
+            Terms terms = leaf.reader().terms(RiseBuildIndex.FIELD_ID);
+            if (terms == null)
+                continue;
+            TermsEnum termsEnum = terms.iterator();
+            if (!termsEnum.seekExact(id))
+                continue;
+            Bits liveDocs = leaf.reader().getLiveDocs();
+            PostingsEnum postings = termsEnum.postings(null, PostingsEnum.NONE);
+            for (int doc = postings.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = postings.nextDoc()) {
+                if (liveDocs == null || liveDocs.get(doc))
+                    return leaf.docBase + doc;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the internal ids of the docnos, -1 for the ones that are not in the index
+     */
+    public int[] internalIds(List<String> docnos) throws IOException {
+        int[] docs = new int[docnos.size()];
+        for (int i = 0; i < docs.length; i++)
+            docs[i] = internalId(docnos.get(i));
+        return docs;
+    }
+
+    /**
+     * @return a fresh iterator over the docno doc values of a segment, or null if it has none
+     */
+    private static SortedDocValues docValues(LeafReader leaf) throws IOException {
+        FieldInfo info = leaf.getFieldInfos().fieldInfo(RiseBuildIndex.FIELD_ID);
+        if (info == null || info.getDocValuesType() != DocValuesType.SORTED)
+            return null;
+        return leaf.getSortedDocValues(RiseBuildIndex.FIELD_ID);
+    }
+
+    private static String lookup(SortedDocValues values, int doc) throws IOException {
+        // documents without a docno are skipped by the iterator
+        int current = values.docID() < doc ? values.advance(doc) : values.docID();
+        if (current != doc)
+            return null;
+        return values.lookupOrd(values.ordValue()).utf8ToString();
+    }
+}
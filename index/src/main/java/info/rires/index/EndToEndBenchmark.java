@@ -0,0 +1,226 @@
+package info.rires.index;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Stream;
+
+import info.rires.document.CorpusGenerator;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.search.TopDocs;
+
+/*
+Indexing throughput and search latency on a synthetic collection, for reproducing performance
+problems without the real collections.
+Generates a collection with the CorpusGenerator, unless the corpus directory has one already,
+indexes it with RiseBuildIndex.indexWithThreads at every given thread count, and runs generated
+queries through a Searcher of the last index, a warm up round and a few measured rounds. Prints
+the docs/sec, index size, peak heap and stage times of every run and the query latencies, and
+writes them as json to the report file, along with the settings and the JVM, so that the
+reports of two versions or two machines can be compared.
+
+The peak heap is the sum of the peak usages of the heap memory pools during the run, an upper
+bound of the actual peak.
+
+usage: EndToEndBenchmark [-format F] [-docs N] [-docsPerFile N] [-threads 1,2,4] [-stemmer S]
+                         [-queries N] [-rounds N] [-k K] [-corpus DIR] [-report FILE] dir
+ */
+public final class EndToEndBenchmark {
+
+    private static final int MAX_QUERY_TERMS = 4;
+
+    private EndToEndBenchmark() {
+    }
+
+    private static long size(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            return files.filter(Files::isRegularFile).mapToLong(f -> f.toFile().length()).sum();
+        }
+    }
+
+    private static void delete(Path dir) throws IOException {
+        if (!Files.exists(dir))
+            return;
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private static void resetPeakHeap() {
+        System.gc();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP)
+                pool.resetPeakUsage();
+        }
+    }
+
+    private static long peakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP)
+                peak += pool.getPeakUsage().getUsed();
+        }
+        return peak;
+    }
+
+    /**
+     * Indexes the collection and returns the run as a json object.
+     */
+    private static String index(Path corpus, Path indexPath, String format, String stemmer, int threads)
+            throws IOException, InterruptedException {
+        delete(indexPath);
+        resetPeakHeap();
+        RiseBuildIndex builder = new RiseBuildIndex(corpus.toString(), indexPath.toString(), format, stemmer, true);
+        builder.setMetrics(0, null);
+        long start = System.nanoTime();
+        int docs = builder.indexWithThreads(threads);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long peak = peakHeap();
+        long indexBytes = size(indexPath);
+        IndexingMetrics metrics = builder.lastMetrics();
+
+        System.out.println(String.format(Locale.ROOT,
+                "%3d threads  %8d docs  %8.2f s  %10.1f docs/s  index %8.1f MB  peak heap %8.1f MB  (parse %d, extract %d, index %d, flush %d, stall %d, merge %d ms)",
+                threads, docs, seconds, docs / seconds, indexBytes / 1048576.0, peak / 1048576.0,
+                metrics.getParseMillis(), metrics.getExtractMillis(), metrics.getIndexMillis(),
+                metrics.getFlushMillis(), metrics.getStallMillis(), metrics.getMergeMillis()));
+        return String.format(Locale.ROOT,
+                "{\"threads\":%d,\"docs\":%d,\"seconds\":%.3f,\"docsPerSecond\":%.1f,\"indexBytes\":%d,\"peakHeapBytes\":%d,"
+                        + "\"stageMillis\":{\"inflate\":%d,\"parse\":%d,\"extract\":%d,\"index\":%d,\"flush\":%d,\"stall\":%d,\"merge\":%d},\"flushes\":%d,\"merges\":%d}",
+                threads, docs, seconds, docs / seconds, indexBytes, peak,
+                metrics.getInflateMillis(), metrics.getParseMillis(), metrics.getExtractMillis(), metrics.getIndexMillis(),
+                metrics.getFlushMillis(), metrics.getStallMillis(), metrics.getMergeMillis(),
+                metrics.getFlushes(), metrics.getMerges());
+    }
+
+    /**
+     * Runs the queries and returns their latencies as a json object.
+     */
+    private static String search(Path indexPath, List<String> queries, int rounds, int k)
+            throws IOException, ParseException {
+        Searcher searcher = new Searcher(indexPath.toString());
+        try {
+            // the first round warms up
+            for (int round = 0; round <= rounds; round++) {
+                if (round == 1)
+                    searcher.getMetrics().reset();
+                for (String query : queries) {
+                    TopDocs hits = searcher.search(query, k);
+                    searcher.getDocnos(hits.scoreDocs);
+                }
+            }
+            System.out.println(searcher.getMetrics());
+            return searcher.getMetrics().getSnapshot();
+        } finally {
+            searcher.close();
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException, ParseException {
+        String format = "trectext";
+        long docs = 100000;
+        int docsPerFile = CorpusGenerator.DEFAULT_DOCS_PER_FILE;
+        List<Integer> threadCounts = new ArrayList<>();
+        String stemmer = "porter";
+        int numQueries = 1000;
+        int rounds = 3;
+        int k = BatchSearch.RUN_DEPTH;
+        String corpusDir = null;
+        String reportFile = null;
+        String dir = null;
+        for (int i = 0; i < args.length; i++) {
+            if ("-format".equals(args[i]))
+                format = args[++i];
+            else if ("-docs".equals(args[i]))
+                docs = Long.parseLong(args[++i]);
+            else if ("-docsPerFile".equals(args[i]))
+                docsPerFile = Integer.parseInt(args[++i]);
+            else if ("-threads".equals(args[i])) {
+                for (String t : args[++i].split(","))
+                    threadCounts.add(Integer.parseInt(t.trim()));
+            } else if ("-stemmer".equals(args[i]))
+                stemmer = args[++i];
+            else if ("-queries".equals(args[i]))
+                numQueries = Integer.parseInt(args[++i]);
+            else if ("-rounds".equals(args[i]))
+                rounds = Integer.parseInt(args[++i]);
+            else if ("-k".equals(args[i]))
+                k = Integer.parseInt(args[++i]);
+            else if ("-corpus".equals(args[i]))
+                corpusDir = args[++i];
+            else if ("-report".equals(args[i]))
+                reportFile = args[++i];
+            else
+                dir = args[i];
+        }
+        if (dir == null) {
+            System.out.println("usage: EndToEndBenchmark [-format F] [-docs N] [-docsPerFile N] [-threads 1,2,4] [-stemmer S]\n"
+                    + "                         [-queries N] [-rounds N] [-k K] [-corpus DIR] [-report FILE] dir");
+            return;
+        }
+        if (threadCounts.isEmpty()) {
+            for (int t = 1; t <= Runtime.getRuntime().availableProcessors(); t *= 2)
+                threadCounts.add(t);
+        }
+        final Path work = Paths.get(dir);
+        final Path corpus = corpusDir != null ? Paths.get(corpusDir) : work.resolve("corpus-" + format);
+        final Path report = reportFile != null ? Paths.get(reportFile) : work.resolve("report-" + format + ".json");
+
+        if (!Files.isDirectory(corpus) || size(corpus) == 0) {
+            long start = System.currentTimeMillis();
+            long written = new CorpusGenerator().generate(format, corpus, docs, 0, docsPerFile);
+            System.out.println(written + " " + format + " documents generated in " + (System.currentTimeMillis() - start) + " ms");
+        }
+        final long corpusBytes = size(corpus);
+        System.out.println(String.format(Locale.ROOT, "%s collection of %.1f MB (gzipped) in %s", format, corpusBytes / 1048576.0, corpus));
+
+        final StringBuilder json = new StringBuilder(4096);
+        json.append(String.format(Locale.ROOT,
+                "{\"time\":%d,\"java\":%s,\"processors\":%d,\"maxHeapBytes\":%d,\"format\":%s,\"stemmer\":%s,\"corpusBytes\":%d,\"runs\":[",
+                System.currentTimeMillis(), Json.quote(System.getProperty("java.version")),
+                Runtime.getRuntime().availableProcessors(), Runtime.getRuntime().maxMemory(),
+                Json.quote(format), Json.quote(stemmer), corpusBytes));
+        Path indexPath = null;
+        for (int t = 0; t < threadCounts.size(); t++) {
+            indexPath = work.resolve("index-" + format);
+            if (t > 0)
+                json.append(',');
+            json.append(index(corpus, indexPath, format, stemmer, threadCounts.get(t)));
+        }
+
+        // the seed makes the vocabulary, the queries need the one of the documents
+        final CorpusGenerator generator = new CorpusGenerator();
+        final List<String> queries = new ArrayList<>(numQueries);
+        for (int q = 0; q < numQueries; q++)
+            queries.add(generator.query(MAX_QUERY_TERMS));
+        json.append(String.format(Locale.ROOT, "],\"queries\":%d,\"rounds\":%d,\"k\":%d,\"latency\":", numQueries, rounds, k))
+                .append(search(indexPath, queries, rounds, k)).append("}\n");
+
+        try (PrintStream out = new PrintStream(Files.newOutputStream(report), false, StandardCharsets.UTF_8.name())) {
+            out.print(json);
+        }
+        System.out.println("Report written to " + report);
+    }
+}
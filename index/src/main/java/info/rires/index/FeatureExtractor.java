@@ -0,0 +1,442 @@
+package info.rires.index;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.cli.*;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+
+/**
+ * Extracts learning to rank features of the top documents of queries.
+ *
+ * The document lengths and term statistics come from the {@link IndexStatistics} sidecar, the
+ * frequencies of the query terms from the postings, visited once per term and segment for all
+ * the documents of a query in increasing order. The queries of a batch are extracted in parallel.
+ */
+public final class FeatureExtractor {
+
+    private static final String FIELD = RiseBuildIndex.FIELD_BODY;
+
+    static final float BM25_K1 = 0.9f;
+    static final float BM25_B = 0.4f;
+    static final float DIRICHLET_MU = 1000f;
+
+    public enum Feature {
+        /** The score of the first search. */
+        SCORE,
+        QUERY_LENGTH,
+        DOC_LENGTH,
+        /** The fraction of the query terms in the document. */
+        COVERAGE,
+        TF,
+        NORMALIZED_TF,
+        IDF,
+        TF_IDF,
+        BM25,
+        LM_DIRICHLET;
+
+        /**
+         * @param names comma separated feature names, case insensitive, or "all"
+         */
+        public static List<Feature> parse(String names) {
+            if ("all".equalsIgnoreCase(names.trim()))
+                return Arrays.asList(values());
+            final List<Feature> features = new ArrayList<>();
+            for (String name : names.split(",")) {
+                if (!name.trim().isEmpty())
+                    features.add(valueOf(name.trim().toUpperCase()));
+            }
+            return features;
+        }
+    }
+
+    private final IndexSearcher searcher;
+    private final IndexStatistics stats;
+    private final Feature[] features;
+
+    public FeatureExtractor(IndexSearcher searcher, IndexStatistics stats, List<Feature> features) {
+        if (!stats.isCurrent(searcher.getIndexReader()))
+            throw new IllegalArgumentException("the statistics of " + stats.maxDoc()
+                    + " documents were written for another version of the index");
+        this.searcher = searcher;
+        this.stats = stats;
+        this.features = features.toArray(new Feature[features.size()]);
+    }
+
+    public List<Feature> getFeatures() {
+        return Arrays.asList(features);
+    }
+
+    /**
+     * @return the features of every hit, in the order of the hits and of the feature set
+     */
+    public float[][] extract(Query query, ScoreDoc[] hits) throws IOException {
+        final Set<Term> extracted = new TreeSet<>();
+        searcher.createNormalizedWeight(query, false).extractTerms(extracted);
+        final List<Term> terms = new ArrayList<>();
+        for (Term term : extracted) {
+            if (FIELD.equals(term.field()))
+                terms.add(term);
+        }
+
+        final double numDocs = stats.docCount();
+        final double avgLength = stats.averageDocLength();
+        final double sumTotalTermFreq = stats.sumTotalTermFreq();
+        final int[] docFreqs = new int[terms.size()];
+        final long[] totalTermFreqs = new long[terms.size()];
+        final double[] idfs = new double[terms.size()];
+        for (int t = 0; t < terms.size(); t++) {
+            final int id = stats.termId(terms.get(t).bytes());
+            if (id >= 0) {
+                docFreqs[t] = stats.docFreq(id);
+                totalTermFreqs[t] = stats.totalTermFreq(id);
+            }
+            idfs[t] = Math.log(1 + (numDocs - docFreqs[t] + 0.5) / (docFreqs[t] + 0.5));
+        }
+        final int[][] tfs = termFreqs(terms, hits);
+
+        final float[][] values = new float[hits.length][features.length];
+        for (int h = 0; h < hits.length; h++) {
+            final double length = stats.docLength(hits[h].doc);
+            for (int f = 0; f < features.length; f++) {
+                double value = 0;
+                switch (features[f]) {
+                    case SCORE:
+                        value = hits[h].score;
+                        break;
+                    case QUERY_LENGTH:
+                        value = terms.size();
+                        break;
+                    case DOC_LENGTH:
+                        value = length;
+                        break;
+                    case COVERAGE:
+                        for (int t = 0; t < terms.size(); t++)
+                            value += tfs[t][h] > 0 ? 1 : 0;
+                        value = terms.isEmpty() ? 0 : value / terms.size();
+                        break;
+                    case TF:
+                        for (int t = 0; t < terms.size(); t++)
+                            value += tfs[t][h];
+                        break;
+                    case NORMALIZED_TF:
+                        for (int t = 0; t < terms.size(); t++)
+                            value += length == 0 ? 0 : tfs[t][h] / length;
+                        break;
+                    case IDF:
+                        for (int t = 0; t < terms.size(); t++)
+                            value += idfs[t];
+                        break;
+                    case TF_IDF:
+                        for (int t = 0; t < terms.size(); t++)
+                            value += tfs[t][h] * idfs[t];
+                        break;
+                    case BM25:
+                        for (int t = 0; t < terms.size(); t++) {
+                            final int tf = tfs[t][h];
+                            value += idfs[t] * tf * (BM25_K1 + 1)
+                                    / (tf + BM25_K1 * (1 - BM25_B + BM25_B * length / avgLength));
+                        }
+                        break;
+                    case LM_DIRICHLET:
+                        // the rank equivalent form, terms unseen in the collection left out
+                        for (int t = 0; t < terms.size(); t++) {
+                            if (totalTermFreqs[t] > 0)
+                                value += Math.log(1 + tfs[t][h] / (DIRICHLET_MU * totalTermFreqs[t] / sumTotalTermFreq));
+                        }
+                        value += terms.size() * Math.log(DIRICHLET_MU / (length + DIRICHLET_MU));
+                        break;
+                }
+                values[h][f] = (float) value;
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Extracts the features of many queries in parallel.
+     *
+     * @return the features of the hits of every query, in the order of the queries
+     */
+    public List<float[][]> extract(List<Query> queries, List<TopDocs> hits, ExecutorService executor)
+            throws IOException, InterruptedException {
+        if (queries.size() != hits.size())
+            throw new IllegalArgumentException(queries.size() + " queries but " + hits.size() + " results");
+        final List<Future<float[][]>> futures = new ArrayList<>(queries.size());
+        for (int i = 0; i < queries.size(); i++) {
+            final Query query = queries.get(i);
+            final ScoreDoc[] scoreDocs = hits.get(i).scoreDocs;
+            futures.add(executor.submit(new Callable<float[][]>() {
+                @Override
+                public float[][] call() throws IOException {
+                    return extract(query, scoreDocs);
+                }
+            }));
+        }
+        final List<float[][]> values = new ArrayList<>(futures.size());
+        try {
+            for (Future<float[][]> future : futures) {
+                values.add(future.get());
+            }
+        } catch (ExecutionException ee) {
+            throw new IOException("Extracting features failed", ee.getCause());
+        } finally {
+            for (Future<float[][]> future : futures) {
+                future.cancel(true);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * @return the frequency of every term in every hit
+     */
+    private int[][] termFreqs(List<Term> terms, ScoreDoc[] hits) throws IOException {
+        final int[][] tfs = new int[terms.size()][hits.length];
+        if (terms.isEmpty() || hits.length == 0)
+            return tfs;
+        // the hits in increasing order of document, packed as (doc << 32 | position)
+        final long[] order = new long[hits.length];
+        for (int h = 0; h < hits.length; h++)
+            order[h] = (long) hits[h].doc << 32 | h;
+        Arrays.sort(order);
+
+        final List<LeafReaderContext> leaves = searcher.getIndexReader().leaves();
+        PostingsEnum postings = null;
+        for (int from = 0, to; from < order.length; from = to) {
+            // the hits of a segment
+            final LeafReaderContext leaf = leaves.get(ReaderUtil.subIndex((int) (order[from] >>> 32), leaves));
+            final int end = leaf.docBase + leaf.reader().maxDoc();
+            to = from + 1;
+            while (to < order.length && (int) (order[to] >>> 32) < end)
+                to++;
+            final Terms leafTerms = leaf.reader().terms(FIELD);
+            if (leafTerms == null)
+                continue;
+            final TermsEnum termsEnum = leafTerms.iterator();
+            for (int t = 0; t < terms.size(); t++) {
+                if (!termsEnum.seekExact(terms.get(t).bytes()))
+                    continue;
+                postings = termsEnum.postings(postings, PostingsEnum.FREQS);
+                for (int i = from; i < to; i++) {
+                    final int target = (int) (order[i] >>> 32) - leaf.docBase;
+                    int doc = postings.docID();
+                    if (doc < target)
+                        doc = postings.advance(target);
+                    if (doc == PostingsEnum.NO_MORE_DOCS)
+                        break;
+                    if (doc == target)
+                        tfs[t][(int) order[i]] = postings.freq();
+                }
+            }
+        }
+        return tfs;
+    }
+
+    /**
+     * @return the relevance labels by topic and docno
+     */
+    static Map<String, Map<String, Integer>> readQrels(Path path) throws IOException {
+        final Map<String, Map<String, Integer>> qrels = new HashMap<>();
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                final String[] fields = line.trim().split("\\s+");
+                if (fields.length < 4)
+                    continue;
+                Map<String, Integer> labels = qrels.get(fields[0]);
+                if (labels == null) {
+                    labels = new HashMap<>();
+                    qrels.put(fields[0], labels);
+                }
+                labels.put(fields[2], Integer.parseInt(fields[3]));
+            }
+        }
+        return qrels;
+    }
+
+    /**
+     * Searches a TREC topic file and writes the features of the top documents in the SVMlight
+     * format of the LETOR data sets: "label qid:topic 1:value 2:value ... # docno".
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        CommandLineParser parser = new DefaultParser();
+
+        Options options = new Options();
+        options.addOption( Option.builder("i")
+                .longOpt( "index" )
+                .desc( "the path to the index, with its statistics" )
+                .required(true)
+                .hasArg()
+                .argName("INDEX")
+                .build() );
+        options.addOption( Option.builder("t")
+                .longOpt( "topics" )
+                .desc( "the TREC topics file" )
+                .required(true)
+                .hasArg()
+                .argName("TOPICS")
+                .build() );
+        options.addOption( Option.builder("o")
+                .longOpt( "output" )
+                .desc( "the feature file to write" )
+                .required(true)
+                .hasArg()
+                .argName("OUTPUT")
+                .build() );
+        options.addOption( Option.builder("f")
+                .longOpt( "features" )
+                .desc( "comma separated features, default [all]: " + Arrays.toString(Feature.values()) )
+                .required(false)
+                .hasArg()
+                .argName("FEATURES")
+                .build() );
+        options.addOption( Option.builder("k")
+                .longOpt( "depth" )
+                .desc( "number of documents per topic, default [100]" )
+                .required(false)
+                .hasArg()
+                .argName("DEPTH")
+                .build() );
+        options.addOption( Option.builder("n")
+                .longOpt( "numThreads" )
+                .desc( "number of topics searched and extracted in parallel" )
+                .required(false)
+                .hasArg()
+                .argName("NUM_THREADS")
+                .build() );
+        options.addOption( Option.builder()
+                .longOpt( "qrels" )
+                .desc( "the relevance judgments the labels are read from, default all 0" )
+                .required(false)
+                .hasArg()
+                .argName("QRELS")
+                .build() );
+        options.addOption( Option.builder()
+                .longOpt( "field" )
+                .desc( "the part of the topics searched: title (default) or desc" )
+                .required(false)
+                .hasArg()
+                .argName("FIELD")
+                .build() );
+
+        HelpFormatter formatter = new HelpFormatter();
+
+        CommandLine line;
+        try {
+            line = parser.parse( options, args );
+        }
+        catch( ParseException exp ) {
+            System.out.println( "Unexpected exception:" + exp.getMessage() );
+            formatter.printHelp( "FeatureExtractor", options );
+            return;
+        }
+
+        final int numThreads = Integer.parseInt(line.getOptionValue("n",
+                String.valueOf(Runtime.getRuntime().availableProcessors())));
+        final int depth = Integer.parseInt(line.getOptionValue("k", "100"));
+        final List<Feature> features = Feature.parse(line.getOptionValue("f", "all"));
+        final Map<String, String> topics = TrecTopics.read(Paths.get(line.getOptionValue("t")),
+                line.getOptionValue("field", "title"));
+        final Map<String, Map<String, Integer>> qrels = line.hasOption("qrels")
+                ? readQrels(Paths.get(line.getOptionValue("qrels"))) : new HashMap<String, Map<String, Integer>>();
+
+        final Searcher searcher = new Searcher(line.getOptionValue("i"));
+        final ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try {
+            if (searcher.getIndexStatistics() == null) {
+                System.out.println("The index has no up to date statistics, build it with --statistics or run IndexStatisticsWriter");
+                return;
+            }
+            final long start = System.nanoTime();
+            final List<String> qids = new ArrayList<>(topics.keySet());
+            final List<Query> queries = new ArrayList<>();
+            final List<Future<TopDocs>> searches = new ArrayList<>();
+            for (String qid : qids) {
+                final Query query;
+                try {
+                    query = searcher.parse(QueryParser.escape(topics.get(qid)));
+                } catch (org.apache.lucene.queryparser.classic.ParseException pe) {
+                    throw new IOException("Cannot parse topic " + qid, pe);
+                }
+                queries.add(query);
+                searches.add(executor.submit(new Callable<TopDocs>() {
+                    @Override
+                    public TopDocs call() throws IOException {
+                        return searcher.search(query, depth);
+                    }
+                }));
+            }
+            final List<TopDocs> hits = new ArrayList<>();
+            for (Future<TopDocs> search : searches) {
+                try {
+                    hits.add(search.get());
+                } catch (ExecutionException ee) {
+                    throw new IOException("Searching failed", ee.getCause());
+                }
+            }
+            final long searched = System.nanoTime();
+
+            final FeatureExtractor extractor = new FeatureExtractor(searcher.indexSearcher, searcher.getIndexStatistics(), features);
+            final List<float[][]> values = extractor.extract(queries, hits, executor);
+            final long extracted = System.nanoTime();
+
+            long pairs = 0;
+            try (BufferedWriter out = Files.newBufferedWriter(Paths.get(line.getOptionValue("o")), StandardCharsets.UTF_8)) {
+                for (int q = 0; q < qids.size(); q++) {
+                    final Map<String, Integer> labels = qrels.get(qids.get(q));
+                    final String[] docnos = searcher.getDocnos(hits.get(q).scoreDocs);
+                    for (int h = 0; h < docnos.length; h++) {
+                        final Integer label = labels == null ? null : labels.get(docnos[h]);
+                        out.write(String.valueOf(label == null ? 0 : label));
+                        out.write(" qid:");
+                        out.write(qids.get(q));
+                        for (int f = 0; f < features.size(); f++) {
+                            out.write(' ');
+                            out.write(String.valueOf(f + 1));
+                            out.write(':');
+                            out.write(String.valueOf(values.get(q)[h][f]));
+                        }
+                        out.write(" # ");
+                        out.write(docnos[h]);
+                        out.write('\n');
+                        pairs++;
+                    }
+                }
+            }
+            System.out.println(String.format("%d topics searched in %.2f s, %d features of %d documents extracted in %.2f s",
+                    qids.size(), (searched - start) / (double) TimeUnit.SECONDS.toNanos(1), features.size(), pairs,
+                    (extracted - searched) / (double) TimeUnit.SECONDS.toNanos(1)));
+        } finally {
+            executor.shutdownNow();
+            searcher.close();
+        }
+    }
+}
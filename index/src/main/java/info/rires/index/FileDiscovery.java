@@ -0,0 +1,196 @@
+package info.rires.index;
+
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Walks the docs directory on a thread of its own and hands the input files out as they are found,
+ * so that indexing starts with the first file rather than after the whole tree was walked.
+ *
+ * Files and directories are filtered with glob patterns. A pattern without a '/' is matched against
+ * the name of a file or directory, any other against its path relative to the docs directory. A
+ * file is taken if it matches an include pattern, or if there are none, and no exclude pattern.
+ * An excluded directory is skipped with everything under it.
+ *
+ * The files come out in the order of the walk, or largest first: the largest of the files found so
+ * far, which is the largest of all once the walk is done, so that the longest jobs start early and
+ * don't stretch the end of the run.
+ */
+final class FileDiscovery {
+    private static final Logger LOG = LogManager.getLogger(FileDiscovery.class);
+
+    /** The directories of ClueWeb that are not part of the crawl. */
+    static final List<String> DEFAULT_EXCLUDES = Collections.singletonList("OtherData");
+
+    /**
+     * A file found, with its size as seen by the walk.
+     */
+    static final class Found {
+        final Path path;
+        final long size;
+
+        Found(Path path, long size) {
+            this.path = path;
+            this.size = size;
+        }
+    }
+
+    // the end of the walk, ordered after every file
+    private static final Found END = new Found(null, -1);
+
+    private static final Comparator<Found> LARGEST_FIRST = new Comparator<Found>() {
+        @Override
+        public int compare(Found a, Found b) {
+            return Long.compare(b.size, a.size);
+        }
+    };
+
+    private final Path root;
+    private final List<PathMatcher> includeNames = new ArrayList<>();
+    private final List<PathMatcher> includePaths = new ArrayList<>();
+    private final List<PathMatcher> excludeNames = new ArrayList<>();
+    private final List<PathMatcher> excludePaths = new ArrayList<>();
+    private final BlockingQueue<Found> queue;
+    private final AtomicLong found = new AtomicLong();
+    private final AtomicLong foundBytes = new AtomicLong();
+    private volatile boolean done = false;
+    private boolean ended = false;
+
+    /**
+     * @param largestFirst hand the largest files found so far out first, rather than in the order of the walk
+     */
+    FileDiscovery(Path root, List<String> includes, List<String> excludes, boolean largestFirst) {
+        this.root = root;
+        final FileSystem fs = root.getFileSystem();
+        for (String glob : includes) {
+            (glob.contains("/") ? includePaths : includeNames).add(fs.getPathMatcher("glob:" + glob));
+        }
+        for (String glob : excludes) {
+            (glob.contains("/") ? excludePaths : excludeNames).add(fs.getPathMatcher("glob:" + glob));
+        }
+        this.queue = largestFirst ? new PriorityBlockingQueue<>(1024, LARGEST_FIRST) : new LinkedBlockingQueue<Found>();
+    }
+
+    /**
+     * Starts walking the tree.
+     */
+    FileDiscovery start() {
+        final Thread walker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                        @Override
+                        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                            if (attrs.isRegularFile() && accept(file)) {
+                                foundBytes.addAndGet(attrs.size());
+                                found.incrementAndGet();
+                                queue.add(new Found(file, attrs.size()));
+                            }
+                            return FileVisitResult.CONTINUE;
+                        }
+
+                        @Override
+                        public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                            if (!dir.equals(root) && matches(dir, excludeNames, excludePaths)) {
+                                LOG.info("Skipping: " + dir);
+                                return FileVisitResult.SKIP_SUBTREE;
+                            }
+                            return FileVisitResult.CONTINUE;
+                        }
+
+                        @Override
+                        public FileVisitResult visitFileFailed(Path file, IOException ioe) {
+                            LOG.error("Visiting failed for " + file.toString(), ioe);
+                            return FileVisitResult.SKIP_SUBTREE;
+                        }
+                    });
+                } catch (IOException e) {
+                    LOG.error("IOException during file visiting", e);
+                } finally {
+                    done = true;
+                    queue.add(END);
+                }
+            }
+        }, "file-discovery");
+        walker.setDaemon(true);
+        walker.start();
+        return this;
+    }
+
+    private boolean accept(Path file) {
+        if (matches(file, excludeNames, excludePaths))
+            return false;
+        return includeNames.isEmpty() && includePaths.isEmpty() || matches(file, includeNames, includePaths);
+    }
+
+    private boolean matches(Path path, List<PathMatcher> names, List<PathMatcher> paths) {
+        final Path name = path.getFileName();
+        for (PathMatcher matcher : names) {
+            if (name != null && matcher.matches(name))
+                return true;
+        }
+        if (!paths.isEmpty()) {
+            final Path relative = root.relativize(path);
+            for (PathMatcher matcher : paths) {
+                if (matcher.matches(relative))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Waits for the next file. Must be called from a single thread.
+     *
+     * @return the next file, or null once all the files were handed out
+     */
+    Found take() throws InterruptedException {
+        if (ended)
+            return null;
+        final Found next = queue.take();
+        if (next == END) {
+            ended = true;
+            return null;
+        }
+        return next;
+    }
+
+    /**
+     * @return the number of files found so far
+     */
+    long found() {
+        return found.get();
+    }
+
+    /**
+     * @return the total size of the files found so far
+     */
+    long foundBytes() {
+        return foundBytes.get();
+    }
+
+    /**
+     * @return true once the whole tree was walked
+     */
+    boolean isDone() {
+        return done;
+    }
+}
@@ -0,0 +1,231 @@
+package info.rires.index;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.store.ChecksumIndexInput;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.store.RandomAccessInput;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.IOUtils;
+
+/**
+ * Compact forward index of a field: for every document, its distinct terms and their frequencies.
+ *
+ * Terms are numbered by their rank in the dictionary of the index and documents by their id in a
+ * reader over the whole index, as opened by {@link Searcher}. A vector is stored as the number of
+ * terms followed by, for every term in increasing order of id, the gap from the previous id and the
+ * frequency, all varint encoded. The files are memory mapped, so the vectors stay off the heap and
+ * reading one is a seek and a decode, unlike term vectors which are decompressed a block at a time.
+ *
+ * The forward index is written by {@link ForwardIndexWriter} in the {@link #DIRECTORY} of the
+ * index, and describes the index as it was then: {@link #isCurrent} tells whether it is stale. It
+ * can be shared by threads.
+ */
+public final class ForwardIndex implements Closeable {
+
+    /** The directory of the forward index, inside the index directory. */
+    public static final String DIRECTORY = "forward";
+
+    static final String META = "forward.meta";
+    static final String DOCS_INDEX = "docs.idx";
+    static final String VECTORS = "vectors.dat";
+    static final List<String> FILES = Arrays.asList(TermDictionary.INDEX, TermDictionary.DATA, DOCS_INDEX, VECTORS);
+
+    static final String META_CODEC = "RiseForwardMeta";
+    static final String DOCS_INDEX_CODEC = "RiseForwardDocsIndex";
+    static final String VECTORS_CODEC = "RiseForwardVectors";
+    // 2 records the identity of the index
+    static final int VERSION = 2;
+
+    /**
+     * The terms of a document and their frequencies, sorted by term id. Vectors are meant to be
+     * reused, the arrays may be longer than the vector.
+     */
+    public static final class DocVector {
+        int size;
+        int[] terms = new int[16];
+        int[] freqs = new int[16];
+
+        public int size() {
+            return size;
+        }
+
+        public int term(int i) {
+            return terms[i];
+        }
+
+        public int freq(int i) {
+            return freqs[i];
+        }
+
+        /**
+         * @return the number of tokens of the document
+         */
+        public long length() {
+            long length = 0;
+            for (int i = 0; i < size; i++)
+                length += freqs[i];
+            return length;
+        }
+
+        /**
+         * @return the frequency of a term in the document, 0 if it doesn't occur
+         */
+        public int freqOf(int term) {
+            int i = Arrays.binarySearch(terms, 0, size, term);
+            return i < 0 ? 0 : freqs[i];
+        }
+
+        void grow(int size) {
+            if (terms.length < size) {
+                terms = new int[ArrayUtil.oversize(size, Integer.BYTES)];
+                freqs = new int[terms.length];
+            }
+        }
+    }
+
+    private final Directory dir;
+    private final String field;
+    private final int maxDoc;
+    // the segments the forward index was written from, see SidecarFiles.indexId
+    private final String indexId;
+
+    private final TermDictionary dictionary;
+    private final IndexInput docsIndexInput;
+    private final IndexInput vectorsInput;
+    private final RandomAccessInput docsIndex;
+    // the vectors, past the header
+    private final IndexInput vectors;
+
+    private ForwardIndex(Directory dir) throws IOException {
+        this.dir = dir;
+        final int numTerms;
+        try (ChecksumIndexInput meta = dir.openChecksumInput(META, IOContext.READONCE)) {
+            CodecUtil.checkHeader(meta, META_CODEC, VERSION, VERSION);
+            field = meta.readString();
+            maxDoc = meta.readVInt();
+            indexId = meta.readString();
+            numTerms = meta.readVInt();
+            CodecUtil.checkFooter(meta);
+        }
+
+        boolean success = false;
+        TermDictionary dictionary = null;
+        IndexInput docsIndexInput = null, vectorsInput = null;
+        try {
+            dictionary = new TermDictionary(dir, numTerms);
+            docsIndexInput = SidecarFiles.open(dir, DOCS_INDEX, DOCS_INDEX_CODEC, VERSION);
+            vectorsInput = SidecarFiles.open(dir, VECTORS, VECTORS_CODEC, VERSION);
+            docsIndex = SidecarFiles.data(docsIndexInput, DOCS_INDEX_CODEC).randomAccessSlice(0, 8L * (maxDoc + 1));
+            vectors = SidecarFiles.data(vectorsInput, VECTORS_CODEC);
+            success = true;
+        } finally {
+            if (!success)
+                IOUtils.closeWhileHandlingException(dictionary, docsIndexInput, vectorsInput, dir);
+        }
+        this.dictionary = dictionary;
+        this.docsIndexInput = docsIndexInput;
+        this.vectorsInput = vectorsInput;
+    }
+
+    /**
+     * Opens the forward index written in a directory.
+     */
+    public static ForwardIndex open(Path path) throws IOException {
+        return new ForwardIndex(new MMapDirectory(path));
+    }
+
+    public String field() {
+        return field;
+    }
+
+    /**
+     * @return the number of documents of the index the forward index was written for
+     */
+    public int maxDoc() {
+        return maxDoc;
+    }
+
+    /**
+     * @return whether the forward index was written from the segments of the reader, with the same
+     * documents under the same ids
+     */
+    public boolean isCurrent(IndexReader reader) {
+        return maxDoc == reader.maxDoc() && indexId.equals(SidecarFiles.indexId(reader));
+    }
+
+    public int numTerms() {
+        return dictionary.size();
+    }
+
+    /**
+     * Reads the vector of a document into a reused vector.
+     */
+    public DocVector vector(int doc, DocVector into) throws IOException {
+        return read(vectors.clone(), doc, into);
+    }
+
+    public DocVector vector(int doc) throws IOException {
+        return vector(doc, new DocVector());
+    }
+
+    /**
+     * @return the vectors of the documents, in the given order
+     */
+    public DocVector[] vectors(int[] docs) throws IOException {
+        final IndexInput input = vectors.clone();
+        final DocVector[] result = new DocVector[docs.length];
+        for (int i = 0; i < docs.length; i++)
+            result[i] = read(input, docs[i], new DocVector());
+        return result;
+    }
+
+    private DocVector read(IndexInput input, int doc, DocVector into) throws IOException {
+        if (doc < 0 || doc >= maxDoc)
+            throw new IllegalArgumentException("doc " + doc + " is out of the forward index of " + maxDoc + " documents");
+        input.seek(docsIndex.readLong(8L * doc));
+        final int size = input.readVInt();
+        into.grow(size);
+        int term = 0;
+        for (int i = 0; i < size; i++) {
+            term += input.readVInt();
+            into.terms[i] = term;
+            into.freqs[i] = input.readVInt();
+        }
+        into.size = size;
+        return into;
+    }
+
+    /**
+     * @return the term with the given id
+     */
+    public BytesRef term(int termId) throws IOException {
+        return dictionary.term(termId);
+    }
+
+    /**
+     * @return the id of a term, or -1 if it is not in the dictionary
+     */
+    public int termId(BytesRef term) throws IOException {
+        return dictionary.termId(term);
+    }
+
+    public int termId(String term) throws IOException {
+        return termId(new BytesRef(term));
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOUtils.close(dictionary, docsIndexInput, vectorsInput, dir);
+    }
+}
@@ -0,0 +1,404 @@
+package info.rires.index;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.IOUtils;
+import org.apache.lucene.util.PriorityQueue;
+
+/**
+ * Writes the {@link ForwardIndex} of a field of an index.
+ *
+ * The term ids are the ranks of the terms in the dictionary of the whole index, and the documents
+ * are numbered as in a reader over the whole index, so the forward index is built from the postings
+ * once the index is complete rather than document by document. The postings are inverted in a
+ * single pass over the dictionary: the (document, term, frequency) triples are buffered, a given
+ * number at a time, sorted by document and spilled to temporary runs, which are then merged by
+ * document. As the terms are visited in the order of their ids, the runs hold increasing ranges of
+ * term ids, and a document gets its terms in order by taking them from the runs in turn.
+ */
+public final class ForwardIndexWriter {
+
+    private static final Logger LOG = LogManager.getLogger(ForwardIndexWriter.class);
+
+    /** Default number of triples sorted in memory per run, 128MB. */
+    public static final int DEFAULT_BUFFER_PAIRS = 1 << 23;
+
+    /** The number of runs merged at once, more runs are merged in several rounds. */
+    static final int MERGE_FACTOR = 128;
+
+    private static final String RUN_PREFIX = "forward_run";
+    private static final String RUN_CODEC = "RiseForwardRun";
+
+    private final int bufferPairs;
+
+    public ForwardIndexWriter() {
+        this(DEFAULT_BUFFER_PAIRS);
+    }
+
+    /**
+     * @param bufferPairs the number of (document, term, frequency) triples sorted in memory per run
+     */
+    public ForwardIndexWriter(int bufferPairs) {
+        if (bufferPairs < 1)
+            throw new IllegalArgumentException("bufferPairs must be positive");
+        this.bufferPairs = bufferPairs;
+    }
+
+    /**
+     * The vectors of a run, document by document.
+     */
+    private static final class RunReader implements Closeable {
+        final int run;
+        private final IndexInput file;
+        // the vectors, between the header and the footer
+        final IndexInput input;
+        int doc = -1;
+        int size;
+
+        RunReader(Directory dir, String name, int run) throws IOException {
+            this.run = run;
+            file = SidecarFiles.open(dir, name, RUN_CODEC, ForwardIndex.VERSION);
+            input = SidecarFiles.data(file, RUN_CODEC);
+        }
+
+        /**
+         * Moves to the next document of the run, whose terms are then read with {@link #readInto}.
+         *
+         * @return false at the end of the run
+         */
+        boolean next() throws IOException {
+            final int delta = input.readVInt();
+            if (delta == 0)
+                return false;
+            doc += delta;
+            size = input.readVInt();
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            file.close();
+        }
+    }
+
+    /**
+     * Receives the merged vectors, in increasing order of documents, skipping the empty ones.
+     */
+    private interface VectorConsumer {
+        void accept(int doc, int size, int[] termIds, int[] freqs) throws IOException;
+    }
+
+    /**
+     * Writes a run: a vector per document, the gap from the previous document (starting from -1,
+     * so 0 ends the run), the number of terms and the gaps between their ids and their frequencies.
+     */
+    private static final class RunWriter implements VectorConsumer, Closeable {
+        final IndexOutput output;
+        int previous = -1;
+
+        /**
+         * @param created the names of the runs, the new one is added to
+         */
+        RunWriter(Directory dir, List<String> created) throws IOException {
+            output = dir.createTempOutput(RUN_PREFIX, "", IOContext.DEFAULT);
+            created.add(output.getName());
+            CodecUtil.writeHeader(output, RUN_CODEC, ForwardIndex.VERSION);
+        }
+
+        @Override
+        public void accept(int doc, int size, int[] termIds, int[] freqs) throws IOException {
+            output.writeVInt(doc - previous);
+            output.writeVInt(size);
+            int previousTerm = 0;
+            for (int i = 0; i < size; i++) {
+                output.writeVInt(termIds[i] - previousTerm);
+                output.writeVInt(freqs[i]);
+                previousTerm = termIds[i];
+            }
+            previous = doc;
+        }
+
+        String finish() throws IOException {
+            output.writeVInt(0);
+            CodecUtil.writeFooter(output);
+            return output.getName();
+        }
+
+        @Override
+        public void close() throws IOException {
+            output.close();
+        }
+    }
+
+    /**
+     * Writes the vectors of the forward index, and empty ones for the documents it is not given.
+     */
+    private static final class VectorsWriter implements VectorConsumer {
+        final IndexOutput docsIndex;
+        final IndexOutput vectors;
+        final long base;
+        int nextDoc = 0;
+
+        VectorsWriter(IndexOutput docsIndex, IndexOutput vectors) {
+            this.docsIndex = docsIndex;
+            this.vectors = vectors;
+            this.base = vectors.getFilePointer();
+        }
+
+        @Override
+        public void accept(int doc, int size, int[] termIds, int[] freqs) throws IOException {
+            emptyUntil(doc);
+            docsIndex.writeLong(vectors.getFilePointer() - base);
+            vectors.writeVInt(size);
+            int previous = 0;
+            for (int i = 0; i < size; i++) {
+                vectors.writeVInt(termIds[i] - previous);
+                vectors.writeVInt(freqs[i]);
+                previous = termIds[i];
+            }
+            nextDoc = doc + 1;
+        }
+
+        void emptyUntil(int doc) throws IOException {
+            for (; nextDoc < doc; nextDoc++) {
+                docsIndex.writeLong(vectors.getFilePointer() - base);
+                vectors.writeVInt(0);
+            }
+        }
+
+        void finish(int maxDoc) throws IOException {
+            emptyUntil(maxDoc);
+            docsIndex.writeLong(vectors.getFilePointer() - base);
+            CodecUtil.writeFooter(docsIndex);
+            CodecUtil.writeFooter(vectors);
+        }
+    }
+
+    /**
+     * Sorts the buffered triples by document, then by term as they were added in the order of the
+     * terms, and writes them as a run.
+     *
+     * @param keys the documents in the high bits, the slots of the triples in the low bits
+     */
+    private static String spill(Directory dir, long[] keys, int[] termIds, int[] freqs, int size, List<String> created)
+            throws IOException {
+        Arrays.sort(keys, 0, size);
+        try (RunWriter run = new RunWriter(dir, created)) {
+            int[] vectorTerms = new int[16];
+            int[] vectorFreqs = new int[16];
+            for (int i = 0; i < size; ) {
+                final int doc = (int) (keys[i] >>> 32);
+                int n = 0;
+                for (; i < size && (int) (keys[i] >>> 32) == doc; i++, n++) {
+                    if (n == vectorTerms.length) {
+                        vectorTerms = ArrayUtil.grow(vectorTerms, n + 1);
+                        vectorFreqs = ArrayUtil.grow(vectorFreqs, n + 1);
+                    }
+                    final int slot = (int) keys[i];
+                    vectorTerms[n] = termIds[slot];
+                    vectorFreqs[n] = freqs[slot];
+                }
+                run.accept(doc, n, vectorTerms, vectorFreqs);
+            }
+            return run.finish();
+        }
+    }
+
+    /**
+     * Merges runs of increasing ranges of term ids by document, and deletes them.
+     */
+    private static void merge(Directory dir, List<String> runs, VectorConsumer consumer) throws IOException {
+        final List<RunReader> readers = new ArrayList<>(runs.size());
+        try {
+            final PriorityQueue<RunReader> queue = new PriorityQueue<RunReader>(runs.size()) {
+                @Override
+                protected boolean lessThan(RunReader a, RunReader b) {
+                    return a.doc != b.doc ? a.doc < b.doc : a.run < b.run;
+                }
+            };
+            for (int run = 0; run < runs.size(); run++) {
+                final RunReader reader = new RunReader(dir, runs.get(run), run);
+                readers.add(reader);
+                if (reader.next())
+                    queue.add(reader);
+            }
+
+            int[] termIds = new int[16];
+            int[] freqs = new int[16];
+            while (queue.size() > 0) {
+                final int doc = queue.top().doc;
+                int size = 0;
+                // the runs of the document, in the order of their terms
+                while (queue.size() > 0 && queue.top().doc == doc) {
+                    final RunReader reader = queue.top();
+                    if (size + reader.size > termIds.length) {
+                        termIds = ArrayUtil.grow(termIds, size + reader.size);
+                        freqs = ArrayUtil.grow(freqs, size + reader.size);
+                    }
+                    int termId = 0;
+                    for (int i = 0; i < reader.size; i++, size++) {
+                        termId += reader.input.readVInt();
+                        termIds[size] = termId;
+                        freqs[size] = reader.input.readVInt();
+                    }
+                    if (reader.next())
+                        queue.updateTop();
+                    else
+                        queue.pop();
+                }
+                consumer.accept(doc, size, termIds, freqs);
+            }
+        } finally {
+            IOUtils.close(readers);
+            IOUtils.deleteFilesIgnoringExceptions(dir, runs);
+        }
+    }
+
+    /**
+     * Writes the forward index of a field of the reader into a directory, replacing the one it holds.
+     * Deleted documents get empty vectors.
+     */
+    public void write(IndexReader reader, String field, Path path) throws IOException {
+        final int maxDoc = reader.maxDoc();
+        final Bits liveDocs = MultiFields.getLiveDocs(reader);
+        final Terms terms = MultiFields.getTerms(reader, field);
+
+        try (Directory dir = FSDirectory.open(path)) {
+            // drop the previous forward index, the meta file is written last so a partial one can't be opened
+            SidecarFiles.delete(dir, Arrays.asList(ForwardIndex.META, ForwardIndex.META + SidecarFiles.PENDING));
+            SidecarFiles.delete(dir, ForwardIndex.FILES);
+
+            // every run written, deleted once merged or on a failure
+            final List<String> created = new ArrayList<>();
+            try {
+                // the dictionary, and the postings inverted into runs
+                List<String> runs = new ArrayList<>();
+                final int numTerms;
+                long pairs = 0;
+                try (TermDictionary.Writer dictionary = new TermDictionary.Writer(dir)) {
+                    if (terms != null) {
+                        final int capacity = (int) Math.min(bufferPairs, Math.max(1, terms.getSumDocFreq()));
+                        final long[] keys = new long[capacity];
+                        final int[] termIds = new int[capacity];
+                        final int[] freqs = new int[capacity];
+                        int size = 0;
+                        TermsEnum termsEnum = terms.iterator();
+                        PostingsEnum postings = null;
+                        int termId = 0;
+                        for (BytesRef term = termsEnum.next(); term != null; term = termsEnum.next(), termId++) {
+                            dictionary.add(term);
+                            postings = termsEnum.postings(postings, PostingsEnum.FREQS);
+                            for (int doc = postings.nextDoc(); doc != PostingsEnum.NO_MORE_DOCS; doc = postings.nextDoc()) {
+                                if (liveDocs != null && !liveDocs.get(doc))
+                                    continue;
+                                if (size == capacity) {
+                                    runs.add(spill(dir, keys, termIds, freqs, size, created));
+                                    size = 0;
+                                }
+                                keys[size] = (long) doc << 32 | size;
+                                termIds[size] = termId;
+                                freqs[size] = postings.freq();
+                                size++;
+                                pairs++;
+                            }
+                        }
+                        if (size > 0)
+                            runs.add(spill(dir, keys, termIds, freqs, size, created));
+                    }
+                    numTerms = dictionary.size();
+                }
+                final int spilled = runs.size();
+
+                // merge the runs down to a number that can be open at once
+                while (runs.size() > MERGE_FACTOR) {
+                    final List<String> merged = new ArrayList<>();
+                    for (int from = 0; from < runs.size(); from += MERGE_FACTOR) {
+                        try (RunWriter run = new RunWriter(dir, created)) {
+                            merge(dir, runs.subList(from, Math.min(runs.size(), from + MERGE_FACTOR)), run);
+                            merged.add(run.finish());
+                        }
+                    }
+                    runs = merged;
+                }
+
+                try (IndexOutput docsIndex = SidecarFiles.create(dir, ForwardIndex.DOCS_INDEX, ForwardIndex.DOCS_INDEX_CODEC, ForwardIndex.VERSION);
+                     IndexOutput vectors = SidecarFiles.create(dir, ForwardIndex.VECTORS, ForwardIndex.VECTORS_CODEC, ForwardIndex.VERSION)) {
+                    final VectorsWriter writer = new VectorsWriter(docsIndex, vectors);
+                    merge(dir, runs, writer);
+                    writer.finish(maxDoc);
+                }
+                LOG.info("Forward index of " + maxDoc + " documents and " + pairs + " postings written from "
+                        + spilled + " sorted runs");
+
+                try (IndexOutput meta = SidecarFiles.create(dir, ForwardIndex.META + SidecarFiles.PENDING, ForwardIndex.META_CODEC, ForwardIndex.VERSION)) {
+                    meta.writeString(field);
+                    meta.writeVInt(maxDoc);
+                    meta.writeString(SidecarFiles.indexId(reader));
+                    meta.writeVInt(numTerms);
+                    CodecUtil.writeFooter(meta);
+                }
+            } finally {
+                IOUtils.deleteFilesIgnoringExceptions(dir, created);
+            }
+            SidecarFiles.publish(dir, ForwardIndex.FILES, ForwardIndex.META);
+        }
+    }
+
+    /**
+     * Builds the forward index of an existing index, and times reading back random vectors.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Usage: ForwardIndexWriter INDEX_PATH [FIELD]");
+            return;
+        }
+        final Path indexPath = Paths.get(args[0]);
+        final String field = args.length > 1 ? args[1] : RiseBuildIndex.FIELD_BODY;
+
+        long start = System.nanoTime();
+        final List<Directory> directories = new ArrayList<>();
+        try (IndexReader reader = Searcher.openReader(indexPath, directories)) {
+            new ForwardIndexWriter().write(reader, field, indexPath.resolve(ForwardIndex.DIRECTORY));
+        } finally {
+            IOUtils.close(directories);
+        }
+        System.out.printf("Forward index written in %d ms%n", (System.nanoTime() - start) / 1_000_000);
+
+        try (ForwardIndex forward = ForwardIndex.open(indexPath.resolve(ForwardIndex.DIRECTORY))) {
+            final int[] docs = new int[Math.min(1000, forward.maxDoc())];
+            final Random random = new Random(42);
+            for (int i = 0; i < docs.length; i++)
+                docs[i] = random.nextInt(forward.maxDoc());
+            start = System.nanoTime();
+            long pairs = 0;
+            for (ForwardIndex.DocVector vector : forward.vectors(docs))
+                pairs += vector.size();
+            System.out.printf("%d random vectors (%d terms, %d documents) read in %.2f ms%n", docs.length,
+                    forward.numTerms(), forward.maxDoc(), (System.nanoTime() - start) / 1e6);
+            System.out.printf("%.1f distinct terms per document%n", docs.length == 0 ? 0 : (double) pairs / docs.length);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package info.rires.index;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.SegmentInfos;
+
+/**
+ * Checkpoint manifest of a resumable indexing run.
+ *
+ * The manifest ({@link #MANIFEST} in the index directory) lists the input files whose documents
+ * are all in a commit of the index, one line per file:
+ * <pre>file relative to the docs path \t shard \t documents \t commit generation of the shard</pre>
+ * Files are only written to the manifest after the commit that holds their last document, so
+ * everything it lists survives a crash. A file that was being indexed at the time of a crash may
+ * have part of its documents committed, these are recognized by the source field of the documents
+ * and deleted before the file is indexed again.
+ */
+final class IndexCheckpoint {
+
+    static final String MANIFEST = "checkpoint.tsv";
+
+    private static final class Entry {
+        final String file;
+        final int shard;
+        final int docs;
+
+        Entry(String file, int shard, int docs) {
+            this.file = file;
+            this.shard = shard;
+            this.docs = docs;
+        }
+    }
+
+    private final Path manifest;
+    private final IndexWriter[] writers;
+    private final long intervalNanos;
+
+    // files of the manifest at start, only read afterwards
+    private final Set<String> done = new HashSet<>();
+    // files indexed since the last checkpoint
+    private final List<Entry> completed = new ArrayList<>();
+    private final ReentrantLock commitLock = new ReentrantLock();
+    private volatile long lastCheckpoint = System.nanoTime();
+
+    /**
+     * @param indexPath       the index directory, where the manifest is kept
+     * @param writers         the writers of the shards, committed at every checkpoint
+     * @param resume          read the manifest of a previous run, otherwise it is started over
+     * @param intervalMinutes the minimum time between two checkpoints
+     */
+    IndexCheckpoint(Path indexPath, IndexWriter[] writers, boolean resume, long intervalMinutes) throws IOException {
+        this.manifest = indexPath.resolve(MANIFEST);
+        this.writers = writers;
+        this.intervalNanos = TimeUnit.MINUTES.toNanos(intervalMinutes);
+
+        if (resume && Files.exists(manifest)) {
+            for (String line : Files.readAllLines(manifest, StandardCharsets.UTF_8)) {
+                int tab = line.indexOf('\t');
+                // a line cut short by a crash has no commit generation, the file is indexed again
+                if (tab > 0 && line.split("\t").length == 4) {
+                    done.add(line.substring(0, tab));
+                }
+            }
+        } else {
+            Files.deleteIfExists(manifest);
+        }
+    }
+
+    /**
+     * @return whether all the documents of the file were committed by a previous run
+     */
+    boolean isDone(String file) {
+        return done.contains(file);
+    }
+
+    int doneFiles() {
+        return done.size();
+    }
+
+    /**
+     * Records that all the documents of a file have been added to the index, it goes into the
+     * manifest with the next checkpoint, which is taken right away if the interval has passed.
+     */
+    void completed(String file, int shard, int docs) throws IOException {
+        synchronized (this) {
+            completed.add(new Entry(file, shard, docs));
+        }
+        if (System.nanoTime() - lastCheckpoint >= intervalNanos && commitLock.tryLock()) {
+            // whoever holds the lock is checkpointing already
+            try {
+                checkpointLocked();
+            } finally {
+                commitLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Commits the shards and appends the files completed since the last checkpoint to the manifest.
+     */
+    void checkpoint() throws IOException {
+        commitLock.lock();
+        try {
+            checkpointLocked();
+        } finally {
+            commitLock.unlock();
+        }
+    }
+
+    private void checkpointLocked() throws IOException {
+        // the files completed so far have all their documents in the writers, the commit holds them
+        final List<Entry> entries;
+        synchronized (this) {
+            entries = new ArrayList<>(completed);
+            completed.clear();
+        }
+
+        final long[] generations = new long[writers.length];
+        for (int shard = 0; shard < writers.length; shard++) {
+            writers[shard].commit();
+            generations[shard] = SegmentInfos.getLastCommitGeneration(writers[shard].getDirectory());
+        }
+        lastCheckpoint = System.nanoTime();
+
+        if (entries.isEmpty())
+            return;
+        StringBuilder lines = new StringBuilder();
+        for (Entry e : entries) {
+            lines.append(e.file).append('\t').append(e.shard).append('\t').append(e.docs)
+                    .append('\t').append(generations[e.shard]).append('\n');
+        }
+        try (FileChannel channel = FileChannel.open(manifest, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            ByteBuffer bytes = StandardCharsets.UTF_8.encode(lines.toString());
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+            channel.force(true);
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package info.rires.index;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.store.ChecksumIndexInput;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.store.RandomAccessInput;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.IOUtils;
+
+/**
+ * Collection statistics sidecar of a field: the length of every document and the document and
+ * collection frequencies of every term, in memory mapped tables of fixed width entries indexed by
+ * document id and term id. Reading a statistic is a single read at a computed offset, rather than
+ * a seek in the terms dictionary of every segment or a decode of the norms.
+ *
+ * Term ids are the ranks of the terms, the same ids as the ones of the {@link ForwardIndex} of the
+ * index. The statistics are written by {@link IndexStatisticsWriter} in the {@link #DIRECTORY} of
+ * the index and describe the index as it was then, deleted documents excluded. They can be shared
+ * by threads.
+ */
+public final class IndexStatistics implements Closeable {
+
+    /** The directory of the statistics, inside the index directory. */
+    public static final String DIRECTORY = "stats";
+
+    static final String META = "stats.meta";
+    static final String DOC_LENGTHS = "doclengths.dat";
+    static final String TERM_STATS = "termstats.dat";
+    static final List<String> FILES = Arrays.asList(TermDictionary.INDEX, TermDictionary.DATA, DOC_LENGTHS, TERM_STATS);
+
+    static final String META_CODEC = "RiseStatsMeta";
+    static final String DOC_LENGTHS_CODEC = "RiseDocLengths";
+    static final String TERM_STATS_CODEC = "RiseTermStats";
+    // 1 records the identity of the index
+    static final int VERSION = 1;
+
+    /** The bytes of the statistics of a term: its document frequency and its collection frequency. */
+    static final int TERM_STATS_BYTES = Integer.BYTES + Long.BYTES;
+
+    private final Directory dir;
+    private final String field;
+    private final int maxDoc;
+    // the segments the statistics were written from, see SidecarFiles.indexId
+    private final String indexId;
+    private final int docCount;
+    private final long sumTotalTermFreq;
+    private final long sumDocFreq;
+
+    private final TermDictionary dictionary;
+    private final IndexInput docLengthsInput;
+    private final IndexInput termStatsInput;
+    private final RandomAccessInput docLengths;
+    private final RandomAccessInput termStats;
+
+    private IndexStatistics(Directory dir) throws IOException {
+        this.dir = dir;
+        final int numTerms;
+        try (ChecksumIndexInput meta = dir.openChecksumInput(META, IOContext.READONCE)) {
+            CodecUtil.checkHeader(meta, META_CODEC, VERSION, VERSION);
+            field = meta.readString();
+            maxDoc = meta.readVInt();
+            indexId = meta.readString();
+            numTerms = meta.readVInt();
+            docCount = meta.readVInt();
+            sumTotalTermFreq = meta.readVLong();
+            sumDocFreq = meta.readVLong();
+            CodecUtil.checkFooter(meta);
+        }
+
+        boolean success = false;
+        TermDictionary dictionary = null;
+        IndexInput docLengthsInput = null, termStatsInput = null;
+        try {
+            dictionary = new TermDictionary(dir, numTerms);
+            docLengthsInput = SidecarFiles.open(dir, DOC_LENGTHS, DOC_LENGTHS_CODEC, VERSION);
+            termStatsInput = SidecarFiles.open(dir, TERM_STATS, TERM_STATS_CODEC, VERSION);
+            docLengths = SidecarFiles.data(docLengthsInput, DOC_LENGTHS_CODEC)
+                    .randomAccessSlice(0, (long) Integer.BYTES * maxDoc);
+            termStats = SidecarFiles.data(termStatsInput, TERM_STATS_CODEC)
+                    .randomAccessSlice(0, (long) TERM_STATS_BYTES * numTerms);
+            success = true;
+        } finally {
+            if (!success)
+                IOUtils.closeWhileHandlingException(dictionary, docLengthsInput, termStatsInput, dir);
+        }
+        this.dictionary = dictionary;
+        this.docLengthsInput = docLengthsInput;
+        this.termStatsInput = termStatsInput;
+    }
+
+    /**
+     * Opens the statistics written in a directory.
+     */
+    public static IndexStatistics open(Path path) throws IOException {
+        return new IndexStatistics(new MMapDirectory(path));
+    }
+
+    public String field() {
+        return field;
+    }
+
+    /**
+     * @return the number of documents of the index the statistics were written for
+     */
+    public int maxDoc() {
+        return maxDoc;
+    }
+
+    /**
+     * @return whether the statistics were written from the segments of the reader, with the same
+     * documents under the same ids
+     */
+    public boolean isCurrent(IndexReader reader) {
+        return maxDoc == reader.maxDoc() && indexId.equals(SidecarFiles.indexId(reader));
+    }
+
+    /**
+     * @return the number of live documents with the field
+     */
+    public int docCount() {
+        return docCount;
+    }
+
+    public int numTerms() {
+        return dictionary.size();
+    }
+
+    /**
+     * @return the number of tokens of the field in the collection
+     */
+    public long sumTotalTermFreq() {
+        return sumTotalTermFreq;
+    }
+
+    public long sumDocFreq() {
+        return sumDocFreq;
+    }
+
+    public double averageDocLength() {
+        return docCount == 0 ? 0 : (double) sumTotalTermFreq / docCount;
+    }
+
+    /**
+     * @return the number of tokens of the field in a document, 0 for deleted documents
+     */
+    public int docLength(int doc) throws IOException {
+        if (doc < 0 || doc >= maxDoc)
+            throw new IllegalArgumentException("doc " + doc + " is out of the statistics of " + maxDoc + " documents");
+        return docLengths.readInt((long) Integer.BYTES * doc);
+    }
+
+    /**
+     * @return the id of a term, or -1 if it is not in the collection
+     */
+    public int termId(BytesRef term) throws IOException {
+        return dictionary.termId(term);
+    }
+
+    public int termId(String term) throws IOException {
+        return termId(new BytesRef(term));
+    }
+
+    public BytesRef term(int termId) throws IOException {
+        return dictionary.term(termId);
+    }
+
+    public int docFreq(int termId) throws IOException {
+        return termStats.readInt(termStatsOffset(termId));
+    }
+
+    public long totalTermFreq(int termId) throws IOException {
+        return termStats.readLong(termStatsOffset(termId) + Integer.BYTES);
+    }
+
+    private long termStatsOffset(int termId) {
+        if (termId < 0 || termId >= dictionary.size())
+            throw new IllegalArgumentException("term " + termId + " is out of the statistics of " + dictionary.size() + " terms");
+        return (long) TERM_STATS_BYTES * termId;
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOUtils.close(dictionary, docLengthsInput, termStatsInput, dir);
+    }
+}
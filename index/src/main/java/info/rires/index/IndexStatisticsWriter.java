@@ -0,0 +1,120 @@
+package info.rires.index;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.IOUtils;
+
+/**
+ * Writes the {@link IndexStatistics} of a field of an index, in one pass over its postings. The
+ * statistics only count the live documents, unlike the ones of the terms dictionary of the index.
+ */
+public final class IndexStatisticsWriter {
+
+    /**
+     * Writes the statistics of a field of the reader into a directory, replacing the ones it holds.
+     */
+    public void write(IndexReader reader, String field, Path path) throws IOException {
+        final int maxDoc = reader.maxDoc();
+        final Bits liveDocs = MultiFields.getLiveDocs(reader);
+        final Terms terms = MultiFields.getTerms(reader, field);
+        final int[] lengths = new int[maxDoc];
+        long sumTotalTermFreq = 0, sumDocFreq = 0;
+
+        try (Directory dir = FSDirectory.open(path)) {
+            // drop the previous statistics, the meta file is written last so partial ones can't be opened
+            SidecarFiles.delete(dir, Arrays.asList(IndexStatistics.META, IndexStatistics.META + SidecarFiles.PENDING));
+            SidecarFiles.delete(dir, IndexStatistics.FILES);
+
+            final int numTerms;
+            try (TermDictionary.Writer dictionary = new TermDictionary.Writer(dir);
+                 IndexOutput termStats = SidecarFiles.create(dir, IndexStatistics.TERM_STATS,
+                         IndexStatistics.TERM_STATS_CODEC, IndexStatistics.VERSION)) {
+                if (terms != null) {
+                    TermsEnum termsEnum = terms.iterator();
+                    PostingsEnum postings = null;
+                    for (BytesRef term = termsEnum.next(); term != null; term = termsEnum.next()) {
+                        dictionary.add(term);
+                        int docFreq = 0;
+                        long totalTermFreq = 0;
+                        postings = termsEnum.postings(postings, PostingsEnum.FREQS);
+                        for (int doc = postings.nextDoc(); doc != PostingsEnum.NO_MORE_DOCS; doc = postings.nextDoc()) {
+                            if (liveDocs == null || liveDocs.get(doc)) {
+                                final int freq = postings.freq();
+                                docFreq++;
+                                totalTermFreq += freq;
+                                lengths[doc] += freq;
+                            }
+                        }
+                        termStats.writeInt(docFreq);
+                        termStats.writeLong(totalTermFreq);
+                        sumDocFreq += docFreq;
+                        sumTotalTermFreq += totalTermFreq;
+                    }
+                }
+                numTerms = dictionary.size();
+                CodecUtil.writeFooter(termStats);
+            }
+
+            int docCount = 0;
+            try (IndexOutput docLengths = SidecarFiles.create(dir, IndexStatistics.DOC_LENGTHS,
+                    IndexStatistics.DOC_LENGTHS_CODEC, IndexStatistics.VERSION)) {
+                for (int length : lengths) {
+                    docLengths.writeInt(length);
+                    if (length > 0)
+                        docCount++;
+                }
+                CodecUtil.writeFooter(docLengths);
+            }
+
+            try (IndexOutput meta = SidecarFiles.create(dir, IndexStatistics.META + SidecarFiles.PENDING,
+                    IndexStatistics.META_CODEC, IndexStatistics.VERSION)) {
+                meta.writeString(field);
+                meta.writeVInt(maxDoc);
+                meta.writeString(SidecarFiles.indexId(reader));
+                meta.writeVInt(numTerms);
+                meta.writeVInt(docCount);
+                meta.writeVLong(sumTotalTermFreq);
+                meta.writeVLong(sumDocFreq);
+                CodecUtil.writeFooter(meta);
+            }
+            SidecarFiles.publish(dir, IndexStatistics.FILES, IndexStatistics.META);
+        }
+    }
+
+    /**
+     * Writes the statistics of an existing index.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Usage: IndexStatisticsWriter INDEX_PATH [FIELD]");
+            return;
+        }
+        final Path indexPath = Paths.get(args[0]);
+        final String field = args.length > 1 ? args[1] : RiseBuildIndex.FIELD_BODY;
+
+        final long start = System.nanoTime();
+        final List<Directory> directories = new ArrayList<>();
+        try (IndexReader reader = Searcher.openReader(indexPath, directories)) {
+            new IndexStatisticsWriter().write(reader, field, indexPath.resolve(IndexStatistics.DIRECTORY));
+        } finally {
+            IOUtils.close(directories);
+        }
+        System.out.printf("Statistics written in %d ms%n", (System.nanoTime() - start) / 1_000_000);
+    }
+}
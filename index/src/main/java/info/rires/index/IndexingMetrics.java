@@ -0,0 +1,499 @@
+package info.rires.index;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.lucene.index.ConcurrentMergeScheduler;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.MergePolicy;
+import org.apache.lucene.index.MergeScheduler;
+import org.apache.lucene.util.InfoStream;
+
+/**
+ * Counters and per-stage timers of an index build, to find what bounds a long run while it is
+ * still going: inflating the inputs, splitting them into records, extracting the text, adding the
+ * documents to the IndexWriter, or its flushes and merges.
+ *
+ * The counters are updated by the indexing threads as they go and can be read at any time: through
+ * JMX ({@link IndexingMetricsMBean}), and as a json line written every few seconds to the log and
+ * optionally appended to a file. The flush and stall times are reported by the IndexWriters
+ * through the {@link #infoStream()}, the merge times by their {@link #mergeScheduler()}.
+ */
+final class IndexingMetrics implements IndexingMetricsMBean, Closeable {
+    private static final Logger LOG = LogManager.getLogger(IndexingMetrics.class);
+
+    static final String OBJECT_NAME = "info.rires.index:type=IndexingMetrics";
+
+    private static final String FLUSH_TIME = "flush time ";
+    private static final String STALL_TIME = "done stalling flushes for ";
+    private static final double MB = 1024 * 1024;
+
+    private final long start = System.nanoTime();
+    private FileDiscovery discovery;
+
+    private final LongAdder filesCompleted = new LongAdder();
+    private final LongAdder bytesSkipped = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder recordsRead = new LongAdder();
+    private final LongAdder recordsSkipped = new LongAdder();
+    private final LongAdder docsAdded = new LongAdder();
+
+    private final LongAdder inflateNanos = new LongAdder();
+    private final LongAdder parseNanos = new LongAdder();
+    private final LongAdder extractNanos = new LongAdder();
+    private final LongAdder indexNanos = new LongAdder();
+    private final LongAdder flushNanos = new LongAdder();
+    private final LongAdder flushes = new LongAdder();
+    private final LongAdder stallNanos = new LongAdder();
+    private final LongAdder mergeNanos = new LongAdder();
+    private final LongAdder merges = new LongAdder();
+    private final LongAdder mergedBytes = new LongAdder();
+
+    private ObjectName registered;
+    private ScheduledExecutorService reporter;
+    private Path reportFile;
+
+    /**
+     * The files to index, for the files found and the ETA.
+     */
+    void setDiscovery(FileDiscovery discovery) {
+        this.discovery = discovery;
+    }
+
+    /**
+     * Registers the metrics on the platform MBean server, replacing the ones of a previous build.
+     */
+    void register() {
+        try {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(new StandardMBean(this, IndexingMetricsMBean.class), name);
+            registered = name;
+        } catch (JMException e) {
+            LOG.error("Registering the indexing metrics failed", e);
+        }
+    }
+
+    /**
+     * Writes a snapshot to the log every few seconds, and to the end of a file if there is one.
+     */
+    void startReporting(long seconds, Path file) {
+        this.reportFile = file;
+        reporter = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "indexing-metrics");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        reporter.scheduleAtFixedRate(new Runnable() {
+            // the state of the previous report, for the recent rates
+            private long lastNanos = start;
+            private long lastDocs = 0;
+            private long lastBytes = 0;
+
+            @Override
+            public void run() {
+                final long now = System.nanoTime();
+                final long docs = docsAdded.sum();
+                final long bytes = bytesIn.sum();
+                final double seconds = (now - lastNanos) / 1e9;
+                report(snapshot(now, (docs - lastDocs) / seconds, (bytes - lastBytes) / MB / seconds));
+                lastNanos = now;
+                lastDocs = docs;
+                lastBytes = bytes;
+            }
+        }, seconds, seconds, TimeUnit.SECONDS);
+    }
+
+    private void report(String json) {
+        LOG.info(json);
+        if (reportFile == null)
+            return;
+        try (Writer out = Files.newBufferedWriter(reportFile, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            out.write(json);
+            out.write('\n');
+        } catch (IOException e) {
+            LOG.error("Writing the indexing metrics to " + reportFile + " failed", e);
+        }
+    }
+
+    /**
+     * Stops the reports, after a last one, and unregisters the metrics.
+     */
+    @Override
+    public void close() {
+        if (reporter != null) {
+            reporter.shutdownNow();
+            report(getSnapshot());
+            reporter = null;
+        }
+        if (registered != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(registered);
+            } catch (JMException e) {
+                LOG.error("Unregistering the indexing metrics failed", e);
+            }
+            registered = null;
+        }
+    }
+
+    /**
+     * Counts the bytes read from an input file.
+     */
+    InputStream input(InputStream in) {
+        return new MeteredInputStream(in, bytesIn, null);
+    }
+
+    /**
+     * Times the reads from a decompressing stream as inflating time.
+     */
+    MeteredInputStream inflating(InputStream in) {
+        return new MeteredInputStream(in, null, inflateNanos);
+    }
+
+    /**
+     * Counts the bytes of an input file that is read without going through {@link #input}.
+     */
+    void fileRead(long bytes) {
+        bytesIn.add(bytes);
+    }
+
+    void fileCompleted() {
+        filesCompleted.increment();
+    }
+
+    /**
+     * Counts a file indexed by a previous run, which is not left to do.
+     */
+    void fileSkipped(long bytes) {
+        bytesSkipped.add(bytes);
+    }
+
+    /**
+     * @param nanos the time it took to read the record, the inflating time excluded
+     */
+    void recordRead(long nanos) {
+        recordsRead.increment();
+        parseNanos.add(nanos);
+    }
+
+    void recordSkipped() {
+        recordsSkipped.increment();
+    }
+
+    void extracted(long nanos) {
+        extractNanos.add(nanos);
+    }
+
+    void added(int docs, long nanos) {
+        docsAdded.add(docs);
+        indexNanos.add(nanos);
+    }
+
+    /**
+     * @return an info stream that only listens to the flush and stall times of the IndexWriter
+     */
+    InfoStream infoStream() {
+        return new InfoStream() {
+            @Override
+            public void message(String component, String message) {
+                if (message.startsWith(FLUSH_TIME)) {
+                    flushes.increment();
+                    flushNanos.add(millisToNanos(message, FLUSH_TIME.length()));
+                } else if (message.startsWith(STALL_TIME)) {
+                    stallNanos.add(millisToNanos(message, STALL_TIME.length()));
+                }
+            }
+
+            @Override
+            public boolean isEnabled(String component) {
+                // the components of the flush and stall messages
+                return "DWPT".equals(component) || "DW".equals(component);
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    /**
+     * @return the "%f msec" duration of a message at an offset, 0 if it can't be parsed
+     */
+    private static long millisToNanos(String message, int offset) {
+        final int end = message.indexOf(" msec", offset);
+        if (end < 0)
+            return 0;
+        try {
+            // formatted in the default locale
+            return (long) (Double.parseDouble(message.substring(offset, end).replace(',', '.')) * 1e6);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * @return a merge scheduler that times the merges
+     */
+    MergeScheduler mergeScheduler() {
+        return new ConcurrentMergeScheduler() {
+            @Override
+            protected void doMerge(IndexWriter writer, MergePolicy.OneMerge merge) throws IOException {
+                final long mergeStart = System.nanoTime();
+                try {
+                    super.doMerge(writer, merge);
+                } finally {
+                    mergeNanos.add(System.nanoTime() - mergeStart);
+                    merges.increment();
+                    mergedBytes.add(merge.totalBytesSize());
+                }
+            }
+        };
+    }
+
+    @Override
+    public long getElapsedMillis() {
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+
+    @Override
+    public long getFilesFound() {
+        return discovery == null ? 0 : discovery.found();
+    }
+
+    @Override
+    public long getFilesCompleted() {
+        return filesCompleted.sum();
+    }
+
+    @Override
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    @Override
+    public long getRecordsRead() {
+        return recordsRead.sum();
+    }
+
+    @Override
+    public long getRecordsSkipped() {
+        return recordsSkipped.sum();
+    }
+
+    @Override
+    public long getDocsAdded() {
+        return docsAdded.sum();
+    }
+
+    @Override
+    public long getInflateMillis() {
+        return inflateNanos.sum() / 1_000_000;
+    }
+
+    @Override
+    public long getParseMillis() {
+        return parseNanos.sum() / 1_000_000;
+    }
+
+    @Override
+    public long getExtractMillis() {
+        return extractNanos.sum() / 1_000_000;
+    }
+
+    @Override
+    public long getIndexMillis() {
+        return indexNanos.sum() / 1_000_000;
+    }
+
+    @Override
+    public long getFlushMillis() {
+        return flushNanos.sum() / 1_000_000;
+    }
+
+    @Override
+    public long getFlushes() {
+        return flushes.sum();
+    }
+
+    @Override
+    public long getStallMillis() {
+        return stallNanos.sum() / 1_000_000;
+    }
+
+    @Override
+    public long getMergeMillis() {
+        return mergeNanos.sum() / 1_000_000;
+    }
+
+    @Override
+    public long getMerges() {
+        return merges.sum();
+    }
+
+    @Override
+    public double getDocsPerSecond() {
+        return docsAdded.sum() / elapsedSeconds(System.nanoTime());
+    }
+
+    @Override
+    public double getMegabytesPerSecond() {
+        return bytesIn.sum() / MB / elapsedSeconds(System.nanoTime());
+    }
+
+    @Override
+    public long getEtaSeconds() {
+        return eta(System.nanoTime());
+    }
+
+    private double elapsedSeconds(long now) {
+        return Math.max(1, now - start) / 1e9;
+    }
+
+    private long eta(long now) {
+        final long read = bytesIn.sum();
+        if (read == 0 || discovery == null)
+            return -1;
+        final long left = Math.max(0, discovery.foundBytes() - bytesSkipped.sum() - read);
+        return (long) Math.ceil(left / (read / elapsedSeconds(now)));
+    }
+
+    @Override
+    public String getSnapshot() {
+        final long now = System.nanoTime();
+        return snapshot(now, docsAdded.sum() / elapsedSeconds(now), bytesIn.sum() / MB / elapsedSeconds(now));
+    }
+
+    /**
+     * A progress line for the log.
+     */
+    String progress() {
+        final long now = System.nanoTime();
+        final long eta = eta(now);
+        return String.format(Locale.ROOT, "%d of %d files completed%s, %d docs, %.1f docs/s, %.2f MB/s, ETA %s",
+                filesCompleted.sum(), getFilesFound(), discovery != null && discovery.isDone() ? "" : ", still discovering files",
+                docsAdded.sum(), docsAdded.sum() / elapsedSeconds(now), bytesIn.sum() / MB / elapsedSeconds(now),
+                eta < 0 ? "unknown" : String.format(Locale.ROOT, "%02d:%02d:%02d", eta / 3600, eta / 60 % 60, eta % 60));
+    }
+
+    /**
+     * @param docsPerSecond the recent rate of the documents added
+     * @param mbPerSecond   the recent rate of the bytes read
+     */
+    private String snapshot(long now, double docsPerSecond, double mbPerSecond) {
+        final StringBuilder json = new StringBuilder(512);
+        json.append("{\"elapsedSec\":").append(format((now - start) / 1e9))
+                .append(",\"filesFound\":").append(getFilesFound())
+                .append(",\"discoveryDone\":").append(discovery != null && discovery.isDone())
+                .append(",\"filesCompleted\":").append(filesCompleted.sum())
+                .append(",\"bytesIn\":").append(bytesIn.sum())
+                .append(",\"recordsRead\":").append(recordsRead.sum())
+                .append(",\"recordsSkipped\":").append(recordsSkipped.sum())
+                .append(",\"docsAdded\":").append(docsAdded.sum())
+                .append(",\"docsPerSec\":").append(format(docsPerSecond))
+                .append(",\"mbPerSec\":").append(format(mbPerSecond))
+                .append(",\"etaSec\":").append(eta(now))
+                .append(",\"stageSec\":{")
+                .append("\"inflate\":").append(format(inflateNanos.sum() / 1e9))
+                .append(",\"parse\":").append(format(parseNanos.sum() / 1e9))
+                .append(",\"extract\":").append(format(extractNanos.sum() / 1e9))
+                .append(",\"index\":").append(format(indexNanos.sum() / 1e9))
+                .append(",\"flush\":").append(format(flushNanos.sum() / 1e9))
+                .append(",\"stall\":").append(format(stallNanos.sum() / 1e9))
+                .append(",\"merge\":").append(format(mergeNanos.sum() / 1e9))
+                .append("},\"flushes\":").append(flushes.sum())
+                .append(",\"merges\":").append(merges.sum())
+                .append(",\"mergedMB\":").append(format(mergedBytes.sum() / MB))
+                .append('}');
+        return json.toString();
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.3f", value);
+    }
+
+    /**
+     * An input stream that counts the bytes read from it, or times the reads.
+     */
+    static final class MeteredInputStream extends FilterInputStream {
+        private final LongAdder bytes;
+        private final LongAdder nanos;
+        // the time spent in the reads so far, for the reading thread
+        private long elapsed;
+
+        MeteredInputStream(InputStream in, LongAdder bytes, LongAdder nanos) {
+            super(in);
+            this.bytes = bytes;
+            this.nanos = nanos;
+        }
+
+        /**
+         * @return the time spent in the reads of the stream so far, in nanoseconds
+         */
+        long elapsed() {
+            return elapsed;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final long t = nanos == null ? 0 : System.nanoTime();
+            final int b = super.read();
+            done(t, b < 0 ? 0 : 1);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            final long t = nanos == null ? 0 : System.nanoTime();
+            final int n = super.read(b, off, len);
+            done(t, n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            final long t = nanos == null ? 0 : System.nanoTime();
+            final long skipped = super.skip(n);
+            done(t, skipped);
+            return skipped;
+        }
+
+        private void done(long t, long n) {
+            if (bytes != null && n > 0) {
+                bytes.add(n);
+            }
+            if (nanos != null) {
+                final long took = System.nanoTime() - t;
+                elapsed += took;
+                nanos.add(took);
+            }
+        }
+    }
+}
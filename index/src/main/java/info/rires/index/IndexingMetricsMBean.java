@@ -0,0 +1,77 @@
+package info.rires.index;
+
+/**
+ * The JMX view of the {@link IndexingMetrics} of a running build, registered on the platform
+ * MBean server under {@link IndexingMetrics#OBJECT_NAME}. The stage times are summed over the
+ * threads of the stage.
+ */
+public interface IndexingMetricsMBean {
+
+    long getElapsedMillis();
+
+    long getFilesFound();
+
+    long getFilesCompleted();
+
+    /**
+     * @return the bytes of the input files read so far, compressed if they are
+     */
+    long getBytesIn();
+
+    long getRecordsRead();
+
+    /**
+     * @return the records that were not indexed: not responses, without an id or without text
+     */
+    long getRecordsSkipped();
+
+    long getDocsAdded();
+
+    /**
+     * @return the time spent reading and inflating gzipped input files
+     */
+    long getInflateMillis();
+
+    /**
+     * @return the time spent splitting the inputs into records, inflating excluded
+     */
+    long getParseMillis();
+
+    /**
+     * @return the time spent extracting the text of html records
+     */
+    long getExtractMillis();
+
+    /**
+     * @return the time spent in the IndexWriter adding documents: analysis, inversion, and the
+     * flushes and stalls that happen on the indexing threads
+     */
+    long getIndexMillis();
+
+    long getFlushMillis();
+
+    long getFlushes();
+
+    /**
+     * @return the time the IndexWriter held the indexing threads back until flushes caught up
+     */
+    long getStallMillis();
+
+    long getMergeMillis();
+
+    long getMerges();
+
+    double getDocsPerSecond();
+
+    double getMegabytesPerSecond();
+
+    /**
+     * @return the estimated seconds until the files found so far are indexed, -1 before anything was read
+     */
+    long getEtaSeconds();
+
+    /**
+     * @return all the metrics as a json object
+     */
+    String getSnapshot();
+}
@@ -0,0 +1,230 @@
+package info.rires.index;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import info.rires.document.WarcRecord;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexWriter;
+
+/**
+ * Staged indexing pipeline.
+ *
+ * Reader threads (one per input file) decompress and split the file and hand the raw records to
+ * {@link #addRecord(WarcRecord, String, Runnable)}. A pool of parser threads turns the records
+ * into Lucene documents and a pool of writer threads adds them to the {@link IndexWriter}, taking
+ * them from the queue in batches. The stages are
+ * connected by bounded queues, so a single large file can keep all the cores busy while the
+ * memory held by in-flight records stays bounded.
+ *
+ * A record whose document cannot be built or added is logged and skipped, as without the
+ * pipeline. Only the failures that leave the writer unusable stop the pipeline.
+ */
+final class IndexingPipeline implements Closeable {
+    private static final Logger LOG = LogManager.getLogger(IndexingPipeline.class);
+
+    /**
+     * Turns a record into a document, the parser stage of the pipeline.
+     */
+    interface DocumentBuilder {
+        /**
+         * @param source the input file the record comes from
+         * @return the document to index, or null if the record should be skipped
+         */
+        Document build(WarcRecord record, String source) throws IOException;
+    }
+
+    /**
+     * A record, then its document, on its way through the pipeline.
+     */
+    private static final class Item {
+        final WarcRecord record;
+        final String source;
+        final Runnable done;
+        Document document;
+
+        Item(WarcRecord record, String source, Runnable done) {
+            this.record = record;
+            this.source = source;
+            this.done = done;
+        }
+    }
+
+    private static final int RECORDS_PER_PARSER = 64;
+    private static final int BATCH_SIZE = 32;
+    private static final long POLL_MILLIS = 100;
+
+    private final IndexWriter writer;
+    private final DocumentBuilder builder;
+    private final IndexingMetrics metrics;
+    private final BlockingQueue<Item> records;
+    private final BlockingQueue<Item> documents;
+    private final List<Thread> parsers = new ArrayList<>();
+    private final List<Thread> writers = new ArrayList<>();
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private final AtomicLong addedDocs = new AtomicLong();
+
+    private volatile boolean parsersDone = false;
+    private volatile boolean writersDone = false;
+
+    IndexingPipeline(IndexWriter writer, DocumentBuilder builder, IndexingMetrics metrics, int numParsers, int numWriters) {
+        if (numParsers < 1 || numWriters < 1)
+            throw new IllegalArgumentException("pipeline needs at least one parser and one writer thread");
+        this.writer = writer;
+        this.builder = builder;
+        this.metrics = metrics;
+        this.records = new ArrayBlockingQueue<>(numParsers * RECORDS_PER_PARSER);
+        this.documents = new ArrayBlockingQueue<>(numWriters * BATCH_SIZE * 2);
+
+        for (int i = 0; i < numParsers; i++) {
+            Thread t = new Thread(this::parse, "pipeline-parser-" + i);
+            t.setDaemon(true);
+            parsers.add(t);
+        }
+        for (int i = 0; i < numWriters; i++) {
+            Thread t = new Thread(this::write, "pipeline-writer-" + i);
+            t.setDaemon(true);
+            writers.add(t);
+        }
+    }
+
+    void start() {
+        for (Thread t : parsers) t.start();
+        for (Thread t : writers) t.start();
+    }
+
+    /**
+     * Queues a raw record for parsing, blocks while the parser stage is saturated.
+     *
+     * @param source the input file the record comes from
+     * @param done   run once the document of the record has been added to the index, or the
+     *               record has been skipped
+     */
+    void addRecord(WarcRecord record, String source, Runnable done) throws IOException {
+        put(records, new Item(record, source, done));
+    }
+
+    long addedDocs() {
+        return addedDocs.get();
+    }
+
+    /**
+     * Drains the pipeline: waits until every queued record has been parsed and every document
+     * has been handed to the writer, then rethrows the first failure of any stage.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            parsersDone = true;
+            join(parsers);
+            writersDone = true;
+            join(writers);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while draining the indexing pipeline");
+        }
+        checkFailure();
+    }
+
+    private void parse() {
+        try {
+            while (failure.get() == null) {
+                Item item = records.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (item == null) {
+                    if (parsersDone && records.isEmpty()) break;
+                    continue;
+                }
+                try {
+                    item.document = builder.build(item.record, item.source);
+                } catch (IOException | RuntimeException e) {
+                    LOG.error("Skipping record " + item.record.id() + " of " + item.source + ", its document cannot be built", e);
+                    metrics.recordSkipped();
+                    item.document = null;
+                }
+                if (item.document != null) {
+                    put(documents, item);
+                } else {
+                    item.done.run();
+                }
+            }
+        } catch (Throwable t) {
+            fail(t);
+        }
+    }
+
+    private void write() {
+        final List<Item> batch = new ArrayList<>(BATCH_SIZE);
+        try {
+            while (failure.get() == null) {
+                Item item = documents.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (item == null) {
+                    if (writersDone && documents.isEmpty()) break;
+                    continue;
+                }
+                batch.add(item);
+                documents.drainTo(batch, BATCH_SIZE - 1);
+                // one at a time, addDocuments adds a block atomically and one bad document would drop them all
+                final long start = System.nanoTime();
+                int added = 0;
+                for (Item i : batch) {
+                    try {
+                        writer.addDocument(i.document);
+                        added++;
+                    } catch (IOException | RuntimeException e) {
+                        if (writer.getTragicException() != null || !writer.isOpen())
+                            throw e;
+                        LOG.error("Skipping record " + i.record.id() + " of " + i.source + ", its document cannot be added", e);
+                        metrics.recordSkipped();
+                    }
+                    i.done.run();
+                }
+                metrics.added(added, System.nanoTime() - start);
+                addedDocs.addAndGet(added);
+                batch.clear();
+            }
+        } catch (Throwable t) {
+            fail(t);
+        }
+    }
+
+    private <T> void put(BlockingQueue<T> queue, T item) throws IOException {
+        try {
+            while (!queue.offer(item, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                checkFailure();
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while feeding the indexing pipeline");
+        }
+    }
+
+    /**
+     * Stops the pipeline, for the failures of the writer and the errors that are not specific to a record.
+     */
+    private void fail(Throwable t) {
+        // keep the root cause, the other stages fail as a consequence of it
+        failure.compareAndSet(null, t);
+    }
+
+    private void checkFailure() throws IOException {
+        Throwable t = failure.get();
+        if (t == null) return;
+        if (t instanceof IOException) throw new IOException("indexing pipeline failed", t);
+        if (t instanceof Error) throw (Error) t;
+        throw new RuntimeException("indexing pipeline failed", t);
+    }
+
+    private static void join(List<Thread> threads) throws InterruptedException {
+        for (Thread t : threads) t.join();
+    }
+}
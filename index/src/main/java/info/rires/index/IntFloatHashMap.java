@@ -0,0 +1,147 @@
+package info.rires.index;
+
+import java.util.Arrays;
+
+import org.apache.lucene.util.NumericUtils;
+
+/**
+ * Open addressing map of non negative int keys to float values, without boxing. Not thread-safe.
+ */
+final class IntFloatHashMap {
+
+    private static final int EMPTY = -1;
+
+    private int[] keys;
+    private float[] values;
+    private int mask;
+    private int size;
+
+    IntFloatHashMap() {
+        this(64);
+    }
+
+    IntFloatHashMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, expectedSize * 2 - 1)) << 1;
+        keys = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+        values = new float[capacity];
+        mask = capacity - 1;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return the value of a key, 0 if it has none
+     */
+    float get(int key) {
+        for (int slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+            if (keys[slot] == key)
+                return values[slot];
+            if (keys[slot] == EMPTY)
+                return 0;
+        }
+    }
+
+    boolean containsKey(int key) {
+        for (int slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+            if (keys[slot] == key)
+                return true;
+            if (keys[slot] == EMPTY)
+                return false;
+        }
+    }
+
+    void put(int key, float value) {
+        values[slot(key)] = value;
+    }
+
+    /**
+     * Adds to the value of a key, which starts at 0.
+     */
+    void addTo(int key, float delta) {
+        values[slot(key)] += delta;
+    }
+
+    /**
+     * @return the slot of a key, inserted if it is missing
+     */
+    private int slot(int key) {
+        if (key < 0)
+            throw new IllegalArgumentException("negative key " + key);
+        for (int slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+            if (keys[slot] == key)
+                return slot;
+            if (keys[slot] == EMPTY) {
+                if (2 * (size + 1) > keys.length) {
+                    rehash();
+                    return slot(key);
+                }
+                keys[slot] = key;
+                size++;
+                return slot;
+            }
+        }
+    }
+
+    private void rehash() {
+        final int[] oldKeys = keys;
+        final float[] oldValues = values;
+        keys = new int[oldKeys.length * 2];
+        Arrays.fill(keys, EMPTY);
+        values = new float[keys.length];
+        mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int slot = hash(oldKeys[i]) & mask;
+                while (keys[slot] != EMPTY)
+                    slot = (slot + 1) & mask;
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    /**
+     * @return the keys, in no particular order
+     */
+    int[] keys() {
+        final int[] result = new int[size];
+        int n = 0;
+        for (int key : keys) {
+            if (key != EMPTY)
+                result[n++] = key;
+        }
+        return result;
+    }
+
+    /**
+     * @return the keys in decreasing order of their values
+     */
+    int[] keysByValue() {
+        final int[] result = keys();
+        // sorting boxed keys would defeat the purpose, sort (value, key) pairs packed in longs instead
+        final long[] packed = new long[result.length];
+        for (int i = 0; i < result.length; i++)
+            packed[i] = (long) NumericUtils.floatToSortableInt(get(result[i])) << 32 | result[i];
+        Arrays.sort(packed);
+        for (int i = 0; i < result.length; i++)
+            result[i] = (int) packed[result.length - 1 - i];
+        return result;
+    }
+
+    private static int hash(int key) {
+        // murmur3 mix, term ids are dense
+        key ^= key >>> 16;
+        key *= 0x85ebca6b;
+        key ^= key >>> 13;
+        return key;
+    }
+
+    void clear() {
+        Arrays.fill(keys, EMPTY);
+        Arrays.fill(values, 0);
+        size = 0;
+    }
+}
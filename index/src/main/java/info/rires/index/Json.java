@@ -0,0 +1,33 @@
+package info.rires.index;
+
+/**
+ * The little json the server, the metrics and the benchmark reports write by hand.
+ */
+final class Json {
+
+    private Json() {
+    }
+
+    /**
+     * @return the string as a json string literal, in quotes and escaped
+     */
+    static String quote(String s) {
+        StringBuilder out = new StringBuilder(s.length() + 2).append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"': out.append("\\\""); break;
+                case '\\': out.append("\\\\"); break;
+                case '\n': out.append("\\n"); break;
+                case '\r': out.append("\\r"); break;
+                case '\t': out.append("\\t"); break;
+                default:
+                    if (c < 0x20)
+                        out.append(String.format("\\u%04x", (int) c));
+                    else
+                        out.append(c);
+            }
+        }
+        return out.append('"').toString();
+    }
+}
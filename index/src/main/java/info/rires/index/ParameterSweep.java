@@ -0,0 +1,547 @@
+package info.rires.index;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.cli.*;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermContext;
+import org.apache.lucene.index.TermState;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.CollectionStatistics;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TermStatistics;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.similarities.*;
+import org.apache.lucene.util.Bits;
+
+/**
+ * Scores a query under a whole grid of similarity settings at once.
+ *
+ * The term statistics of a query are looked up once and its postings are decoded once, document
+ * at a time, every matching document being scored under all the settings while its frequencies
+ * are at hand, so that a sweep over many settings costs about one pass over the postings rather
+ * than one per setting. The scores are the ones of {@link IndexSearcher#search(Query, int)} under
+ * each similarity, as they come from the similarity's own weights and scorers.
+ *
+ * Only bags of words are supported: a term query, or a boolean query of (boosted) optional term
+ * clauses, which is what the query parser makes of escaped topic text.
+ *
+ * A grid is given as models separated by ';', each a name followed by its parameters and their
+ * values, e.g. {@code bm25:k1=0.9,1.2:b=0.4,0.75;dirichlet:mu=1000,2000}; every combination of
+ * values is a setting. See {@link #parseGrid(String)} for the models.
+ */
+public final class ParameterSweep {
+    private static final Logger LOG = LogManager.getLogger(ParameterSweep.class);
+
+    /**
+     * A point of the grid.
+     */
+    public static final class Setting {
+        public final String label;
+        public final Similarity similarity;
+
+        Setting(String label, Similarity similarity) {
+            this.label = label;
+            this.similarity = similarity;
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+
+    private final List<Setting> settings;
+
+    public ParameterSweep(List<Setting> settings) {
+        if (settings.isEmpty())
+            throw new IllegalArgumentException("empty grid");
+        this.settings = settings;
+    }
+
+    public List<Setting> settings() {
+        return settings;
+    }
+
+    /**
+     * Parses a grid. The models and their parameters, with the defaults:
+     * <pre>
+     * bm25       k1=1.2 b=0.75
+     * dirichlet  mu=2000
+     * jm         lambda=0.7
+     * f1exp      s=0.25 k=0.35
+     * f1log      s=0.25
+     * f2exp      s=0.25 k=0.35
+     * f2log      s=0.25
+     * f3exp      s=0.25 queryLen=2 k=0.35
+     * f3log      s=0.25 queryLen=2
+     * </pre>
+     */
+    public static List<Setting> parseGrid(String spec) {
+        List<Setting> settings = new ArrayList<>();
+        for (String model : spec.split(";")) {
+            model = model.trim();
+            if (model.isEmpty())
+                continue;
+            String[] parts = model.split(":");
+            String name = parts[0].trim();
+            Map<String, String> defaults = defaults(name);
+
+            Map<String, String[]> values = new LinkedHashMap<>();
+            for (Map.Entry<String, String> d : defaults.entrySet())
+                values.put(d.getKey(), new String[]{d.getValue()});
+            for (int i = 1; i < parts.length; i++) {
+                int eq = parts[i].indexOf('=');
+                String param = eq < 0 ? parts[i].trim() : parts[i].substring(0, eq).trim();
+                if (eq < 0 || !defaults.containsKey(param))
+                    throw new IllegalArgumentException("Unknown parameter of " + name + ": " + parts[i]
+                            + ", expected one of " + defaults.keySet());
+                values.put(param, parts[i].substring(eq + 1).trim().split("\\s*,\\s*"));
+            }
+            combine(name, new ArrayList<>(values.keySet()), values, 0, new LinkedHashMap<String, String>(), settings);
+        }
+        if (settings.isEmpty())
+            throw new IllegalArgumentException("empty grid: " + spec);
+        return settings;
+    }
+
+    private static Map<String, String> defaults(String model) {
+        Map<String, String> d = new LinkedHashMap<>();
+        switch (model) {
+            case "bm25": d.put("k1", "1.2"); d.put("b", "0.75"); break;
+            case "dirichlet": d.put("mu", "2000"); break;
+            case "jm": d.put("lambda", "0.7"); break;
+            case "f1exp": case "f2exp": d.put("s", "0.25"); d.put("k", "0.35"); break;
+            case "f1log": case "f2log": d.put("s", "0.25"); break;
+            case "f3exp": d.put("s", "0.25"); d.put("queryLen", "2"); d.put("k", "0.35"); break;
+            case "f3log": d.put("s", "0.25"); d.put("queryLen", "2"); break;
+            default:
+                throw new IllegalArgumentException("Unknown model: " + model
+                        + ", expected bm25, dirichlet, jm, f1exp, f1log, f2exp, f2log, f3exp or f3log");
+        }
+        return d;
+    }
+
+    private static void combine(String model, List<String> params, Map<String, String[]> values, int i,
+                                Map<String, String> chosen, List<Setting> settings) {
+        if (i == params.size()) {
+            StringBuilder label = new StringBuilder(model);
+            for (Map.Entry<String, String> p : chosen.entrySet())
+                label.append(':').append(p.getKey()).append('=').append(p.getValue());
+            settings.add(new Setting(label.toString(), newSimilarity(model, chosen)));
+            return;
+        }
+        for (String value : values.get(params.get(i))) {
+            chosen.put(params.get(i), value);
+            combine(model, params, values, i + 1, chosen, settings);
+        }
+        chosen.remove(params.get(i));
+    }
+
+    private static Similarity newSimilarity(String model, Map<String, String> p) {
+        switch (model) {
+            case "bm25": return new BM25Similarity(f(p, "k1"), f(p, "b"));
+            case "dirichlet": return new LMDirichletSimilarity(f(p, "mu"));
+            case "jm": return new LMJelinekMercerSimilarity(f(p, "lambda"));
+            case "f1exp": return new AxiomaticF1EXP(f(p, "s"), f(p, "k"));
+            case "f1log": return new AxiomaticF1LOG(f(p, "s"));
+            case "f2exp": return new AxiomaticF2EXP(f(p, "s"), f(p, "k"));
+            case "f2log": return new AxiomaticF2LOG(f(p, "s"));
+            case "f3exp": return new AxiomaticF3EXP(f(p, "s"), Integer.parseInt(p.get("queryLen")), f(p, "k"));
+            case "f3log": return new AxiomaticF3LOG(f(p, "s"), Integer.parseInt(p.get("queryLen")));
+            default: throw new IllegalArgumentException("Unknown model: " + model);
+        }
+    }
+
+    private static float f(Map<String, String> params, String name) {
+        return Float.parseFloat(params.get(name));
+    }
+
+    /**
+     * The top documents of a setting, the worst one on top of the heap. Documents are offered in
+     * increasing order, so on equal scores the earlier one is kept, as by Lucene's collectors.
+     */
+    private static final class TopHeap {
+        final float[] scores;
+        final int[] docs;
+        int size = 0;
+
+        TopHeap(int k) {
+            scores = new float[k];
+            docs = new int[k];
+        }
+
+        void offer(int doc, float score) {
+            if (size < scores.length) {
+                scores[size] = score;
+                docs[size] = doc;
+                up(size++);
+            } else if (score > scores[0]) {
+                scores[0] = score;
+                docs[0] = doc;
+                down(0);
+            }
+        }
+
+        // a below b in the ranking
+        private boolean worse(int a, int b) {
+            return scores[a] < scores[b] || (scores[a] == scores[b] && docs[a] > docs[b]);
+        }
+
+        private void up(int i) {
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (!worse(i, parent))
+                    break;
+                swap(i, parent);
+                i = parent;
+            }
+        }
+
+        private void down(int i) {
+            while (true) {
+                int worst = i;
+                int l = 2 * i + 1;
+                int r = l + 1;
+                if (l < size && worse(l, worst)) worst = l;
+                if (r < size && worse(r, worst)) worst = r;
+                if (worst == i)
+                    return;
+                swap(i, worst);
+                i = worst;
+            }
+        }
+
+        private void swap(int a, int b) {
+            float s = scores[a];
+            scores[a] = scores[b];
+            scores[b] = s;
+            int d = docs[a];
+            docs[a] = docs[b];
+            docs[b] = d;
+        }
+
+        TopDocs topDocs(int totalHits) {
+            ScoreDoc[] hits = new ScoreDoc[size];
+            // empty the heap worst first
+            while (size > 0) {
+                hits[size - 1] = new ScoreDoc(docs[0], scores[0]);
+                swap(0, --size);
+                down(0);
+            }
+            return new TopDocs(totalHits, hits, hits.length == 0 ? Float.NaN : hits[0].score);
+        }
+    }
+
+    /**
+     * @return the top k documents of the query under every setting, in the order of the settings
+     */
+    public TopDocs[] search(IndexSearcher searcher, Query query, int k) throws IOException {
+        final List<Term> terms = new ArrayList<>();
+        final List<Float> boosts = new ArrayList<>();
+        extractTerms(query, 1f, terms, boosts);
+
+        // the statistics and weights of the terms, once per query
+        final int numSettings = settings.size();
+        final List<TermContext> contexts = new ArrayList<>();
+        final List<Similarity.SimWeight[]> weights = new ArrayList<>();
+        final Map<String, CollectionStatistics> fieldStats = new HashMap<>();
+        for (int t = 0; t < terms.size(); t++) {
+            Term term = terms.get(t);
+            TermContext context = TermContext.build(searcher.getTopReaderContext(), term);
+            if (context.docFreq() == 0) {
+                terms.remove(t);
+                boosts.remove(t--);
+                continue;
+            }
+            CollectionStatistics collectionStats = fieldStats.get(term.field());
+            if (collectionStats == null) {
+                collectionStats = searcher.collectionStatistics(term.field());
+                fieldStats.put(term.field(), collectionStats);
+            }
+            TermStatistics termStats = searcher.termStatistics(term, context);
+            Similarity.SimWeight[] w = new Similarity.SimWeight[numSettings];
+            for (int s = 0; s < numSettings; s++)
+                w[s] = settings.get(s).similarity.computeWeight(boosts.get(t), collectionStats, termStats);
+            contexts.add(context);
+            weights.add(w);
+        }
+
+        final TopHeap[] tops = new TopHeap[numSettings];
+        for (int s = 0; s < numSettings; s++)
+            tops[s] = new TopHeap(k);
+        int totalHits = 0;
+        for (LeafReaderContext leaf : searcher.getIndexReader().leaves())
+            totalHits += searchLeaf(leaf, terms, contexts, weights, tops);
+
+        TopDocs[] results = new TopDocs[numSettings];
+        for (int s = 0; s < numSettings; s++)
+            results[s] = tops[s].topDocs(totalHits);
+        return results;
+    }
+
+    /**
+     * Goes through the postings of the query terms in a segment, document at a time.
+     *
+     * @return the number of matching documents
+     */
+    private int searchLeaf(LeafReaderContext leaf, List<Term> terms, List<TermContext> contexts,
+                           List<Similarity.SimWeight[]> weights, TopHeap[] tops) throws IOException {
+        final int numSettings = tops.length;
+        final List<PostingsEnum> postings = new ArrayList<>();
+        final List<Similarity.SimScorer[]> scorers = new ArrayList<>();
+        for (int t = 0; t < terms.size(); t++) {
+            TermState state = contexts.get(t).get(leaf.ord);
+            if (state == null)
+                continue;
+            Terms fieldTerms = leaf.reader().terms(terms.get(t).field());
+            TermsEnum termsEnum = fieldTerms.iterator();
+            termsEnum.seekExact(terms.get(t).bytes(), state);
+            PostingsEnum p = termsEnum.postings(null, PostingsEnum.FREQS);
+            p.nextDoc();
+            postings.add(p);
+            Similarity.SimScorer[] sc = new Similarity.SimScorer[numSettings];
+            for (int s = 0; s < numSettings; s++)
+                sc[s] = settings.get(s).similarity.simScorer(weights.get(t)[s], leaf);
+            scorers.add(sc);
+        }
+        final int n = postings.size();
+        if (n == 0)
+            return 0;
+
+        final Bits liveDocs = leaf.reader().getLiveDocs();
+        final int[] matched = new int[n];
+        final float[] freqs = new float[n];
+        final double[] sums = new double[numSettings];
+        int hits = 0;
+        while (true) {
+            int doc = DocIdSetIterator.NO_MORE_DOCS;
+            for (PostingsEnum p : postings)
+                doc = Math.min(doc, p.docID());
+            if (doc == DocIdSetIterator.NO_MORE_DOCS)
+                break;
+
+            int m = 0;
+            for (int t = 0; t < n; t++) {
+                PostingsEnum p = postings.get(t);
+                if (p.docID() == doc) {
+                    matched[m] = t;
+                    freqs[m++] = p.freq();
+                    p.nextDoc();
+                }
+            }
+            if (liveDocs != null && !liveDocs.get(doc))
+                continue;
+            hits++;
+
+            Arrays.fill(sums, 0);
+            for (int i = 0; i < m; i++) {
+                Similarity.SimScorer[] sc = scorers.get(matched[i]);
+                for (int s = 0; s < numSettings; s++)
+                    sums[s] += sc[s].score(doc, freqs[i]);
+            }
+            final int globalDoc = leaf.docBase + doc;
+            for (int s = 0; s < numSettings; s++)
+                tops[s].offer(globalDoc, (float) sums[s]);
+        }
+        return hits;
+    }
+
+    private static void extractTerms(Query query, float boost, List<Term> terms, List<Float> boosts) {
+        if (query instanceof TermQuery) {
+            terms.add(((TermQuery) query).getTerm());
+            boosts.add(boost);
+        } else if (query instanceof BoostQuery) {
+            extractTerms(((BoostQuery) query).getQuery(), boost * ((BoostQuery) query).getBoost(), terms, boosts);
+        } else if (query instanceof BooleanQuery) {
+            for (BooleanClause clause : ((BooleanQuery) query).clauses()) {
+                if (clause.getOccur() != BooleanClause.Occur.SHOULD)
+                    throw new IllegalArgumentException("Only optional clauses can be swept: " + query);
+                extractTerms(clause.getQuery(), boost, terms, boosts);
+            }
+        } else {
+            throw new IllegalArgumentException("Only term and boolean queries can be swept: " + query);
+        }
+    }
+
+    /**
+     * Sweeps all the topics, concurrently, and writes one TREC run file per setting, tagged with
+     * the label of the setting.
+     *
+     * @return the number of topics searched
+     */
+    public int run(final Searcher searcher, Map<String, String> topics, final int k, final List<Writer> runs,
+                   int numThreads) throws IOException, InterruptedException {
+        final ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        final AtomicInteger searched = new AtomicInteger();
+        try {
+            final List<Future<?>> futures = new ArrayList<>(topics.size());
+            for (final Map.Entry<String, String> topic : topics.entrySet()) {
+                futures.add(executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            Query query = searcher.parse(QueryParser.escape(topic.getValue()));
+                            TopDocs[] results = search(searcher.indexSearcher, query, k);
+                            for (int s = 0; s < results.length; s++) {
+                                ScoreDoc[] hits = results[s].scoreDocs;
+                                String[] docnos = searcher.getDocnos(hits);
+                                StringBuilder lines = new StringBuilder(hits.length * 48);
+                                for (int i = 0; i < hits.length; i++) {
+                                    lines.append(topic.getKey()).append(" Q0 ").append(docnos[i]).append(' ')
+                                            .append(i + 1).append(' ').append(hits[i].score).append(' ')
+                                            .append(settings.get(s).label).append('\n');
+                                }
+                                Writer run = runs.get(s);
+                                synchronized (run) {
+                                    run.write(lines.toString());
+                                }
+                            }
+                            searched.incrementAndGet();
+                        } catch (org.apache.lucene.queryparser.classic.ParseException | IllegalArgumentException e) {
+                            LOG.error("Cannot sweep topic " + topic.getKey() + ": " + topic.getValue(), e);
+                        } catch (IOException ioe) {
+                            throw new UncheckedIOException("Sweeping topic " + topic.getKey() + " failed", ioe);
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException ee) {
+                    throw new IOException(ee.getCause());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return searched.get();
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        CommandLineParser parser = new DefaultParser();
+
+        Options options = new Options();
+        options.addOption( Option.builder("i")
+                .longOpt( "index" )
+                .desc( "the path to the index" )
+                .required(true)
+                .hasArg()
+                .argName("INDEX")
+                .build() );
+        options.addOption( Option.builder("t")
+                .longOpt( "topics" )
+                .desc( "the TREC topics file" )
+                .required(true)
+                .hasArg()
+                .argName("TOPICS")
+                .build() );
+        options.addOption( Option.builder("o")
+                .longOpt( "output" )
+                .desc( "the directory of the run files, one per setting" )
+                .required(true)
+                .hasArg()
+                .argName("RUN_DIR")
+                .build() );
+        options.addOption( Option.builder("g")
+                .longOpt( "grid" )
+                .desc( "the settings, e.g. \"bm25:k1=0.9,1.2:b=0.4,0.75;f3log:s=0.1,0.25,0.5\"" )
+                .required(true)
+                .hasArg()
+                .argName("GRID")
+                .build() );
+        options.addOption( Option.builder("n")
+                .longOpt( "numThreads" )
+                .desc( "number of topics searched in parallel" )
+                .required(false)
+                .hasArg()
+                .argName("NUM_THREADS")
+                .build() );
+        options.addOption( Option.builder("k")
+                .longOpt( "depth" )
+                .desc( "number of documents retrieved per topic, default [" + BatchSearch.RUN_DEPTH + "]" )
+                .required(false)
+                .hasArg()
+                .argName("DEPTH")
+                .build() );
+        options.addOption( Option.builder()
+                .longOpt( "field" )
+                .desc( "the part of the topics searched: title (default) or desc" )
+                .required(false)
+                .hasArg()
+                .argName("FIELD")
+                .build() );
+
+        HelpFormatter formatter = new HelpFormatter();
+
+        CommandLine line;
+        try {
+            line = parser.parse( options, args );
+        }
+        catch( ParseException exp ) {
+            System.out.println( "Unexpected exception:" + exp.getMessage() );
+            formatter.printHelp( "ParameterSweep", options );
+            return;
+        }
+
+        final int numThreads = Integer.parseInt(line.getOptionValue("n",
+                String.valueOf(Runtime.getRuntime().availableProcessors())));
+        final ParameterSweep sweep = new ParameterSweep(parseGrid(line.getOptionValue("g")));
+        final Map<String, String> topics = TrecTopics.read(Paths.get(line.getOptionValue("t")),
+                line.getOptionValue("field", "title"));
+
+        final Path runDir = Paths.get(line.getOptionValue("o"));
+        Files.createDirectories(runDir);
+        final List<Writer> runs = new ArrayList<>();
+        Searcher searcher = new Searcher(line.getOptionValue("i"));
+        try {
+            for (Setting setting : sweep.settings()) {
+                runs.add(Files.newBufferedWriter(runDir.resolve(setting.label.replaceAll("[^A-Za-z0-9._=-]", "_") + ".run"),
+                        StandardCharsets.UTF_8));
+            }
+            final long start = System.nanoTime();
+            int searched = sweep.run(searcher, topics,
+                    Integer.parseInt(line.getOptionValue("k", String.valueOf(BatchSearch.RUN_DEPTH))), runs, numThreads);
+            final double seconds = (System.nanoTime() - start) / (double) TimeUnit.SECONDS.toNanos(1);
+            System.out.println(String.format("%d of %d topics swept over %d settings with %d threads in %.2f s, %.1f topics/s",
+                    searched, topics.size(), sweep.settings().size(), numThreads, seconds, searched / seconds));
+        } finally {
+            for (Writer run : runs)
+                run.close();
+            searcher.close();
+        }
+    }
+}
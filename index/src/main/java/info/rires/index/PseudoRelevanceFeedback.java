@@ -0,0 +1,473 @@
+package info.rires.index;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermContext;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.CollectionStatistics;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefHash;
+
+/**
+ * Pseudo-relevance feedback: expands a query with terms of the top documents of a first search.
+ *
+ * Two models are supported, RM3, which interpolates the query with a relevance model estimated
+ * from the top documents weighted by their scores, and axiomatic expansion (Yang and Fang), which
+ * adds the terms with the highest mutual information with the query terms over the top documents
+ * and a random sample of the collection. The expanded query is a flat {@link BooleanQuery} of
+ * boosted terms of the body field, the structure of the original query is not kept.
+ *
+ * The document vectors are read from the {@link ForwardIndex} when there is one, otherwise from
+ * the term vectors of the index, see {@link Searcher#setFeedback}. Term weights are accumulated by term id, and the statistics of
+ * the expansion terms are cached per reader, until it is closed. The feedback can be shared by
+ * threads.
+ */
+public final class PseudoRelevanceFeedback {
+
+    public enum Model {
+        RM3, AXIOMATIC;
+
+        /**
+         * @param name "rm3" or "ax"
+         */
+        public static Model forName(String name) {
+            switch (name.toLowerCase()) {
+                case "rm3":
+                    return RM3;
+                case "ax":
+                case "axiomatic":
+                    return AXIOMATIC;
+                default:
+                    throw new IllegalArgumentException("unknown feedback model: " + name);
+            }
+        }
+    }
+
+    private static final String FIELD = RiseBuildIndex.FIELD_BODY;
+
+    /** Terms in more than that fraction of the documents are not added to the query. */
+    static final float MAX_DOC_FREQ_RATIO = 0.5f;
+    static final int MIN_TERM_LENGTH = 2;
+    /** The axiomatic model samples that many random documents per feedback document. */
+    static final int RANDOM_DOCS_PER_DOC = 19;
+    /** Cached term statistics per reader, the cache is cleared when it gets that large. */
+    static final int MAX_CACHED_TERMS = 1 << 16;
+
+    private final Model model;
+    private final int fbDocs;
+    private final int fbTerms;
+    private final float weight;
+
+    /** The collection statistics of the readers being searched. */
+    private final ConcurrentHashMap<IndexReader, ReaderStatistics> statistics = new ConcurrentHashMap<>();
+
+    /**
+     * @param fbDocs  the number of top documents the expansion terms are taken from
+     * @param fbTerms the number of expansion terms
+     * @param weight  for RM3, the weight of the original query in the interpolation, for the
+     *                axiomatic model, the weight of the best expansion term relative to the query terms
+     */
+    public PseudoRelevanceFeedback(Model model, int fbDocs, int fbTerms, float weight) {
+        if (fbDocs < 1 || fbTerms < 1)
+            throw new IllegalArgumentException("the feedback needs at least one document and one term");
+        this.model = model;
+        this.fbDocs = fbDocs;
+        this.fbTerms = fbTerms;
+        this.weight = weight;
+    }
+
+    /**
+     * RM3 with 10 documents, 10 terms and the original query weighted 0.5.
+     */
+    public static PseudoRelevanceFeedback rm3() {
+        return new PseudoRelevanceFeedback(Model.RM3, 10, 10, 0.5f);
+    }
+
+    /**
+     * Axiomatic expansion with 20 documents, 20 terms and a weight of 0.4.
+     */
+    public static PseudoRelevanceFeedback axiomatic() {
+        return new PseudoRelevanceFeedback(Model.AXIOMATIC, 20, 20, 0.4f);
+    }
+
+    public Model getModel() {
+        return model;
+    }
+
+    /**
+     * @return the number of documents the first search must return
+     */
+    public int getFeedbackDocs() {
+        return fbDocs;
+    }
+
+    public int getFeedbackTerms() {
+        return fbTerms;
+    }
+
+    public float getWeight() {
+        return weight;
+    }
+
+    private static boolean isForwardIndexOf(ForwardIndex forward, IndexReader reader) {
+        return forward != null && FIELD.equals(forward.field()) && forward.isCurrent(reader);
+    }
+
+    /**
+     * @param forward the forward index of the index, or null
+     * @return whether the vectors of the feedback documents can be read, from the forward index or
+     * else from the term vectors of the index
+     */
+    static boolean hasVectors(IndexReader reader, ForwardIndex forward) {
+        if (isForwardIndexOf(forward, reader))
+            return true;
+        final FieldInfo info = MultiFields.getMergedFieldInfos(reader).fieldInfo(FIELD);
+        return info != null && info.hasVectors();
+    }
+
+    /**
+     * Expands a query with the top documents of its first search.
+     *
+     * @param forward the forward index of the searched index, or null to read the term vectors
+     * @return the expanded query, or the query itself if it has no terms or no documents were found
+     */
+    public Query expand(IndexSearcher searcher, Query query, TopDocs firstPass, ForwardIndex forward) throws IOException {
+        final IndexReader reader = searcher.getIndexReader();
+        final Set<Term> extracted = new TreeSet<>();
+        searcher.createNormalizedWeight(query, false).extractTerms(extracted);
+        final List<Term> queryTerms = new ArrayList<>();
+        for (Term term : extracted) {
+            if (FIELD.equals(term.field()))
+                queryTerms.add(term);
+        }
+        final int numDocs = Math.min(fbDocs, firstPass.scoreDocs.length);
+        if (queryTerms.isEmpty() || numDocs == 0)
+            return query;
+
+        final Vectors vectors = isForwardIndexOf(forward, reader) ? new ForwardVectors(forward) : new TermVectors(reader);
+        final ScoreDoc[] top = Arrays.copyOf(firstPass.scoreDocs, numDocs);
+        final IntFloatHashMap candidates = model == Model.RM3
+                ? relevanceModel(vectors, top) : mutualInformation(vectors, top, queryTerms, reader, query.hashCode());
+
+        // the best candidates that are not too common
+        final ReaderStatistics stats = statistics(searcher);
+        final List<Term> terms = new ArrayList<>(fbTerms);
+        final float[] weights = new float[fbTerms];
+        float sum = 0;
+        for (int id : candidates.keysByValue()) {
+            if (terms.size() == fbTerms)
+                break;
+            final BytesRef bytes = vectors.term(id);
+            if (bytes.length < MIN_TERM_LENGTH)
+                continue;
+            final Term term = new Term(FIELD, BytesRef.deepCopyOf(bytes));
+            if (stats.termContext(searcher, term).docFreq() > MAX_DOC_FREQ_RATIO * stats.docCount)
+                continue;
+            weights[terms.size()] = candidates.get(id);
+            sum += weights[terms.size()];
+            terms.add(term);
+        }
+
+        final List<Term> expandedTerms = new ArrayList<>(queryTerms);
+        final float[] expandedWeights = new float[queryTerms.size() + terms.size()];
+        if (model == Model.RM3) {
+            // interpolate the maximum likelihood model of the query with the relevance model
+            Arrays.fill(expandedWeights, 0, queryTerms.size(), weight / queryTerms.size());
+            for (int i = 0; i < terms.size(); i++)
+                add(expandedTerms, expandedWeights, terms.get(i), sum > 0 ? (1 - weight) * weights[i] / sum : 0);
+        } else {
+            Arrays.fill(expandedWeights, 0, queryTerms.size(), 1);
+            // the candidates are in decreasing order of score
+            final float max = terms.isEmpty() ? 0 : weights[0];
+            for (int i = 0; i < terms.size(); i++)
+                add(expandedTerms, expandedWeights, terms.get(i), max > 0 ? weight * weights[i] / max : 0);
+        }
+
+        final BooleanQuery.Builder expanded = new BooleanQuery.Builder();
+        for (int i = 0; i < expandedTerms.size(); i++) {
+            if (expandedWeights[i] <= 0)
+                continue;
+            final Term term = expandedTerms.get(i);
+            expanded.add(new BoostQuery(new TermQuery(term, stats.termContext(searcher, term)), expandedWeights[i]),
+                    BooleanClause.Occur.SHOULD);
+        }
+        return expanded.build();
+    }
+
+    private static void add(List<Term> terms, float[] weights, Term term, float weight) {
+        int i = terms.indexOf(term);
+        if (i < 0) {
+            i = terms.size();
+            terms.add(term);
+        }
+        weights[i] += weight;
+    }
+
+    /**
+     * @return the probability of every term in the relevance model of the top documents, up to a
+     * constant factor: the sum over the documents of its probability in the document times the
+     * normalized score of the document
+     */
+    private static IntFloatHashMap relevanceModel(Vectors vectors, ScoreDoc[] top) throws IOException {
+        float total = 0, min = Float.POSITIVE_INFINITY;
+        for (ScoreDoc hit : top) {
+            total += hit.score;
+            min = Math.min(min, hit.score);
+        }
+        final IntFloatHashMap model = new IntFloatHashMap(1024);
+        final ForwardIndex.DocVector vector = new ForwardIndex.DocVector();
+        for (ScoreDoc hit : top) {
+            if (!vectors.read(hit.doc, vector))
+                continue;
+            final long length = vector.length();
+            // the scores are not probabilities, uniform weights if they can't be normalized
+            final float docWeight = min > 0 ? hit.score / total : 1f / top.length;
+            for (int i = 0; i < vector.size; i++)
+                model.addTo(vector.terms[i], docWeight * vector.freqs[i] / length);
+        }
+        return model;
+    }
+
+    /**
+     * @return the sum over the query terms of the mutual information of their occurrences with the
+     * ones of every term of the top documents, over the top documents and a sample of the others
+     */
+    private static IntFloatHashMap mutualInformation(Vectors vectors, ScoreDoc[] top, List<Term> queryTerms,
+                                                     IndexReader reader, int seed) throws IOException {
+        final ForwardIndex.DocVector vector = new ForwardIndex.DocVector();
+        final List<int[]> docTerms = new ArrayList<>();
+        final IntFloatHashMap candidates = new IntFloatHashMap(1024);
+        final IntFloatHashMap sampled = new IntFloatHashMap(top.length * (RANDOM_DOCS_PER_DOC + 1));
+        for (ScoreDoc hit : top) {
+            sampled.put(hit.doc, 1);
+            if (vectors.read(hit.doc, vector)) {
+                docTerms.add(Arrays.copyOf(vector.terms, vector.size));
+                for (int i = 0; i < vector.size; i++)
+                    candidates.put(vector.terms[i], 0);
+            }
+        }
+        // the sample is the same for every run of the query
+        final Random random = new Random(seed);
+        final Bits liveDocs = MultiFields.getLiveDocs(reader);
+        final int sample = Math.min(top.length * RANDOM_DOCS_PER_DOC, reader.numDocs() - top.length);
+        for (int tries = 0; sampled.size() < top.length + sample && tries < 4 * sample; tries++) {
+            final int doc = random.nextInt(reader.maxDoc());
+            if (sampled.containsKey(doc) || (liveDocs != null && !liveDocs.get(doc)))
+                continue;
+            sampled.put(doc, 1);
+            if (vectors.read(doc, vector))
+                docTerms.add(Arrays.copyOf(vector.terms, vector.size));
+        }
+
+        final int[] queryIds = new int[queryTerms.size()];
+        for (int q = 0; q < queryIds.length; q++)
+            queryIds[q] = vectors.termId(queryTerms.get(q).bytes());
+        final IntFloatHashMap docFreqs = new IntFloatHashMap(candidates.size());
+        final IntFloatHashMap[] coFreqs = new IntFloatHashMap[queryIds.length];
+        final int[] queryDocFreqs = new int[queryIds.length];
+        for (int q = 0; q < queryIds.length; q++)
+            coFreqs[q] = new IntFloatHashMap(candidates.size());
+        for (int[] terms : docTerms) {
+            for (int term : terms) {
+                if (candidates.containsKey(term))
+                    docFreqs.addTo(term, 1);
+            }
+            for (int q = 0; q < queryIds.length; q++) {
+                if (queryIds[q] < 0 || Arrays.binarySearch(terms, queryIds[q]) < 0)
+                    continue;
+                queryDocFreqs[q]++;
+                for (int term : terms) {
+                    if (candidates.containsKey(term))
+                        coFreqs[q].addTo(term, 1);
+                }
+            }
+        }
+
+        final float n = docTerms.size();
+        final IntFloatHashMap scores = new IntFloatHashMap(candidates.size());
+        for (int term : candidates.keys()) {
+            float score = 0;
+            for (int q = 0; q < queryIds.length; q++) {
+                // a query term is not its own expansion
+                if (term == queryIds[q]) {
+                    score = 0;
+                    break;
+                }
+                final float both = coFreqs[q].get(term);
+                final float nq = queryDocFreqs[q];
+                final float nt = docFreqs.get(term);
+                score += mi(both, nq - both, nt - both, n - nq - nt + both, nq, nt, n);
+            }
+            if (score > 0)
+                scores.put(term, score);
+        }
+        return scores;
+    }
+
+    private static float mi(float both, float queryOnly, float termOnly, float neither, float nq, float nt, float n) {
+        return cell(both, nq, nt, n) + cell(queryOnly, nq, n - nt, n)
+                + cell(termOnly, n - nq, nt, n) + cell(neither, n - nq, n - nt, n);
+    }
+
+    private static float cell(float count, float marginal1, float marginal2, float n) {
+        if (count <= 0)
+            return 0;
+        return (float) (count / n * Math.log(count * n / (marginal1 * marginal2)));
+    }
+
+    private ReaderStatistics statistics(IndexSearcher searcher) throws IOException {
+        final IndexReader reader = searcher.getIndexReader();
+        ReaderStatistics stats = statistics.get(reader);
+        if (stats == null) {
+            final CollectionStatistics collection = searcher.collectionStatistics(FIELD);
+            stats = new ReaderStatistics(collection.docCount() < 0 ? reader.maxDoc() : collection.docCount());
+            if (statistics.putIfAbsent(reader, stats) == null) {
+                reader.addReaderClosedListener(new IndexReader.ReaderClosedListener() {
+                    @Override
+                    public void onClose(IndexReader closed) {
+                        statistics.remove(closed);
+                    }
+                });
+            }
+            stats = statistics.get(reader);
+        }
+        return stats;
+    }
+
+    /**
+     * The statistics of the body field and of the terms seen so far, for a reader.
+     */
+    private static final class ReaderStatistics {
+        final long docCount;
+        final ConcurrentHashMap<Term, TermContext> termContexts = new ConcurrentHashMap<>();
+
+        ReaderStatistics(long docCount) {
+            this.docCount = docCount;
+        }
+
+        /**
+         * @return the states of a term in the segments, which the term queries would look up otherwise
+         */
+        TermContext termContext(IndexSearcher searcher, Term term) throws IOException {
+            TermContext context = termContexts.get(term);
+            if (context == null) {
+                context = TermContext.build(searcher.getTopReaderContext(), term);
+                if (termContexts.size() >= MAX_CACHED_TERMS)
+                    termContexts.clear();
+                termContexts.put(term, context);
+            }
+            return context;
+        }
+    }
+
+    /**
+     * Document vectors with term ids.
+     */
+    private interface Vectors {
+        /**
+         * @return false if the document has no vector
+         */
+        boolean read(int doc, ForwardIndex.DocVector into) throws IOException;
+
+        /**
+         * @return the id of a term, or -1 if it is unknown
+         */
+        int termId(BytesRef term) throws IOException;
+
+        BytesRef term(int termId) throws IOException;
+    }
+
+    private static final class ForwardVectors implements Vectors {
+        private final ForwardIndex forward;
+
+        ForwardVectors(ForwardIndex forward) {
+            this.forward = forward;
+        }
+
+        @Override
+        public boolean read(int doc, ForwardIndex.DocVector into) throws IOException {
+            return forward.vector(doc, into).size() > 0;
+        }
+
+        @Override
+        public int termId(BytesRef term) throws IOException {
+            return forward.termId(term);
+        }
+
+        @Override
+        public BytesRef term(int termId) throws IOException {
+            return forward.term(termId);
+        }
+    }
+
+    /**
+     * The term vectors of the index, with the terms numbered as they are first seen.
+     */
+    private static final class TermVectors implements Vectors {
+        private final IndexReader reader;
+        private final BytesRefHash dictionary = new BytesRefHash();
+        private final BytesRef scratch = new BytesRef();
+        private long[] pairs = new long[16];
+
+        TermVectors(IndexReader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        public boolean read(int doc, ForwardIndex.DocVector into) throws IOException {
+            final Terms terms = reader.getTermVector(doc, FIELD);
+            if (terms == null)
+                return false;
+            final TermsEnum termsEnum = terms.iterator();
+            int size = 0;
+            for (BytesRef term = termsEnum.next(); term != null; term = termsEnum.next()) {
+                int id = dictionary.add(term);
+                if (id < 0)
+                    id = -id - 1;
+                if (size == pairs.length)
+                    pairs = Arrays.copyOf(pairs, size * 2);
+                pairs[size++] = (long) id << 32 | termsEnum.totalTermFreq();
+            }
+            // the ids of a vector are sorted
+            Arrays.sort(pairs, 0, size);
+            into.grow(size);
+            for (int i = 0; i < size; i++) {
+                into.terms[i] = (int) (pairs[i] >>> 32);
+                into.freqs[i] = (int) pairs[i];
+            }
+            into.size = size;
+            return size > 0;
+        }
+
+        @Override
+        public int termId(BytesRef term) {
+            return dictionary.find(term);
+        }
+
+        @Override
+        public BytesRef term(int termId) {
+            return dictionary.get(termId, scratch);
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package info.rires.index;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.similarities.Similarity;
+import org.apache.lucene.store.AlreadyClosedException;
+import org.apache.lucene.util.RamUsageEstimator;
+
+/**
+ * LRU cache of search results, in front of {@link Searcher#search(String, int)}.
+ *
+ * Results are keyed on the parsed query, so queries that only differ in case, spacing or in the
+ * forms of the words that are stemmed to the same terms share an entry, on the similarity, by
+ * instance, as the similarities don't compare their parameters, and on the number of hits. The
+ * cache is bounded by both a number of entries and an estimate of the memory held by the results,
+ * the least recently used entries are evicted first.
+ *
+ * Entries belong to the reader they were searched on and are dropped when that reader is closed,
+ * e.g. after a refresh, so a result is never served for another version of the index. The cached
+ * TopDocs are shared and must not be modified.
+ */
+public final class QueryResultCache {
+
+    private static final long SCORE_DOC_BYTES = RamUsageEstimator.shallowSizeOfInstance(ScoreDoc.class)
+            + RamUsageEstimator.NUM_BYTES_OBJECT_REF;
+    private static final long ENTRY_BYTES = RamUsageEstimator.shallowSizeOfInstance(TopDocs.class)
+            + RamUsageEstimator.shallowSizeOfInstance(Key.class) + 64; // the map entry and the query
+
+    private static final class Key {
+        final IndexReader reader;
+        final Query query;
+        final Similarity similarity;
+        final int k;
+        final int hash;
+
+        Key(IndexReader reader, Query query, Similarity similarity, int k) {
+            this.reader = reader;
+            this.query = query;
+            this.similarity = similarity;
+            this.k = k;
+            this.hash = 31 * (31 * (31 * System.identityHashCode(reader) + query.hashCode())
+                    + System.identityHashCode(similarity)) + k;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key))
+                return false;
+            Key other = (Key) o;
+            return reader == other.reader && similarity == other.similarity && k == other.k
+                    && query.equals(other.query);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private final int maxEntries;
+    private final long maxBytes;
+
+    // access ordered, guarded by this
+    private final LinkedHashMap<Key, TopDocs> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes = 0;
+    // the readers whose close is being listened to, guarded by this
+    private final Set<IndexReader> readers = Collections.newSetFromMap(new IdentityHashMap<IndexReader, Boolean>());
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param maxEntries the maximum number of cached results
+     * @param maxBytes   the maximum estimated memory held by the cached results
+     */
+    public QueryResultCache(int maxEntries, long maxBytes) {
+        if (maxEntries < 1 || maxBytes < 1)
+            throw new IllegalArgumentException("the cache needs room for at least one entry");
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return the cached result, or null
+     */
+    public TopDocs get(IndexReader reader, Query query, Similarity similarity, int k) {
+        final TopDocs result;
+        synchronized (this) {
+            result = entries.get(new Key(reader, query, similarity, k));
+        }
+        (result == null ? misses : hits).incrementAndGet();
+        return result;
+    }
+
+    /**
+     * Searches the top k documents of a query, or serves them from the cache.
+     */
+    public TopDocs search(IndexSearcher searcher, Query query, int k) throws IOException {
+        final IndexReader reader = searcher.getIndexReader();
+        final Similarity similarity = searcher.getSimilarity(true);
+        TopDocs hits = get(reader, query, similarity, k);
+        if (hits == null) {
+            hits = searcher.search(query, k);
+            put(reader, query, similarity, k, hits);
+        }
+        return hits;
+    }
+
+    public void put(IndexReader reader, Query query, Similarity similarity, int k, TopDocs result) {
+        final long size = sizeOf(result);
+        if (size > maxBytes)
+            return;
+        final boolean listen;
+        synchronized (this) {
+            listen = readers.add(reader);
+        }
+        if (listen) {
+            // before any entry of the reader is published, so that its close drops them all
+            try {
+                reader.addReaderClosedListener(new IndexReader.ReaderClosedListener() {
+                    @Override
+                    public void onClose(IndexReader closed) {
+                        invalidate(closed);
+                    }
+                });
+            } catch (AlreadyClosedException e) {
+                invalidate(reader);
+                return;
+            }
+        }
+        synchronized (this) {
+            // the reader was closed in the meantime, its entries would never be dropped
+            if (!readers.contains(reader))
+                return;
+            TopDocs previous = entries.put(new Key(reader, query, similarity, k), result);
+            if (previous != null)
+                bytes -= sizeOf(previous);
+            bytes += size;
+            evict();
+        }
+    }
+
+    /**
+     * Drops the results of a reader.
+     */
+    public synchronized void invalidate(IndexReader reader) {
+        readers.remove(reader);
+        for (Iterator<Map.Entry<Key, TopDocs>> it = entries.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<Key, TopDocs> entry = it.next();
+            if (entry.getKey().reader == reader) {
+                bytes -= sizeOf(entry.getValue());
+                it.remove();
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    private void evict() {
+        Iterator<TopDocs> lru = entries.values().iterator();
+        while ((entries.size() > maxEntries || bytes > maxBytes) && lru.hasNext()) {
+            bytes -= sizeOf(lru.next());
+            lru.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    private static long sizeOf(TopDocs result) {
+        return ENTRY_BYTES + RamUsageEstimator.NUM_BYTES_ARRAY_HEADER + result.scoreDocs.length * SCORE_DOC_BYTES;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long ramBytesUsed() {
+        return bytes;
+    }
+
+    public long hits() {
+        return hits.get();
+    }
+
+    public long misses() {
+        return misses.get();
+    }
+
+    public long evictions() {
+        return evictions.get();
+    }
+
+    /**
+     * @return the fraction of lookups that were served from the cache
+     */
+    public double hitRate() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "QueryResultCache(%d entries, %d bytes, %d hits, %d misses, %d evictions, hit rate %.3f)",
+                size(), ramBytesUsed(), hits(), misses(), evictions(), hitRate());
+    }
+}
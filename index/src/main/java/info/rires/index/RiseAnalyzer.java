@@ -0,0 +1,148 @@
+package info.rires.index;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.LowerCaseFilter;
+import org.apache.lucene.analysis.StopFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.en.EnglishAnalyzer;
+import org.apache.lucene.analysis.en.EnglishPossessiveFilter;
+import org.apache.lucene.analysis.en.KStemFilter;
+import org.apache.lucene.analysis.en.PorterStemFilter;
+import org.apache.lucene.analysis.standard.StandardFilter;
+import org.apache.lucene.analysis.standard.StandardTokenizer;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.store.Directory;
+
+/**
+ * The analysis of the body of the documents, at index and at query time: the chain of
+ * {@link EnglishAnalyzer} with a choice of stemmer, porter, krovetz or none, in front of which a
+ * {@link StemCache} shared by the threads keeps the stems of the frequent terms. With the porter
+ * stemmer and the stopwords removed, the terms are the ones of EnglishAnalyzer.
+ *
+ * The stemmer and the stopwords an index was built with are recorded in the data of its commits,
+ * so that its queries are analyzed the same way, see {@link #forIndex}.
+ */
+public final class RiseAnalyzer extends Analyzer {
+
+    public static final String PORTER = "porter";
+    public static final String KROVETZ = "krovetz";
+    public static final String NONE = "none";
+
+    /** The number of entries of the stem cache. */
+    public static final int DEFAULT_STEM_CACHE_SIZE = 1 << 16;
+
+    static final String STEMMER_KEY = "rires.stemmer";
+    static final String STOPWORDS_KEY = "rires.removeStopwords";
+
+    private final String stemmer;
+    private final boolean removeStopwords;
+    private final Function<TokenStream, TokenStream> stemFilter;
+    // null without a stemmer
+    private final StemCache stemCache;
+
+    /**
+     * @param stemmer porter, krovetz or none
+     */
+    public RiseAnalyzer(String stemmer, boolean removeStopwords) {
+        this(stemmer, removeStopwords, DEFAULT_STEM_CACHE_SIZE);
+    }
+
+    /**
+     * @param stemCacheSize the number of entries of the stem cache, 0 stems every token
+     */
+    public RiseAnalyzer(String stemmer, boolean removeStopwords, int stemCacheSize) {
+        if (PORTER.equals(stemmer)) {
+            stemFilter = PorterStemFilter::new;
+        } else if (KROVETZ.equals(stemmer)) {
+            stemFilter = KStemFilter::new;
+        } else if (NONE.equals(stemmer)) {
+            stemFilter = null;
+        } else {
+            throw new IllegalArgumentException("unknown stemmer: " + stemmer + ", expected porter, krovetz or none");
+        }
+        this.stemmer = stemmer;
+        this.removeStopwords = removeStopwords;
+        this.stemCache = stemFilter != null && stemCacheSize > 0 ? new StemCache(stemCacheSize) : null;
+    }
+
+    /**
+     * @return the analyzer an index was built with, the porter stemmer and the stopwords removed for
+     * the indexes that do not record it
+     */
+    public static RiseAnalyzer forIndex(Directory dir) throws IOException {
+        final Map<String, String> data = SegmentInfos.readLatestCommit(dir).getUserData();
+        return new RiseAnalyzer(data.getOrDefault(STEMMER_KEY, PORTER),
+                Boolean.parseBoolean(data.getOrDefault(STOPWORDS_KEY, "true")));
+    }
+
+    /**
+     * Checks that the documents analyzed with this analyzer can be added to an index, which holds
+     * for the indexes built with the same stemmer and stopwords.
+     *
+     * @throws IllegalStateException if the index was built with another analysis
+     */
+    void checkAppendTo(Directory dir) throws IOException {
+        final RiseAnalyzer built = forIndex(dir);
+        if (!built.stemmer.equals(stemmer) || built.removeStopwords != removeStopwords) {
+            throw new IllegalStateException("The index was built with " + built
+                    + ", cannot add documents analyzed with " + this);
+        }
+    }
+
+    /**
+     * @return what the commits of an index built with this analyzer record of it
+     */
+    Map<String, String> commitData() {
+        final Map<String, String> data = new HashMap<>();
+        data.put(STEMMER_KEY, stemmer);
+        data.put(STOPWORDS_KEY, Boolean.toString(removeStopwords));
+        return data;
+    }
+
+    public String getStemmer() {
+        return stemmer;
+    }
+
+    public boolean getRemoveStopwords() {
+        return removeStopwords;
+    }
+
+    /**
+     * @return the hits and misses of the stem cache, or null if there is none
+     */
+    public String getStemCacheStats() {
+        return stemCache == null ? null : stemCache.toString();
+    }
+
+    @Override
+    protected TokenStreamComponents createComponents(String fieldName) {
+        final StandardTokenizer source = new StandardTokenizer();
+        TokenStream result = new StandardFilter(source);
+        result = new EnglishPossessiveFilter(result);
+        result = new LowerCaseFilter(result);
+        if (removeStopwords) {
+            result = new StopFilter(result, EnglishAnalyzer.getDefaultStopSet());
+        }
+        if (stemCache != null) {
+            result = new CachingStemFilter(result, stemCache, stemFilter);
+        } else if (stemFilter != null) {
+            result = stemFilter.apply(result);
+        }
+        return new TokenStreamComponents(source, result);
+    }
+
+    @Override
+    protected TokenStream normalize(String fieldName, TokenStream in) {
+        return new LowerCaseFilter(new StandardFilter(in));
+    }
+
+    @Override
+    public String toString() {
+        return "RiseAnalyzer(" + stemmer + (removeStopwords ? "" : ", stopwords kept") + ")";
+    }
+}
@@ -5,326 +5,839 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.util.zip.GZIPInputStream;
 import java.nio.file.attribute.BasicFileAttributes;
-import java.util.ArrayDeque;
-import java.util.Deque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
-
-import info.rires.document.TrecTextDocIterator;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import info.rires.document.ContentExtractor;
+import info.rires.document.DocumentSource;
+import info.rires.document.DocumentSources;
+import info.rires.document.Gov2Record;
+import info.rires.document.JsoupContentExtractor;
+import info.rires.document.ParallelGZIPInputStream;
+import info.rires.document.WarcRecord;
 import org.apache.commons.cli.*;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.apache.lucene.analysis.CharArraySet;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
-import org.apache.lucene.analysis.en.EnglishAnalyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
+import org.apache.lucene.document.SortedDocValuesField;
 import org.apache.lucene.document.StringField;
 import org.apache.lucene.document.FieldType;
 import org.apache.lucene.index.ConcurrentMergeScheduler;
+import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexOptions;
+import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefBuilder;
+import org.apache.lucene.util.IOUtils;
 
 
 public final class RiseBuildIndex {
     private static final Logger LOG = LogManager.getLogger(RiseBuildIndex.class);
+    private static final int QUEUE_FILES_PER_THREAD = 2;
+    private static final int INFLATE_SEGMENTS_PER_THREAD = 2;
+    private static final double RAM_BUFFER_MB = 512;
+    private static final double MIN_RAM_BUFFER_MB = 64;
+    public static final String SHARD_PREFIX = "shard";
     private final Path indexPath;
     private final Path docDir;
-    private final String docType;
-    private final String stemmer;
-    private final boolean removeStopwords;
+    private final DocumentSource.Factory documentSource;
+    // shared by all the writers, with its stem cache
+    private final RiseAnalyzer analyzer;
+
+    public static final String FIELD_ID = "docno";
+    public static final String FIELD_BODY = LuceneConstants.CONTENTS;
+    // the input file of a document, only indexed when checkpointing
+    public static final String FIELD_SOURCE = "source";
+    public static final String RESPONSE = "response";
+
+    private boolean positions = false;
+    private boolean docVectors = false;
+    private boolean readerBody = false;
+    private ContentExtractor contentExtractor = new JsoupContentExtractor();
+
+    // shared by every document, set up once the options are known
+    private FieldType bodyFieldType;
+
+    private final ThreadLocal<ReusableDocument> reusableDocuments = new ThreadLocal<ReusableDocument>() {
+        @Override
+        protected ReusableDocument initialValue() {
+            return new ReusableDocument(bodyFieldType, readerBody, checkpoint != null);
+        }
+    };
+
+    /**
+     * The document an indexing thread fills in for every record, with its fields. It can only be
+     * reused once the previous record has been added to the index, i.e. on the same thread.
+     */
+    private static final class ReusableDocument {
+        final Document document = new Document();
+        final Field id = new StringField(FIELD_ID, "", Field.Store.YES);
+        // the id again, as doc values, to be looked up without loading the stored fields
+        final Field idValue = new SortedDocValuesField(FIELD_ID, new BytesRef());
+        final BytesRefBuilder idBytes = new BytesRefBuilder();
+        final Field source;
+        final Field body;
+        final CharSequenceReader reader;
+        // the extracted text of the current record
+        final StringBuilder text = new StringBuilder();
+
+        ReusableDocument(FieldType bodyFieldType, boolean readerBody, boolean withSource) {
+            if (readerBody) {
+                reader = new CharSequenceReader();
+                body = new Field(FIELD_BODY, reader, bodyFieldType);
+            } else {
+                reader = null;
+                body = new Field(FIELD_BODY, "", bodyFieldType);
+            }
+            source = withSource ? new StringField(FIELD_SOURCE, "", Field.Store.NO) : null;
+            document.add(id);
+            document.add(idValue);
+            if (source != null) {
+                document.add(source);
+            }
+            document.add(body);
+        }
+
+        Document set(String docId, String sourceFile, CharSequence contents) {
+            id.setStringValue(docId);
+            idBytes.copyChars(docId);
+            idValue.setBytesValue(idBytes.get());
+            if (source != null) {
+                source.setStringValue(sourceFile);
+            }
+            if (reader != null) {
+                reader.reset(contents);
+            } else {
+                body.setStringValue(contents.toString());
+            }
+            return document;
+        }
+    }
+
+    private int shards = 1;
+    private boolean shardBySize = false;
+    private boolean mergeShards = false;
+
+    private int pipelineParsers = 0;
+    private int pipelineWriters = 0;
+    private int inflateThreads = 0;
+    private ExecutorService inflaters;
+
+    private boolean resume = false;
+    private long checkpointMinutes = 0;
+    private IndexCheckpoint checkpoint;
+
+    private List<String> includes = Collections.emptyList();
+    private List<String> excludes = FileDiscovery.DEFAULT_EXCLUDES;
+    private boolean largestFirst = false;
+
+    private boolean forwardIndex = false;
+    private boolean statistics = false;
+
+    private long metricsSeconds = 60;
+    private Path metricsFile;
+    private IndexingMetrics metrics;
+    private IndexingMetrics lastMetrics;
+
+    /**
+     * An input file on its way to the index. The file is checkpointed once the reader is done and
+     * every document it queued in the pipeline has been added.
+     */
+    private final class InputFile {
+        final Path path;
+        // relative to the docs path, as in the manifest and the source field
+        final String name;
+        final long size;
+        final int shard;
+        // the reader holds one until the end of the file
+        private final AtomicInteger pending = new AtomicInteger(1);
+        private volatile int records;
+
+        final Runnable recordDone = new Runnable() {
+            @Override
+            public void run() {
+                release();
+            }
+        };
+
+        InputFile(FileDiscovery.Found file, int shard) {
+            this.path = file.path;
+            this.name = docDir.relativize(path).toString();
+            this.size = file.size;
+            this.shard = shard;
+        }
+
+        void recordQueued() {
+            pending.incrementAndGet();
+        }
+
+        void readDone(int records) {
+            this.records = records;
+            release();
+        }
+
+        private void release() {
+            if (pending.decrementAndGet() == 0 && checkpoint != null) {
+                try {
+                    checkpoint.completed(name, shard, records);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Checkpointing failed after " + name, e);
+                }
+            }
+        }
+    }
 
     private final class IndexerThread extends Thread {
 
         final private Path inputWarcFile;
 
+        final private InputFile input;
+
         final private IndexWriter writer;
 
-        public IndexerThread(IndexWriter writer, Path inputWarcFile) throws IOException {
+        final private IndexingPipeline pipeline;
+
+        public IndexerThread(IndexWriter writer, IndexingPipeline pipeline, InputFile input) throws IOException {
             this.writer = writer;
-            this.inputWarcFile = inputWarcFile;
+            this.pipeline = pipeline;
+            this.input = input;
+            this.inputWarcFile = input.path;
             setName(inputWarcFile.getFileName().toString());
         }
 
         private int indexWarcRecord(WarcRecord warcRecord) throws IOException {
-            // see if it's a response record
-            if (!RESPONSE.equals(warcRecord.type()))
-                return 0;
-
-            String id = warcRecord.id();
-
-            org.jsoup.nodes.Document jDoc;
-            try {
-                jDoc = Jsoup.parse(warcRecord.content());
-            } catch (java.lang.IllegalArgumentException iae) {
-                LOG.error("Parsing document with JSoup failed, skipping document : " + id, iae);
-                System.err.println(id);
+            // in pipeline mode this thread only reads, the parsing is done by the pipeline
+            if (pipeline != null && RESPONSE.equals(warcRecord.type())) {
+                input.recordQueued();
+                pipeline.addRecord(warcRecord, input.name, input.recordDone);
                 return 1;
             }
+            return RiseBuildIndex.this.indexWarcRecord(writer, warcRecord, input.name);
+        }
 
-            String contents = jDoc.text();
-            // don't index empty documents but count them
-            if (contents.trim().length() == 0) {
-                System.err.println(id);
-                return 1;
+        /**
+         * Opens the input file, inflating gzipped files in parallel if enabled. The reads of the
+         * gzipped files are counted and timed as they go, the plain files are counted once read.
+         */
+        private DocumentSource openSource(IndexingMetrics.MeteredInputStream[] inflating) throws IOException {
+            if (!inputWarcFile.getFileName().toString().endsWith(".gz")) {
+                return documentSource.open(inputWarcFile);
+            }
+            InputStream in = metrics.input(Files.newInputStream(inputWarcFile, StandardOpenOption.READ));
+            if (inflaters != null) {
+                in = new ParallelGZIPInputStream(in, inflaters, inflateThreads * INFLATE_SEGMENTS_PER_THREAD);
+            } else {
+                in = new GZIPInputStream(in, Gov2Record.BUFFER_SIZE);
             }
+            inflating[0] = metrics.inflating(in);
+            return documentSource.open(inflating[0]);
+        }
 
-            // make a new, empty document
-            Document document = new Document();
+        @Override
+        public void run() {
+            int addCount = 0;
+            final IndexingMetrics.MeteredInputStream[] inflating = new IndexingMetrics.MeteredInputStream[1];
+            try (DocumentSource source = openSource(inflating)) {
+                while (true) {
+                    // the time to read a record, less the time spent inflating, is the parsing time
+                    final long inflated = inflating[0] == null ? 0 : inflating[0].elapsed();
+                    final long start = System.nanoTime();
+                    final WarcRecord record = source.next();
+                    if (record == null)
+                        break;
+                    metrics.recordRead(System.nanoTime() - start
+                            - (inflating[0] == null ? 0 : inflating[0].elapsed() - inflated));
+                    addCount += indexWarcRecord(record);
+                }
+            } catch (IOException ioe) {
+                LOG.error(Thread.currentThread().getName() + ": ERROR: unexpected IOException:", ioe);
+                return;
+            }
+            if (inflating[0] == null) {
+                metrics.fileRead(input.size);
+            }
+            input.readDone(addCount);
+            System.out.println("./" + inputWarcFile.getParent().getFileName().toString()
+                    + File.separator + inputWarcFile.getFileName().toString() + "\t" + addCount);
+        }
+    }
 
-            // document id
-            document.add(new StringField(FIELD_ID, id, Field.Store.YES));
+    /**
+     * Indexes a record on the calling thread, the way the indexing threads do without a pipeline:
+     * the document of a response record is built in the fields reused by the thread and added.
+     *
+     * @return 1 for a response record, whether it was indexed or skipped, 0 for the other records
+     */
+    int indexWarcRecord(IndexWriter writer, WarcRecord warcRecord, String sourceFile) throws IOException {
+        // see if it's a response record
+        if (!RESPONSE.equals(warcRecord.type())) {
+            metrics.recordSkipped();
+            return 0;
+        }
 
-            FieldType fieldType = new FieldType();
+        Document document = buildDocument(warcRecord, sourceFile, reusableDocuments.get());
+        if (document != null) {
+            final long start = System.nanoTime();
+            writer.addDocument(document);
+            metrics.added(1, System.nanoTime() - start);
+        } else {
+            metrics.recordSkipped();
+        }
+        return 1;
+    }
 
-            // Are we storing document vectors?
-            if (docVectors) {
-                fieldType.setStored(false);
-                fieldType.setStoreTermVectors(true);
-                fieldType.setStoreTermVectorPositions(true);
-            }
+    /**
+     * Builds a new document for a record, for documents that are not added by the thread that
+     * builds them (pipeline mode).
+     */
+    Document buildDocument(WarcRecord warcRecord, String sourceFile) {
+        final Document document = buildDocument(warcRecord, sourceFile, new ReusableDocument(bodyFieldType, readerBody, checkpoint != null));
+        if (document == null) {
+            metrics.recordSkipped();
+        }
+        return document;
+    }
 
-            // Are we building a "positional" or "count" index?
-            if (positions) {
-                fieldType.setIndexOptions(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS);
-            } else {
-                fieldType.setIndexOptions(IndexOptions.DOCS_AND_FREQS);
-            }
+    /**
+     * Extracts the text of a response record and fills in the document to index.
+     *
+     * @return the document, or null if the record cannot be parsed or has no text
+     */
+    private Document buildDocument(WarcRecord warcRecord, String sourceFile, ReusableDocument fields) {
+        String id = warcRecord.id();
+        if (id == null) {
+            LOG.error("Record without an id, skipping document");
+            return null;
+        }
 
-            document.add(new Field(FIELD_BODY, contents, fieldType));
+        // don't decode empty records but count them
+        if (warcRecord.contentLength() == 0) {
+            System.err.println(id);
+            return null;
+        }
 
-            writer.addDocument(document);
-            return 1;
+        // plain text collections are indexed as they are
+        if (!documentSource.html()) {
+            return fields.set(id, sourceFile, warcRecord.contentView());
+        }
 
+        StringBuilder contents = fields.text;
+        contents.setLength(0);
+        final long start = System.nanoTime();
+        try {
+            contentExtractor.extract(warcRecord.contentView(), contents);
+        } catch (java.lang.IllegalArgumentException iae) {
+            LOG.error("Extracting the text failed, skipping document : " + id, iae);
+            System.err.println(id);
+            return null;
+        } finally {
+            metrics.extracted(System.nanoTime() - start);
         }
 
-        private int indexClueWeb12WarcFile() throws IOException {
+        // don't index empty documents but count them
+        if (isBlank(contents)) {
+            System.err.println(id);
+            return null;
+        }
 
-            int i = 0;
+        return fields.set(id, sourceFile, contents);
+    }
 
-            try (DataInputStream inStream = new DataInputStream(new GZIPInputStream(Files.newInputStream(inputWarcFile, StandardOpenOption.READ)))) {
-                // iterate through our stream
-                ClueWeb12WarcRecord wDoc;
-                while ((wDoc = ClueWeb12WarcRecord.readNextWarcRecord(inStream, ClueWeb12WarcRecord.WARC_VERSION)) != null) {
-                    i += indexWarcRecord(wDoc);
-                }
-            }
-            return i;
+    private static boolean isBlank(CharSequence text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) > ' ')
+                return false;
         }
+        return true;
+    }
 
-        private int indexClueWeb09WarcFile() throws IOException {
+    private FieldType newBodyFieldType() {
+        FieldType fieldType = new FieldType();
 
-            int i = 0;
+        // Are we storing document vectors?
+        if (docVectors) {
+            fieldType.setStored(false);
+            fieldType.setStoreTermVectors(true);
+            fieldType.setStoreTermVectorPositions(true);
+        }
 
-            try (DataInputStream inStream = new DataInputStream(new GZIPInputStream(Files.newInputStream(inputWarcFile, StandardOpenOption.READ)))) {
-                // iterate through our stream
-                ClueWeb09WarcRecord wDoc;
-                while ((wDoc = ClueWeb09WarcRecord.readNextWarcRecord(inStream, ClueWeb09WarcRecord.WARC_VERSION)) != null) {
-                    i += indexWarcRecord(wDoc);
-                }
-            }
-            return i;
-        }
-
-        private int indexGov2File() throws IOException {
-            long i = 0;
-            StringBuilder builder = new StringBuilder();
-            boolean found = false;
-            try (
-                InputStream stream = new GZIPInputStream(Files.newInputStream(inputWarcFile, StandardOpenOption.READ),
-                        Gov2Record.BUFFER_SIZE);
-                BufferedReader reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8))) {
-
-                TrecTextDocIterator docs = new TrecTextDocIterator(reader);
-                Document doc;
-                while (docs.hasNext()) {
-                    doc = docs.next();
-                    if (doc != null && doc.getField("contents") != null) {
-                        writer.addDocument(doc);
-                    }
-                }
+        // Are we building a "positional" or "count" index?
+        if (positions) {
+            fieldType.setIndexOptions(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS);
+        } else {
+            fieldType.setIndexOptions(IndexOptions.DOCS_AND_FREQS);
+        }
 
-                for (; ; ) {
-                    String line = reader.readLine();
-                    if (line == null)
-                        break;
+        fieldType.freeze();
+        return fieldType;
+    }
 
-                    line = line.trim();
+    /**
+     * Sets up what the indexing threads share once the options are set. Called by
+     * {@link #indexWithThreads}, and by benchmarks that index records outside of a run.
+     *
+     * @return the metrics of the records indexed from now on
+     */
+    IndexingMetrics prepare() {
+        bodyFieldType = newBodyFieldType();
+        metrics = new IndexingMetrics();
+        return metrics;
+    }
 
-                    if (line.startsWith(Gov2Record.DOC)) {
-                        found = true;
-                        continue;
-                    }
+    /**
+     * @return the metrics of the last indexWithThreads, null before the first one
+     */
+    IndexingMetrics lastMetrics() {
+        return lastMetrics;
+    }
 
-                    if (line.startsWith(Gov2Record.TERMINATING_DOC)) {
-                        found = false;
-                        WarcRecord gov2 = Gov2Record.parseGov2Record(builder);
-                        i += indexWarcRecord(gov2);
-                        builder.setLength(0);
-                    }
+    public int indexWithThreads(int numThreads) throws IOException, InterruptedException {
 
-                    if (found)
-                        builder.append(line).append(" ");
-                }
-            }
+        LOG.info("Indexing with " + numThreads + " threads to directory '" + indexPath.toAbsolutePath() + "'...");
 
-            return i;
+        prepare();
+        metrics.register();
+        if (metricsSeconds > 0) {
+            metrics.startReporting(metricsSeconds, metricsFile);
         }
 
-        @Override
-        public void run() {
-            {
-                try {
-                    if ("clueweb09".equals(docType)) {
-                        int addCount = indexClueWeb09WarcFile();
-                        System.out.println("*./" + inputWarcFile.getParent().getFileName().toString()
-                                + File.separator + inputWarcFile.getFileName().toString() + "  " + addCount);
-                    } else if ("clueweb12".equals(docType)) {
-                        int addCount = indexClueWeb12WarcFile();
-                        System.out.println("./" + inputWarcFile.getParent().getFileName().toString()
-                                + File.separator + inputWarcFile.getFileName().toString() + "\t" + addCount);
-                    } else if ("trecweb".equals(docType)) {
-                        int addCount = indexGov2File();
-                        System.out.println("./" + inputWarcFile.getParent().getFileName().toString()
-                                + File.separator + inputWarcFile.getFileName().toString() + "\t" + addCount);
-                    } else if ("trectext".equals(docType)) {
-                        int addCount = indexGov2File();
-                        System.out.println("./" + inputWarcFile.getParent().getFileName().toString()
-                                + File.separator + inputWarcFile.getFileName().toString() + "\t" + addCount);
-                    }
-                } catch (IOException ioe) {
-                    LOG.error(Thread.currentThread().getName() + ": ERROR: unexpected IOException:", ioe);
-                }
+        if (inflateThreads > 0) {
+            LOG.info("Inflating gzip members with " + inflateThreads + " threads");
+            inflaters = Executors.newFixedThreadPool(inflateThreads);
+        }
+
+        final int numShards = Math.max(1, shards);
+        if (numShards > 1) {
+            LOG.info("Partitioning the files " + (shardBySize ? "by size" : "by hash") + " into " + numShards + " shards");
+        }
+        if (!resume) {
+            // the index is created anew, what was written next to the previous one describes other documents
+            SidecarFiles.deleteDirectory(indexPath.resolve(ForwardIndex.DIRECTORY));
+            SidecarFiles.deleteDirectory(indexPath.resolve(IndexStatistics.DIRECTORY));
+            // and a later resume must not skip the files of a previous run
+            Files.deleteIfExists(indexPath.resolve(IndexCheckpoint.MANIFEST));
+        }
+        final Directory[] dirs = new Directory[numShards];
+        final IndexWriter[] writers = new IndexWriter[numShards];
+        final IndexingPipeline[] pipelines = new IndexingPipeline[numShards];
+        final long[] shardBytes = new long[numShards];
+        for (int shard = 0; shard < numShards; shard++) {
+            dirs[shard] = FSDirectory.open(numShards == 1 ? indexPath : shardPath(shard));
+            writers[shard] = newIndexWriter(dirs[shard], Math.max(MIN_RAM_BUFFER_MB, RAM_BUFFER_MB / numShards),
+                    resume ? IndexWriterConfig.OpenMode.CREATE_OR_APPEND : IndexWriterConfig.OpenMode.CREATE);
+
+            if (pipelineParsers > 0) {
+                int parsers = Math.max(1, pipelineParsers / numShards);
+                int pipelineWriterThreads = Math.max(1, pipelineWriters / numShards);
+                LOG.info("Pipelined indexing with " + parsers + " parser and " + pipelineWriterThreads + " writer threads per shard");
+                pipelines[shard] = new IndexingPipeline(writers[shard], this::buildDocument, metrics, parsers, pipelineWriterThreads);
+                pipelines[shard].start();
             }
         }
-    }
 
-    static Deque<Path> discoverWarcFiles(Path p) {
+        if (resume || checkpointMinutes > 0) {
+            checkpoint = new IndexCheckpoint(indexPath, writers, resume, checkpointMinutes);
+        }
 
-        final Deque<Path> stack = new ArrayDeque<>();
+        // the files are indexed as they are found
+        final FileDiscovery discovery = new FileDiscovery(docDir, includes, excludes, largestFirst).start();
+        metrics.setDiscovery(discovery);
+        final AtomicLong completedFiles = new AtomicLong();
+        long submittedFiles = 0;
+        long skippedFiles = 0;
 
-        FileVisitor<Path> fv = new SimpleFileVisitor<Path>() {
+        // bound the number of files handed to the executor, so that the workers pull the
+        // next file as soon as they are done and the submitting thread blocks in between
+        final int queueSize = numThreads * QUEUE_FILES_PER_THREAD;
+        final Semaphore slots = new Semaphore(queueSize);
 
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(numThreads, numThreads,
+                0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(queueSize)) {
             @Override
-            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-
-                Path name = file.getFileName();
-                if (name != null) {
-                    stack.add(file);
+            protected void afterExecute(Runnable r, Throwable t) {
+                super.afterExecute(r, t);
+                if (t != null) {
+                    LOG.error("Indexing task failed: " + r, t);
+                }
+                slots.release();
+                metrics.fileCompleted();
+                final long completed = completedFiles.incrementAndGet();
+                if (completed % Math.max(1, discovery.found() / 100) == 0) {
+                    LOG.info(metrics.progress());
                 }
-                return FileVisitResult.CONTINUE;
             }
+        };
 
-            @Override
-            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
-                if ("OtherData".equals(dir.getFileName().toString())) {
-                    LOG.info("Skipping: " + dir);
-                    return FileVisitResult.SKIP_SUBTREE;
+        try {
+            for (FileDiscovery.Found file = discovery.take(); file != null; file = discovery.take()) {
+                if (resume && checkpoint.isDone(docDir.relativize(file.path).toString())) {
+                    metrics.fileSkipped(file.size);
+                    skippedFiles++;
+                    continue;
                 }
-                return FileVisitResult.CONTINUE;
+                slots.acquire();
+                final InputFile input = new InputFile(file, shardOf(file, shardBytes));
+                submittedFiles++;
+                if (resume) {
+                    // drop what a previous run committed of this file, from whichever shard it went to
+                    final Term source = new Term(FIELD_SOURCE, input.name);
+                    for (IndexWriter writer : writers) {
+                        writer.deleteDocuments(source);
+                    }
+                }
+                executor.execute(new IndexerThread(writers[input.shard], pipelines[input.shard], input));
+            }
+            // no more files, let the workers drain the queue and terminate
+            LOG.info(discovery.found() + " many files found under the docs path : " + docDir.toString());
+            if (resume) {
+                LOG.info("Resuming, " + skippedFiles + " files were indexed already");
             }
+            executor.shutdown();
+            while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                LOG.info(executor.getActiveCount() + " files are still being indexed");
+            }
+        } catch (InterruptedException ie) {
+            // (Re-)Cancel if current thread also interrupted
+            executor.shutdownNow();
+            // Preserve interrupt status
+            Thread.currentThread().interrupt();
+        }
 
-            @Override
-            public FileVisitResult visitFileFailed(Path file, IOException ioe) {
-                LOG.error("Visiting failed for " + file.toString(), ioe);
-                return FileVisitResult.SKIP_SUBTREE;
+        for (IndexingPipeline pipeline : pipelines) {
+            if (pipeline != null) {
+                pipeline.close();
             }
-        };
+        }
+        if (inflaters != null) {
+            inflaters.shutdownNow();
+            inflaters = null;
+        }
 
+        if (submittedFiles != completedFiles.get())
+            throw new RuntimeException("totalWarcFiles = " + submittedFiles + " is not equal to completedTaskCount =  " + completedFiles.get());
+
+
+        int numIndexed = 0;
         try {
-            Files.walkFileTree(p, fv);
-        } catch (IOException e) {
-            LOG.error("IOException during file visiting", e);
+            if (checkpoint != null) {
+                checkpoint.checkpoint();
+            } else {
+                for (IndexWriter writer : writers) {
+                    writer.commit();
+                }
+            }
+            for (IndexWriter writer : writers) {
+                numIndexed += writer.numDocs();
+            }
+        } finally {
+            for (int shard = 0; shard < numShards; shard++) {
+                writers[shard].close();
+                dirs[shard].close();
+            }
+            checkpoint = null;
+            // after closing the writers, which wait for their merges
+            metrics.close();
+            lastMetrics = metrics;
+            metrics = null;
+        }
+        if (analyzer.getStemCacheStats() != null) {
+            LOG.info("Stem cache: " + analyzer.getStemCacheStats());
         }
-        return stack;
-    }
 
-    public int indexWithThreads(int numThreads) throws IOException, InterruptedException {
+        if (numShards > 1 && mergeShards) {
+            mergeShards(numShards, numThreads);
+        }
 
-        LOG.info("Indexing with " + numThreads + " threads to directory '" + indexPath.toAbsolutePath() + "'...");
+        if (forwardIndex || statistics) {
+            final List<Directory> directories = new ArrayList<>();
+            try (IndexReader reader = Searcher.openReader(indexPath, directories)) {
+                if (forwardIndex) {
+                    LOG.info("Writing the forward index...");
+                    new ForwardIndexWriter().write(reader, FIELD_BODY, indexPath.resolve(ForwardIndex.DIRECTORY));
+                }
+                if (statistics) {
+                    LOG.info("Writing the collection statistics...");
+                    new IndexStatisticsWriter().write(reader, FIELD_BODY, indexPath.resolve(IndexStatistics.DIRECTORY));
+                }
+            } finally {
+                IOUtils.close(directories);
+            }
+        }
 
-        final Directory dir = FSDirectory.open(this.indexPath);
+        return numIndexed;
+    }
 
-        final IndexWriterConfig iwc;
-        if (this.removeStopwords) {
-            iwc = new IndexWriterConfig(new EnglishAnalyzer());
+    IndexWriter newIndexWriter(Directory dir, double ramBufferSizeMB, IndexWriterConfig.OpenMode openMode) throws IOException {
+        final IndexWriterConfig iwc = new IndexWriterConfig(analyzer);
+        iwc.setOpenMode(openMode);
+        iwc.setRAMBufferSizeMB(ramBufferSizeMB);
+        iwc.setUseCompoundFile(false);
+        if (metrics != null) {
+            iwc.setMergeScheduler(metrics.mergeScheduler());
+            iwc.setInfoStream(metrics.infoStream());
         } else {
-            iwc = new IndexWriterConfig(new EnglishAnalyzer(CharArraySet.EMPTY_SET));
+            iwc.setMergeScheduler(new ConcurrentMergeScheduler());
         }
-        iwc.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
-        iwc.setRAMBufferSizeMB(512);
-        iwc.setUseCompoundFile(false);
-        iwc.setMergeScheduler(new ConcurrentMergeScheduler());
 
+        if (openMode != IndexWriterConfig.OpenMode.CREATE && DirectoryReader.indexExists(dir)) {
+            // resuming, the documents already indexed must have been analyzed the same way
+            analyzer.checkAppendTo(dir);
+        }
         final IndexWriter writer = new IndexWriter(dir, iwc);
+        // the searchers analyze the queries the way the index was built
+        writer.setLiveCommitData(analyzer.commitData().entrySet());
+        return writer;
+    }
 
-        final ThreadPoolExecutor executor = (ThreadPoolExecutor) Executors.newFixedThreadPool(numThreads);
-        final Deque<Path> allFiles = discoverWarcFiles(docDir);
+    private Path shardPath(int shard) {
+        return indexPath.resolve(String.format("%s%03d", SHARD_PREFIX, shard));
+    }
 
-        long totalFiles = allFiles.size();
-        LOG.info(totalFiles + " many files found under the docs path : " + docDir.toString());
+    /**
+     * Picks the shard of an input file: the least loaded shard so far when partitioning by size,
+     * otherwise by the hash of the path relative to the docs directory, which is stable across runs.
+     */
+    private int shardOf(FileDiscovery.Found file, long[] shardBytes) {
+        if (shardBytes.length == 1) {
+            return 0;
+        }
+        if (!shardBySize) {
+            return Math.floorMod(docDir.relativize(file.path).toString().hashCode(), shardBytes.length);
+        }
+        int shard = 0;
+        for (int i = 1; i < shardBytes.length; i++) {
+            if (shardBytes[i] < shardBytes[shard]) {
+                shard = i;
+            }
+        }
+        shardBytes[shard] += file.size;
+        return shard;
+    }
 
-        for (int i = 0; i < 2000; i++) {
-            if (!allFiles.isEmpty())
-                executor.execute(new IndexerThread(writer, allFiles.removeFirst()));
-            else {
-                if (!executor.isShutdown()) {
-                    Thread.sleep(30000);
-                    executor.shutdown();
+    /**
+     * Merges the shards into a single index in the index directory, copying their segments
+     * concurrently, and removes them.
+     */
+    private void mergeShards(int numShards, int numThreads) throws IOException, InterruptedException {
+        LOG.info("Merging " + numShards + " shards into '" + indexPath.toAbsolutePath() + "'...");
+
+        try (Directory dir = FSDirectory.open(indexPath)) {
+            // a resumed run may add its shards to the index merged by the previous one
+            final IndexWriter writer = newIndexWriter(dir, RAM_BUFFER_MB,
+                    resume ? IndexWriterConfig.OpenMode.CREATE_OR_APPEND : IndexWriterConfig.OpenMode.CREATE);
+            final ExecutorService executor = Executors.newFixedThreadPool(Math.min(numShards, numThreads));
+            try {
+                final List<Future<Void>> merges = new ArrayList<>();
+                for (int shard = 0; shard < numShards; shard++) {
+                    final Path shardPath = shardPath(shard);
+                    merges.add(executor.submit(new Callable<Void>() {
+                        @Override
+                        public Void call() throws IOException {
+                            try (Directory shardDir = FSDirectory.open(shardPath)) {
+                                writer.addIndexes(shardDir);
+                            }
+                            return null;
+                        }
+                    }));
+                }
+                for (Future<Void> merge : merges) {
+                    try {
+                        merge.get();
+                    } catch (ExecutionException ee) {
+                        throw new IOException("Merging a shard failed", ee.getCause());
+                    }
                 }
-                break;
+                writer.commit();
+            } finally {
+                executor.shutdownNow();
+                writer.close();
             }
         }
 
-        long first = 0;
-        //add some delay to let some threads spawn by scheduler
-        Thread.sleep(30000);
+        for (int shard = 0; shard < numShards; shard++) {
+            deleteRecursively(shardPath(shard));
+        }
+    }
 
-        try {
-            // Wait for existing tasks to terminate
-            while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+    private static void deleteRecursively(Path path) throws IOException {
+        Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
 
-                final long completedTaskCount = executor.getCompletedTaskCount();
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                if (e != null) {
+                    throw e;
+                }
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
 
-                LOG.info(String.format("%.2f percentage completed", (double) completedTaskCount / totalFiles * 100.0d));
+    /**
+     * Index positions, needed for phrase and proximity queries, rather than only frequencies.
+     */
+    public void setPositions(boolean positions) {
+        this.positions = positions;
+    }
 
-                if (!allFiles.isEmpty())
-                    for (long i = first; i < completedTaskCount; i++) {
-                        if (!allFiles.isEmpty())
-                            executor.execute(new IndexerThread(writer, allFiles.removeFirst()));
-                        else {
-                            if (!executor.isShutdown())
-                                executor.shutdown();
-                        }
-                    }
+    /**
+     * Store the term vectors of the document bodies.
+     */
+    public void setDocVectors(boolean docVectors) {
+        this.docVectors = docVectors;
+    }
 
-                first = completedTaskCount;
-                Thread.sleep(1000);
-            }
-        } catch (InterruptedException ie) {
-            // (Re-)Cancel if current thread also interrupted
-            executor.shutdownNow();
-            // Preserve interrupt status
-            Thread.currentThread().interrupt();
-        }
+    /**
+     * Hand the body text to the index writer through a reused Reader rather than as a String
+     * field value.
+     */
+    public void setReaderBody(boolean readerBody) {
+        this.readerBody = readerBody;
+    }
 
-        if (totalFiles != executor.getCompletedTaskCount())
-            throw new RuntimeException("totalWarcFiles = " + totalFiles + " is not equal to completedTaskCount =  " + executor.getCompletedTaskCount());
+    /**
+     * How the text is extracted from the html of web records.
+     *
+     * @param name "jsoup" (default) for the accurate DOM based extraction, "fast" for the streaming tag stripper
+     */
+    public void setContentExtractor(String name) {
+        this.contentExtractor = ContentExtractor.forName(name);
+    }
 
+    /**
+     * Build the index as independent shards, each with its own IndexWriter and directory
+     * (shard000, shard001, ... in the index directory), so that flushes and merges are not
+     * funneled through a single writer.
+     *
+     * @param numShards the number of shards, 1 builds a single index
+     * @param bySize    partition the files so that the shards get the same number of bytes,
+     *                  rather than by the hash of their path
+     * @param merge     merge the shards into a single index at the end, otherwise they are kept
+     *                  for sharded search
+     */
+    public void setShards(int numShards, boolean bySize, boolean merge) {
+        this.shards = numShards;
+        this.shardBySize = bySize;
+        this.mergeShards = merge;
+    }
 
-        int numIndexed = writer.maxDoc();
+    /**
+     * Index through a staged pipeline: the indexing threads only decompress and split the input
+     * files, while parsing and adding the documents to the index is spread over separate pools,
+     * so that a few large files do not leave the other cores idle.
+     *
+     * @param parseThreads number of threads turning records into documents, 0 disables the pipeline
+     * @param writeThreads number of threads adding documents to the index
+     */
+    public void setPipeline(int parseThreads, int writeThreads) {
+        this.pipelineParsers = parseThreads;
+        this.pipelineWriters = writeThreads;
+    }
 
-        try {
-            writer.commit();
-        } finally {
-            writer.close();
-        }
+    /**
+     * Inflate the members of multi-member gzip files (ClueWeb) on a shared pool instead of on the
+     * indexing thread, so that a single large file is not held to the speed of one core.
+     *
+     * @param threads number of inflating threads, 0 reads the files through a plain GZIPInputStream
+     */
+    public void setParallelInflate(int threads) {
+        this.inflateThreads = threads;
+    }
 
-        return numIndexed;
+    /**
+     * Commit the index every few minutes and keep a manifest of the files whose documents are
+     * committed ({@link IndexCheckpoint#MANIFEST} in the index directory), so that an interrupted
+     * run can be resumed. The documents get an indexed source field for that.
+     *
+     * @param minutes the minimum time between two checkpoints, 0 only commits at the end
+     */
+    public void setCheckpoint(long minutes) {
+        this.checkpointMinutes = minutes;
+    }
+
+    /**
+     * Resume an interrupted run: open the existing index in append mode and skip the files listed
+     * in its checkpoint manifest. The options must be the same as the ones of the interrupted
+     * run, which must have been checkpointing.
+     */
+    public void setResume(boolean resume) {
+        this.resume = resume;
+    }
+
+    /**
+     * Which input files are indexed, by glob patterns: a pattern without a '/' is matched against
+     * the names of the files and directories, any other against their path relative to the docs
+     * directory. See {@link FileDiscovery}.
+     *
+     * @param includes the files to index, all of them if empty
+     * @param excludes the files and directories to skip, by default ClueWeb's OtherData directories
+     */
+    public void setInputFilter(List<String> includes, List<String> excludes) {
+        this.includes = includes;
+        this.excludes = excludes;
+    }
+
+    /**
+     * Index the largest input files found so far first, rather than in the order of the directory
+     * walk, so that the longest files don't start last.
+     */
+    public void setLargestFirst(boolean largestFirst) {
+        this.largestFirst = largestFirst;
+    }
+
+    /**
+     * Write a {@link ForwardIndex} of the document bodies once the index is complete, in the
+     * {@link ForwardIndex#DIRECTORY} of the index. It is rewritten by every run with this option,
+     * deleted by the others that create the index and left stale by the ones that resume it, which
+     * the searchers notice.
+     */
+    public void setForwardIndex(boolean forwardIndex) {
+        this.forwardIndex = forwardIndex;
+    }
+
+    /**
+     * Write the {@link IndexStatistics} of the document bodies once the index is complete, in the
+     * {@link IndexStatistics#DIRECTORY} of the index, for feature extraction. They are deleted by
+     * the runs without this option that create the index, and left stale by the ones that resume it.
+     */
+    public void setStatistics(boolean statistics) {
+        this.statistics = statistics;
+    }
+
+    /**
+     * Report the {@link IndexingMetrics} of the build as a json line in the log every few
+     * seconds. They are also available through JMX while the build runs.
+     *
+     * @param seconds the time between two reports, 0 disables them
+     * @param file    a file the reports are also appended to, or null
+     */
+    public void setMetrics(long seconds, Path file) {
+        this.metricsSeconds = seconds;
+        this.metricsFile = file;
     }
 
     public RiseBuildIndex(String docsPath, String indexPath, String docType, String stemmer, boolean removeStopwords) throws IOException {
@@ -339,12 +852,24 @@ public final class RiseBuildIndex {
             System.exit(1);
         }
 
-        this.docType = docType;
-        this.stemmer = stemmer;
-        this.removeStopwords = removeStopwords;
+        this.documentSource = DocumentSources.get(docType);
+        this.analyzer = new RiseAnalyzer(stemmer, removeStopwords);
+    }
+
+    /**
+     * @return the comma separated glob patterns
+     */
+    private static List<String> globs(String patterns) {
+        List<String> globs = new ArrayList<>();
+        for (String glob : patterns.split(",")) {
+            if (!glob.trim().isEmpty()) {
+                globs.add(glob.trim());
+            }
+        }
+        return globs;
     }
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException, InterruptedException {
         String indexDir = "/Users/yizhang/Index";
         String dataDir = "/Users/yizhang/Data";
         Indexer indexer;
@@ -408,7 +933,7 @@ public final class RiseBuildIndex {
                 .build() );
         options.addOption( Option.builder("f")
                 .longOpt( "format" )
-                .desc( "the format of the inputs: \ntrectext(for trec1,2,3,6,7,8 robust04)\ntrecweb(for wt2g, gov2)\nclueweb09\nclueweb12" )
+                .desc( "the format of the inputs: \ntrectext(for trec1,2,3,6,7,8 robust04)\ntrecweb(for wt2g, gov2)\nclueweb09\nclueweb12\nor any other format registered with DocumentSources" )
                 .required(true)
                 .hasArg()
                 .argName("FORMAT")
@@ -416,7 +941,7 @@ public final class RiseBuildIndex {
         options.addOption( "r", "remdove-stopwords", true, "whether to remove stopwords, default [true]" );
         options.addOption( Option.builder("s")
                 .longOpt("stemmer")
-                .desc( "type of the stemmer" )
+                .desc( "the stemmer: porter (default), krovetz or none" )
                 .required(false)
                 .hasArg()
                 .argName("STEMMER")
@@ -429,34 +954,173 @@ public final class RiseBuildIndex {
                 .argName("NUM_THREADS")
                 .build() );
 
+        options.addOption( Option.builder("p")
+                .longOpt( "pipeline" )
+                .desc( "parse and add the documents in separate thread pools, so that a single input file can use all the threads" )
+                .required(false)
+                .build() );
+
+        options.addOption( Option.builder("z")
+                .longOpt( "inflateThreads" )
+                .desc( "number of threads inflating the members of multi-member gzip inputs (clueweb09, clueweb12), default [0] inflates on the indexing threads" )
+                .required(false)
+                .hasArg()
+                .argName("INFLATE_THREADS")
+                .build() );
+
+        options.addOption( Option.builder()
+                .longOpt( "positions" )
+                .desc( "index term positions" )
+                .required(false)
+                .build() );
+        options.addOption( Option.builder()
+                .longOpt( "docVectors" )
+                .desc( "store the term vectors of the documents" )
+                .required(false)
+                .build() );
+        options.addOption( Option.builder()
+                .longOpt( "forwardIndex" )
+                .desc( "write a compact forward index of the documents at the end, for reranking and feedback" )
+                .required(false)
+                .build() );
+        options.addOption( Option.builder()
+                .longOpt( "statistics" )
+                .desc( "write the document lengths and term statistics at the end, for feature extraction" )
+                .required(false)
+                .build() );
+        options.addOption( Option.builder()
+                .longOpt( "readerBody" )
+                .desc( "feed the document bodies to the index writer as a Reader instead of a String" )
+                .required(false)
+                .build() );
+
+        options.addOption( Option.builder("e")
+                .longOpt( "extractor" )
+                .desc( "how the text of web pages is extracted: jsoup (accurate, default) or fast (streaming tag stripper)" )
+                .required(false)
+                .hasArg()
+                .argName("EXTRACTOR")
+                .build() );
+
+        options.addOption( Option.builder()
+                .longOpt( "shards" )
+                .desc( "number of index shards built in parallel, default [1]" )
+                .required(false)
+                .hasArg()
+                .argName("SHARDS")
+                .build() );
+        options.addOption( Option.builder()
+                .longOpt( "shardBy" )
+                .desc( "how the files are partitioned into shards: hash (default) or size" )
+                .required(false)
+                .hasArg()
+                .argName("PARTITION")
+                .build() );
+        options.addOption( Option.builder()
+                .longOpt( "mergeShards" )
+                .desc( "merge the shards into a single index at the end" )
+                .required(false)
+                .build() );
+
+        options.addOption( Option.builder()
+                .longOpt( "include" )
+                .desc( "comma separated glob patterns of the input files to index, matched against the file name, or the path under the docs path if they have a '/', default all the files" )
+                .required(false)
+                .hasArg()
+                .argName("GLOBS")
+                .build() );
+        options.addOption( Option.builder()
+                .longOpt( "exclude" )
+                .desc( "comma separated glob patterns of the input files and directories to skip, default [" + String.join(",", FileDiscovery.DEFAULT_EXCLUDES) + "]" )
+                .required(false)
+                .hasArg()
+                .argName("GLOBS")
+                .build() );
+        options.addOption( Option.builder()
+                .longOpt( "largestFirst" )
+                .desc( "index the largest input files first, rather than in directory order" )
+                .required(false)
+                .build() );
+
+        options.addOption( Option.builder()
+                .longOpt( "metrics" )
+                .desc( "log a json snapshot of the throughput and per-stage times of the build every that many seconds, default [60], 0 disables them" )
+                .required(false)
+                .hasArg()
+                .argName("SECONDS")
+                .build() );
+        options.addOption( Option.builder()
+                .longOpt( "metricsFile" )
+                .desc( "also append the metrics snapshots to this file, one json object per line" )
+                .required(false)
+                .hasArg()
+                .argName("FILE")
+                .build() );
+
+        options.addOption( Option.builder()
+                .longOpt( "checkpoint" )
+                .desc( "commit the index and update its checkpoint manifest at most every that many minutes, so that the run can be resumed, default [0] (no checkpoints)" )
+                .required(false)
+                .hasArg()
+                .argName("MINUTES")
+                .build() );
+        options.addOption( Option.builder()
+                .longOpt( "resume" )
+                .desc( "resume an interrupted, checkpointed run: append to its index and skip the files it completed" )
+                .required(false)
+                .build() );
+
         // automatically generate the help statement
         HelpFormatter formatter = new HelpFormatter();
-        formatter.printHelp( "RiseBuildIndex", options );
 
+        CommandLine line;
         try {
             // parse the command line arguments
-            CommandLine line = parser.parse( options, args );
+            line = parser.parse( options, args );
         }
         catch( ParseException exp ) {
             System.out.println( "Unexpected exception:" + exp.getMessage() );
+            formatter.printHelp( "RiseBuildIndex", options );
+            return;
         }
 
-        final long start = System.nanoTime();
-        /*IndexWebCollection indexer = new IndexWebCollection(indexArgs.input, indexArgs.index, indexArgs.collection);
-
-        indexer.setDocVectors(indexArgs.docvectors);
-        indexer.setPositions(indexArgs.positions);
-        indexer.setOptimize(indexArgs.optimize);
-        indexer.setDocLimit(indexArgs.doclimit);
+        final int numThreads = Integer.parseInt(line.getOptionValue("n",
+                String.valueOf(Runtime.getRuntime().availableProcessors())));
 
-        LOG.info("Index path: " + indexArgs.index);
-        LOG.info("Threads: " + indexArgs.threads);
-        LOG.info("Doc limit: " + (indexArgs.doclimit == -1 ? "all docs" : "" + indexArgs.doclimit));
+        final long start = System.nanoTime();
+        RiseBuildIndex builder = new RiseBuildIndex(line.getOptionValue("i"), line.getOptionValue("o"),
+                line.getOptionValue("f"), line.getOptionValue("s", "porter"),
+                Boolean.parseBoolean(line.getOptionValue("r", "true")));
+        if (line.hasOption("p")) {
+            builder.setPipeline(numThreads, numThreads);
+        }
+        builder.setPositions(line.hasOption("positions"));
+        builder.setDocVectors(line.hasOption("docVectors"));
+        builder.setForwardIndex(line.hasOption("forwardIndex"));
+        builder.setStatistics(line.hasOption("statistics"));
+        builder.setReaderBody(line.hasOption("readerBody"));
+        builder.setContentExtractor(line.getOptionValue("e", "jsoup"));
+        builder.setShards(Integer.parseInt(line.getOptionValue("shards", "1")),
+                "size".equals(line.getOptionValue("shardBy", "hash")), line.hasOption("mergeShards"));
+        builder.setParallelInflate(Integer.parseInt(line.getOptionValue("z", "0")));
+        builder.setInputFilter(globs(line.getOptionValue("include", "")),
+                globs(line.getOptionValue("exclude", String.join(",", FileDiscovery.DEFAULT_EXCLUDES))));
+        builder.setLargestFirst(line.hasOption("largestFirst"));
+        builder.setMetrics(Long.parseLong(line.getOptionValue("metrics", "60")),
+                line.hasOption("metricsFile") ? Paths.get(line.getOptionValue("metricsFile")) : null);
+        builder.setResume(line.hasOption("resume"));
+        builder.setCheckpoint(Long.parseLong(line.getOptionValue("checkpoint", line.hasOption("resume") ? "10" : "0")));
+
+        LOG.info("Index path: " + line.getOptionValue("o"));
+        LOG.info("Threads: " + numThreads);
 
         LOG.info("Indexer: start");
 
-        int numIndexed = indexer.indexWithThreads(indexArgs.threads);
+        int numIndexed = builder.indexWithThreads(numThreads);
         final long durationMillis = TimeUnit.MILLISECONDS.convert(System.nanoTime() - start, TimeUnit.NANOSECONDS);
-        LOG.info("Total " + numIndexed + " documents indexed in " + DurationFormatUtils.formatDuration(durationMillis, "HH:mm:ss"));*/
+        LOG.info("Total " + numIndexed + " documents indexed in " + String.format("%02d:%02d:%02d",
+                TimeUnit.MILLISECONDS.toHours(durationMillis),
+                TimeUnit.MILLISECONDS.toMinutes(durationMillis) % 60,
+                TimeUnit.MILLISECONDS.toSeconds(durationMillis) % 60));
     }
 }
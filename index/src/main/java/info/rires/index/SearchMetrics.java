@@ -0,0 +1,279 @@
+package info.rires.index;
+
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.MatchNoDocsQuery;
+import org.apache.lucene.search.PhraseQuery;
+import org.apache.lucene.search.Query;
+
+/**
+ * Latencies of the searches of a searcher, in {@link LatencyHistogram}s by phase: parsing the
+ * query, searching it, and fetching the ids or stored fields of the hits. The search phase is also
+ * broken down by similarity and by query length, the number of terms of the parsed query, as it
+ * is the one that depends on them.
+ *
+ * Queries whose parsing and search take longer than a threshold are logged as slow queries, and
+ * the most recent ones kept. Everything can be read as json or, once {@link #register registered},
+ * through JMX.
+ */
+public final class SearchMetrics implements SearchMetricsMBean {
+    private static final Logger LOG = LogManager.getLogger(SearchMetrics.class);
+
+    public static final long DEFAULT_SLOW_QUERY_MILLIS = 1000;
+
+    /** The queries with at least that many terms share a histogram. */
+    static final int MAX_QUERY_LENGTH = 8;
+
+    private static final int SLOW_QUERY_LOG_SIZE = 128;
+
+    private final LatencyHistogram parse = new LatencyHistogram();
+    private final LatencyHistogram search = new LatencyHistogram();
+    private final LatencyHistogram fetch = new LatencyHistogram();
+    private final Map<String, LatencyHistogram> bySimilarity = new ConcurrentHashMap<>();
+    private final LatencyHistogram[] byLength = new LatencyHistogram[MAX_QUERY_LENGTH + 1];
+
+    private volatile long slowQueryNanos = DEFAULT_SLOW_QUERY_MILLIS * 1_000_000;
+    private final AtomicLong slowQueries = new AtomicLong();
+    private final AtomicReferenceArray<String> slowQueryLog = new AtomicReferenceArray<>(SLOW_QUERY_LOG_SIZE);
+
+    private ObjectName registered;
+
+    public SearchMetrics() {
+        for (int i = 0; i < byLength.length; i++) {
+            byLength[i] = new LatencyHistogram();
+        }
+    }
+
+    void parsed(long nanos) {
+        parse.record(nanos);
+    }
+
+    /**
+     * Records the search of a query, and logs it if it is slow.
+     *
+     * @param text       the text the query was parsed from, null if it was not parsed by the searcher
+     * @param parseNanos the parsing time, 0 if it was not parsed by the searcher
+     */
+    void searched(String similarity, Query query, String text, long parseNanos, long searchNanos, long totalHits) {
+        final int length = queryLength(query);
+        search.record(searchNanos);
+        byLength[Math.min(length, MAX_QUERY_LENGTH)].record(searchNanos);
+        LatencyHistogram histogram = bySimilarity.get(similarity);
+        if (histogram == null) {
+            histogram = bySimilarity.computeIfAbsent(similarity, s -> new LatencyHistogram());
+        }
+        histogram.record(searchNanos);
+
+        if (parseNanos + searchNanos >= slowQueryNanos) {
+            final String entry = String.format(Locale.ROOT,
+                    "{\"time\":%d,\"query\":%s,\"similarity\":%s,\"length\":%d,\"parseMs\":%.3f,\"searchMs\":%.3f,\"totalHits\":%d}",
+                    System.currentTimeMillis(), Json.quote(text != null ? text : query.toString()),
+                    Json.quote(similarity), length, parseNanos / 1e6, searchNanos / 1e6, totalHits);
+            slowQueryLog.set((int) (slowQueries.getAndIncrement() % SLOW_QUERY_LOG_SIZE), entry);
+            LOG.warn("Slow query: " + entry);
+        }
+    }
+
+    /**
+     * Records the lookup of the ids or stored fields of hits.
+     */
+    void fetched(long nanos) {
+        fetch.record(nanos);
+    }
+
+    /**
+     * @return the number of terms of a query, counting the terms of phrases and of every clause of
+     * boolean queries, 1 for the other queries
+     */
+    static int queryLength(Query query) {
+        if (query instanceof BooleanQuery) {
+            int length = 0;
+            for (BooleanClause clause : ((BooleanQuery) query).clauses()) {
+                length += queryLength(clause.getQuery());
+            }
+            return length;
+        }
+        if (query instanceof BoostQuery)
+            return queryLength(((BoostQuery) query).getQuery());
+        if (query instanceof PhraseQuery)
+            return ((PhraseQuery) query).getTerms().length;
+        if (query instanceof MatchNoDocsQuery)
+            return 0;
+        return 1;
+    }
+
+    public LatencyHistogram getParseLatency() {
+        return parse;
+    }
+
+    public LatencyHistogram getSearchLatency() {
+        return search;
+    }
+
+    public LatencyHistogram getFetchLatency() {
+        return fetch;
+    }
+
+    /**
+     * Registers the metrics on the platform MBean server, replacing the ones registered under the
+     * same name.
+     *
+     * @param name the name of the searcher, e.g. its index path
+     */
+    public void register(String name) {
+        try {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName objectName = new ObjectName("info.rires.index:type=SearchMetrics,name=" + ObjectName.quote(name));
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(new StandardMBean(this, SearchMetricsMBean.class), objectName);
+            registered = objectName;
+        } catch (JMException e) {
+            LOG.error("Registering the search metrics failed", e);
+        }
+    }
+
+    public void unregister() {
+        if (registered == null)
+            return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(registered);
+        } catch (JMException e) {
+            LOG.error("Unregistering the search metrics failed", e);
+        }
+        registered = null;
+    }
+
+    @Override
+    public long getQueries() {
+        return search.count();
+    }
+
+    @Override
+    public double getSearchP50Millis() {
+        return search.percentile(0.5) / 1e6;
+    }
+
+    @Override
+    public double getSearchP99Millis() {
+        return search.percentile(0.99) / 1e6;
+    }
+
+    @Override
+    public double getSearchP999Millis() {
+        return search.percentile(0.999) / 1e6;
+    }
+
+    @Override
+    public double getParseP99Millis() {
+        return parse.percentile(0.99) / 1e6;
+    }
+
+    @Override
+    public double getFetchP99Millis() {
+        return fetch.percentile(0.99) / 1e6;
+    }
+
+    @Override
+    public long getSlowQueryMillis() {
+        return slowQueryNanos / 1_000_000;
+    }
+
+    /**
+     * @param millis the parsing and search time from which queries are logged as slow, 0 logs them all
+     */
+    @Override
+    public void setSlowQueryMillis(long millis) {
+        this.slowQueryNanos = millis * 1_000_000;
+    }
+
+    @Override
+    public long getSlowQueries() {
+        return slowQueries.get();
+    }
+
+    @Override
+    public String getSnapshot() {
+        final StringBuilder json = new StringBuilder(1024);
+        json.append("{\"parse\":").append(parse.toJson())
+                .append(",\"search\":").append(search.toJson())
+                .append(",\"fetch\":").append(fetch.toJson())
+                .append(",\"bySimilarity\":{");
+        boolean first = true;
+        for (Map.Entry<String, LatencyHistogram> e : new TreeMap<>(bySimilarity).entrySet()) {
+            if (!first)
+                json.append(',');
+            json.append(Json.quote(e.getKey())).append(':').append(e.getValue().toJson());
+            first = false;
+        }
+        json.append("},\"byQueryLength\":{");
+        first = true;
+        for (int i = 0; i < byLength.length; i++) {
+            if (byLength[i].count() == 0)
+                continue;
+            if (!first)
+                json.append(',');
+            json.append('"').append(i).append(i == MAX_QUERY_LENGTH ? "+" : "").append("\":").append(byLength[i].toJson());
+            first = false;
+        }
+        return json.append("},\"slowQueries\":").append(slowQueries.get()).append('}').toString();
+    }
+
+    @Override
+    public String getSlowQueryLog() {
+        final long count = slowQueries.get();
+        final StringBuilder json = new StringBuilder("[");
+        // oldest first
+        for (long i = Math.max(0, count - SLOW_QUERY_LOG_SIZE); i < count; i++) {
+            final String entry = slowQueryLog.get((int) (i % SLOW_QUERY_LOG_SIZE));
+            if (entry == null)
+                continue;
+            if (json.length() > 1)
+                json.append(",\n");
+            json.append(entry);
+        }
+        return json.append(']').toString();
+    }
+
+    @Override
+    public void reset() {
+        parse.reset();
+        search.reset();
+        fetch.reset();
+        bySimilarity.clear();
+        for (LatencyHistogram histogram : byLength) {
+            histogram.reset();
+        }
+        slowQueries.set(0);
+        for (int i = 0; i < SLOW_QUERY_LOG_SIZE; i++) {
+            slowQueryLog.set(i, null);
+        }
+    }
+
+    /**
+     * @return the median, 99th and 99.9th percentile latencies of the searches
+     */
+    @Override
+    public String toString() {
+        final long[] p = search.percentiles(0.5, 0.99, 0.999);
+        return String.format(Locale.ROOT, "%d searches, latency p50 %.2f ms, p99 %.2f ms, p999 %.2f ms, %d slow",
+                search.count(), p[0] / 1e6, p[1] / 1e6, p[2] / 1e6, slowQueries.get());
+    }
+}
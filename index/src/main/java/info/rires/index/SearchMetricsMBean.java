@@ -0,0 +1,37 @@
+package info.rires.index;
+
+/**
+ * The JMX view of the {@link SearchMetrics} of a searcher. The latencies are in milliseconds.
+ */
+public interface SearchMetricsMBean {
+
+    long getQueries();
+
+    double getSearchP50Millis();
+
+    double getSearchP99Millis();
+
+    double getSearchP999Millis();
+
+    double getParseP99Millis();
+
+    double getFetchP99Millis();
+
+    long getSlowQueryMillis();
+
+    void setSlowQueryMillis(long millis);
+
+    long getSlowQueries();
+
+    /**
+     * @return the latency histograms as a json object
+     */
+    String getSnapshot();
+
+    /**
+     * @return the most recent slow queries as a json array
+     */
+    String getSlowQueryLog();
+
+    void reset();
+}
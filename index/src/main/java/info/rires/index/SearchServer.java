@@ -0,0 +1,469 @@
+package info.rires.index;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.cli.*;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ReferenceManager;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.similarities.Similarity;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+
+/**
+ * Resident search server, so that the JVM start, the opening of the index and the warming of the
+ * page cache are paid once rather than for every search.
+ *
+ * The readers are kept open by a {@link SearcherManager} (or a {@link ShardSearcherManager} for an
+ * index built with shards and not merged) and reopened every few seconds when a new commit of the
+ * index shows up, every new searcher running the warmup queries before it serves any search.
+ * Queries are taken over HTTP:
+ * <pre>
+ * GET /search?q=QUERY[&amp;k=10]   the top k documents, as json, k at most {@link #setMaxK max k}
+ * GET /refresh                   reopen the index now if it changed
+ * GET /stats                     the version of the index being searched, the cache statistics and the latencies
+ * GET /slowQueries               the most recent slow queries
+ * </pre>
+ * The latencies of the searches are recorded in {@link SearchMetrics}, also registered on the
+ * platform MBean server.
+ */
+public final class SearchServer {
+    private static final Logger LOG = LogManager.getLogger(SearchServer.class);
+
+    private static final int DEFAULT_K = LuceneConstants.MAX_SEARCH;
+    private static final int WARMUP_K = 100;
+    /** The default bound of k, the depth of the runs. */
+    private static final int DEFAULT_MAX_K = BatchSearch.RUN_DEPTH;
+
+    private final List<Directory> directories = new ArrayList<>();
+    private final ReferenceManager<IndexSearcher> searcherManager;
+    private final Similarity similarity = Searcher.newSimilarity();
+    // the analysis the index was built with
+    private final RiseAnalyzer analyzer;
+    private final List<String> warmupQueries;
+    private final QueryResultCache resultCache;
+    private final SearchMetrics metrics = new SearchMetrics();
+    private ExecutorService segmentExecutor;
+    private ScheduledExecutorService refresher;
+    private HttpServer httpServer;
+    private int maxK = DEFAULT_MAX_K;
+
+    private final ThreadLocal<QueryParser> queryParsers = new ThreadLocal<QueryParser>() {
+        @Override
+        protected QueryParser initialValue() {
+            return Searcher.newQueryParser(analyzer);
+        }
+    };
+
+    /**
+     * Opens the index and warms it up.
+     *
+     * @param segmentThreads number of threads searching the segments of a query concurrently, 1 for serial search
+     * @param warmupQueries  queries run on every new searcher before it is used
+     * @param resultCache    cache of the search results, or null
+     */
+    public SearchServer(Path indexPath, int segmentThreads, List<String> warmupQueries, QueryResultCache resultCache)
+            throws IOException {
+        this.warmupQueries = warmupQueries;
+        this.resultCache = resultCache;
+        // before the first searcher is warmed up
+        this.analyzer = Searcher.openAnalyzer(indexPath);
+        if (segmentThreads > 1) {
+            segmentExecutor = Executors.newFixedThreadPool(segmentThreads, daemonThreads("segment-search-"));
+        }
+
+        final SearcherFactory searcherFactory = new SearcherFactory() {
+            @Override
+            public IndexSearcher newSearcher(IndexReader reader, IndexReader previousReader) throws IOException {
+                IndexSearcher searcher = segmentExecutor != null
+                        ? new SlicedIndexSearcher(reader, segmentExecutor) : new IndexSearcher(reader);
+                searcher.setSimilarity(similarity);
+                warm(searcher);
+                return searcher;
+            }
+        };
+
+        Directory dir = FSDirectory.open(indexPath);
+        directories.add(dir);
+        if (DirectoryReader.indexExists(dir)) {
+            searcherManager = new SearcherManager(dir, searcherFactory);
+        } else {
+            directories.clear();
+            dir.close();
+            for (Path shardPath : Searcher.shardPaths(indexPath)) {
+                directories.add(FSDirectory.open(shardPath));
+            }
+            searcherManager = new ShardSearcherManager(directories, searcherFactory);
+        }
+        metrics.register(indexPath.toString());
+    }
+
+    private void warm(IndexSearcher searcher) {
+        if (warmupQueries.isEmpty())
+            return;
+        final long start = System.nanoTime();
+        for (String q : warmupQueries) {
+            try {
+                searcher.search(queryParsers.get().parse(q), WARMUP_K);
+            } catch (Exception e) {
+                LOG.error("Warmup query failed: " + q, e);
+            }
+        }
+        LOG.info(String.format("Ran %d warmup queries in %d ms", warmupQueries.size(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+    }
+
+    /**
+     * Checks for a new commit of the index every so many seconds and searches it once it is warm.
+     */
+    public void startRefresh(long seconds) {
+        if (seconds <= 0)
+            return;
+        refresher = Executors.newSingleThreadScheduledExecutor(daemonThreads("index-refresh-"));
+        refresher.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    searcherManager.maybeRefresh();
+                } catch (Exception e) {
+                    LOG.error("Reopening the index failed", e);
+                }
+            }
+        }, seconds, seconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * @return the lines of the json array of the hits
+     */
+    public String search(String q, int k) throws IOException, org.apache.lucene.queryparser.classic.ParseException {
+        final long parseStart = System.nanoTime();
+        final Query query = queryParsers.get().parse(q);
+        final long parseNanos = System.nanoTime() - parseStart;
+        metrics.parsed(parseNanos);
+        final IndexSearcher searcher = searcherManager.acquire();
+        try {
+            final long start = System.nanoTime();
+            TopDocs hits = resultCache == null ? searcher.search(query, k) : resultCache.search(searcher, query, k);
+            final long fetchStart = System.nanoTime();
+            metrics.searched(similarity.toString(), query, q, parseNanos, fetchStart - start, hits.totalHits);
+            StringBuilder json = new StringBuilder(64 + hits.scoreDocs.length * 48);
+            json.append("{\"query\":").append(Json.quote(q))
+                    .append(",\"totalHits\":").append(hits.totalHits)
+                    .append(",\"hits\":[");
+            String[] docnos = new DocnoLookup(searcher.getIndexReader()).docnos(hits.scoreDocs);
+            metrics.fetched(System.nanoTime() - fetchStart);
+            for (int i = 0; i < hits.scoreDocs.length; i++) {
+                if (i > 0)
+                    json.append(',');
+                json.append("\n{\"docno\":").append(Json.quote(docnos[i]))
+                        .append(",\"score\":").append(hits.scoreDocs[i].score).append('}');
+            }
+            json.append("],\"tookMs\":").append(String.format(Locale.ROOT, "%.3f", (System.nanoTime() - start) / 1e6)).append("}\n");
+            return json.toString();
+        } finally {
+            searcherManager.release(searcher);
+        }
+    }
+
+    private String stats() throws IOException {
+        final IndexSearcher searcher = searcherManager.acquire();
+        try {
+            IndexReader reader = searcher.getIndexReader();
+            StringBuilder json = new StringBuilder("{");
+            json.append("\"numDocs\":").append(reader.numDocs())
+                    .append(",\"segments\":").append(reader.leaves().size());
+            if (reader instanceof DirectoryReader)
+                json.append(",\"version\":").append(((DirectoryReader) reader).getVersion());
+            if (resultCache != null)
+                json.append(",\"cache\":").append(Json.quote(resultCache.toString()));
+            json.append(",\"latency\":").append(metrics.getSnapshot());
+            return json.append("}\n").toString();
+        } finally {
+            searcherManager.release(searcher);
+        }
+    }
+
+    /**
+     * Serves the searches over HTTP on the given address, with a pool of request threads.
+     */
+    public void serve(InetSocketAddress address, int numThreads) throws IOException {
+        httpServer = HttpServer.create(address, 0);
+        httpServer.setExecutor(Executors.newFixedThreadPool(numThreads, daemonThreads("search-")));
+        httpServer.createContext("/search", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                Map<String, String> params = parameters(exchange.getRequestURI().getRawQuery());
+                String q = params.get("q");
+                if (q == null || q.trim().isEmpty()) {
+                    respond(exchange, 400, "{\"error\":\"missing q\"}\n");
+                    return;
+                }
+                try {
+                    int k = params.containsKey("k") ? Integer.parseInt(params.get("k")) : Math.min(DEFAULT_K, maxK);
+                    if (k <= 0 || k > maxK) {
+                        respond(exchange, 400, "{\"error\":\"k must be between 1 and " + maxK + "\"}\n");
+                        return;
+                    }
+                    respond(exchange, 200, search(q, k));
+                } catch (NumberFormatException | org.apache.lucene.queryparser.classic.ParseException e) {
+                    respond(exchange, 400, "{\"error\":" + Json.quote(e.getMessage()) + "}\n");
+                } catch (RuntimeException | IOException e) {
+                    LOG.error("Search failed: " + q, e);
+                    respond(exchange, 500, "{\"error\":" + Json.quote(String.valueOf(e)) + "}\n");
+                }
+            }
+        });
+        httpServer.createContext("/refresh", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    searcherManager.maybeRefreshBlocking();
+                    respond(exchange, 200, stats());
+                } catch (RuntimeException | IOException e) {
+                    LOG.error("Reopening the index failed", e);
+                    respond(exchange, 500, "{\"error\":" + Json.quote(String.valueOf(e)) + "}\n");
+                }
+            }
+        });
+        httpServer.createContext("/stats", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                respond(exchange, 200, stats());
+            }
+        });
+        httpServer.createContext("/slowQueries", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                respond(exchange, 200, metrics.getSlowQueryLog() + "\n");
+            }
+        });
+        httpServer.start();
+        LOG.info("Serving searches on " + httpServer.getAddress());
+    }
+
+    public InetSocketAddress getAddress() {
+        return httpServer.getAddress();
+    }
+
+    /**
+     * @param maxK the largest k a search can ask for, the searches asking for more are refused
+     */
+    public void setMaxK(int maxK) {
+        this.maxK = maxK;
+    }
+
+    public SearchMetrics getMetrics() {
+        return metrics;
+    }
+
+    public void close() throws IOException {
+        metrics.unregister();
+        if (httpServer != null) {
+            httpServer.stop(0);
+            ((ExecutorService) httpServer.getExecutor()).shutdown();
+        }
+        if (refresher != null)
+            refresher.shutdownNow();
+        searcherManager.close();
+        if (segmentExecutor != null)
+            segmentExecutor.shutdown();
+        for (Directory dir : directories)
+            dir.close();
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static Map<String, String> parameters(String rawQuery) throws UnsupportedEncodingException {
+        Map<String, String> params = new HashMap<>();
+        if (rawQuery == null)
+            return params;
+        for (String pair : rawQuery.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0)
+                params.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"), URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+        }
+        return params;
+    }
+
+    private static ThreadFactory daemonThreads(final String prefix) {
+        return new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, prefix + count.getAndIncrement());
+                t.setDaemon(true);
+                return t;
+            }
+        };
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        CommandLineParser parser = new DefaultParser();
+
+        Options options = new Options();
+        options.addOption( Option.builder("i")
+                .longOpt( "index" )
+                .desc( "the path to the index" )
+                .required(true)
+                .hasArg()
+                .argName("INDEX")
+                .build() );
+        options.addOption( Option.builder()
+                .longOpt( "host" )
+                .desc( "the address to listen on, default [127.0.0.1]" )
+                .required(false)
+                .hasArg()
+                .argName("HOST")
+                .build() );
+        options.addOption( Option.builder()
+                .longOpt( "port" )
+                .desc( "the port to listen on, default [8080]" )
+                .required(false)
+                .hasArg()
+                .argName("PORT")
+                .build() );
+        options.addOption( Option.builder("n")
+                .longOpt( "numThreads" )
+                .desc( "number of requests served in parallel" )
+                .required(false)
+                .hasArg()
+                .argName("NUM_THREADS")
+                .build() );
+        options.addOption( Option.builder()
+                .longOpt( "segmentThreads" )
+                .desc( "number of threads searching the segments of each query concurrently, default [1]" )
+                .required(false)
+                .hasArg()
+                .argName("SEGMENT_THREADS")
+                .build() );
+        options.addOption( Option.builder()
+                .longOpt( "warmup" )
+                .desc( "a TREC topics file whose titles are searched by every new searcher before it is used" )
+                .required(false)
+                .hasArg()
+                .argName("TOPICS")
+                .build() );
+        options.addOption( Option.builder()
+                .longOpt( "refresh" )
+                .desc( "check for a new commit of the index every that many seconds, default [60], 0 only on /refresh" )
+                .required(false)
+                .hasArg()
+                .argName("SECONDS")
+                .build() );
+        options.addOption( Option.builder()
+                .longOpt( "cacheEntries" )
+                .desc( "cache up to that many results, default [0] (no cache)" )
+                .required(false)
+                .hasArg()
+                .argName("ENTRIES")
+                .build() );
+        options.addOption( Option.builder()
+                .longOpt( "cacheMB" )
+                .desc( "memory bound of the result cache in MB, default [256]" )
+                .required(false)
+                .hasArg()
+                .argName("MB")
+                .build() );
+        options.addOption( Option.builder()
+                .longOpt( "slowQueryMillis" )
+                .desc( "log the queries whose parsing and search take at least that many ms, default [" + SearchMetrics.DEFAULT_SLOW_QUERY_MILLIS + "]" )
+                .required(false)
+                .hasArg()
+                .argName("MILLIS")
+                .build() );
+        options.addOption( Option.builder()
+                .longOpt( "maxK" )
+                .desc( "the largest number of results a search can ask for, default [" + DEFAULT_MAX_K + "]" )
+                .required(false)
+                .hasArg()
+                .argName("K")
+                .build() );
+
+        HelpFormatter formatter = new HelpFormatter();
+
+        CommandLine line;
+        try {
+            line = parser.parse( options, args );
+        }
+        catch( ParseException exp ) {
+            System.out.println( "Unexpected exception:" + exp.getMessage() );
+            formatter.printHelp( "SearchServer", options );
+            return;
+        }
+
+        List<String> warmupQueries = new ArrayList<>();
+        if (line.hasOption("warmup")) {
+            for (String title : TrecTopics.read(Paths.get(line.getOptionValue("warmup")), "title").values())
+                warmupQueries.add(QueryParser.escape(title));
+        }
+        QueryResultCache cache = null;
+        final int cacheEntries = Integer.parseInt(line.getOptionValue("cacheEntries", "0"));
+        if (cacheEntries > 0) {
+            cache = new QueryResultCache(cacheEntries, Long.parseLong(line.getOptionValue("cacheMB", "256")) << 20);
+        }
+
+        final long start = System.nanoTime();
+        final SearchServer server = new SearchServer(Paths.get(line.getOptionValue("i")),
+                Integer.parseInt(line.getOptionValue("segmentThreads", "1")), warmupQueries, cache);
+        server.getMetrics().setSlowQueryMillis(Long.parseLong(line.getOptionValue("slowQueryMillis",
+                String.valueOf(SearchMetrics.DEFAULT_SLOW_QUERY_MILLIS))));
+        server.setMaxK(Integer.parseInt(line.getOptionValue("maxK", String.valueOf(DEFAULT_MAX_K))));
+        server.startRefresh(Long.parseLong(line.getOptionValue("refresh", "60")));
+        server.serve(new InetSocketAddress(line.getOptionValue("host", "127.0.0.1"),
+                        Integer.parseInt(line.getOptionValue("port", "8080"))),
+                Integer.parseInt(line.getOptionValue("n", String.valueOf(Runtime.getRuntime().availableProcessors()))));
+        System.out.println(String.format("Serving %s on http://%s/search?q= (ready in %d ms)",
+                line.getOptionValue("i"), server.getAddress().toString().replaceFirst("^[^/]*/", ""),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                try {
+                    server.close();
+                } catch (IOException e) {
+                    LOG.error("Closing the index failed", e);
+                }
+            }
+        });
+        // the request threads are daemons, keep the JVM up until it is stopped
+        Thread.currentThread().join();
+    }
+}
@@ -2,14 +2,28 @@ package info.rires.index;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import org.apache.lucene.analysis.en.EnglishAnalyzer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.CorruptIndexException;
+import org.apache.lucene.index.IndexFormatTooOldException;
+import org.apache.lucene.index.IndexNotFoundException;
+import org.apache.lucene.index.MultiReader;
 import org.apache.lucene.queryparser.classic.ParseException;
 import org.apache.lucene.queryparser.classic.QueryParser;
 import org.apache.lucene.search.IndexSearcher;
@@ -19,40 +33,404 @@ import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.TopDocs;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.IOUtils;
 import org.apache.lucene.util.Version;
 
 public class Searcher {
+    private static final Logger LOG = LogManager.getLogger(Searcher.class);
 
     IndexReader reader;
     IndexSearcher indexSearcher;
     Similarity simfn;
     QueryParser queryParser;
     Query query;
+    // searches the segments of a query concurrently, null for serial search
+    private ExecutorService segmentExecutor;
+    private volatile QueryResultCache resultCache;
+    private final DocnoLookup docnoLookup;
+    // the forward index of the documents, null if there is none or it is stale
+    private final ForwardIndex forwardIndex;
+    // the collection statistics of the documents, null if there are none or they are stale
+    private final IndexStatistics indexStatistics;
+    private volatile PseudoRelevanceFeedback feedback;
+    private final SearchMetrics metrics = new SearchMetrics();
+    // the analysis the index was built with
+    private final RiseAnalyzer analyzer;
+    // the directories of the reader, closed with it
+    private final List<Directory> directories = new ArrayList<>();
+
+    // QueryParser is not thread-safe, every searching thread parses with its own
+    private final ThreadLocal<QueryParser> queryParsers = new ThreadLocal<QueryParser>() {
+        @Override
+        protected QueryParser initialValue() {
+            return newQueryParser(analyzer);
+        }
+    };
 
     public Searcher(String indexDirectoryPath)
             throws IOException{
-        Directory d = FSDirectory.open(Paths.get(indexDirectoryPath));
-        reader = DirectoryReader.open(d);
-        indexSearcher = new IndexSearcher(reader);
-        simfn = new AxiomaticF3LOG(0.25f, 2);
+        this(indexDirectoryPath, 1);
+    }
+
+    /**
+     * @param searchThreads number of threads searching the segments of a query concurrently,
+     *                      1 searches them one after another on the calling thread
+     */
+    public Searcher(String indexDirectoryPath, int searchThreads)
+            throws IOException{
+        final Path indexPath = Paths.get(indexDirectoryPath);
+        ForwardIndex forward = null;
+        IndexStatistics stats = null;
+        boolean success = false;
+        try {
+            reader = openReader(indexPath, directories);
+            analyzer = openAnalyzer(indexPath);
+            docnoLookup = new DocnoLookup(reader);
+            forward = openForwardIndex(indexPath, reader);
+            stats = openIndexStatistics(indexPath, reader);
+            success = true;
+        } finally {
+            if (!success) {
+                IOUtils.closeWhileHandlingException(stats, forward, reader);
+                IOUtils.closeWhileHandlingException(directories);
+            }
+        }
+        forwardIndex = forward;
+        indexStatistics = stats;
+        if (searchThreads > 1) {
+            segmentExecutor = Executors.newFixedThreadPool(searchThreads, new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "segment-search-" + count.getAndIncrement());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            indexSearcher = new SlicedIndexSearcher(reader, segmentExecutor);
+        } else {
+            indexSearcher = new IndexSearcher(reader);
+        }
+        simfn = newSimilarity();
         indexSearcher.setSimilarity(simfn);
-        queryParser = new QueryParser(
+        queryParser = newQueryParser(analyzer);
+    }
+
+    /**
+     * The scoring function of the searchers.
+     */
+    static Similarity newSimilarity() {
+        return new AxiomaticF3LOG(0.25f, 2);
+    }
+
+    /**
+     * A parser analyzing the queries the way the body of the documents is indexed.
+     */
+    static QueryParser newQueryParser(RiseAnalyzer analyzer) {
+        return new QueryParser(
                 LuceneConstants.CONTENTS,
-                new EnglishAnalyzer());
+                analyzer);
+    }
+
+    /**
+     * @return the analyzer an index, or its first shard for an index built with shards and not
+     * merged, was built with
+     */
+    static RiseAnalyzer openAnalyzer(Path indexPath) throws IOException {
+        try (Directory d = FSDirectory.open(indexPath)) {
+            if (DirectoryReader.indexExists(d)) {
+                return RiseAnalyzer.forIndex(d);
+            }
+        }
+        final List<Path> shards = shardPaths(indexPath);
+        try (Directory d = FSDirectory.open(shards.get(0))) {
+            return RiseAnalyzer.forIndex(d);
+        }
+    }
+
+    /**
+     * Opens the index, or all the shards of an index built with shards and not merged.
+     *
+     * @param directories receives the directories the reader reads from, to be closed after it
+     */
+    static IndexReader openReader(Path indexPath, List<Directory> directories) throws IOException {
+        Directory d = FSDirectory.open(indexPath);
+        if (DirectoryReader.indexExists(d)) {
+            directories.add(d);
+            return DirectoryReader.open(d);
+        }
+        d.close();
+
+        List<Path> shardPaths = shardPaths(indexPath);
+        IndexReader[] shards = new IndexReader[shardPaths.size()];
+        boolean success = false;
+        try {
+            for (int i = 0; i < shards.length; i++) {
+                d = FSDirectory.open(shardPaths.get(i));
+                directories.add(d);
+                shards[i] = DirectoryReader.open(d);
+            }
+            success = true;
+        } finally {
+            if (!success) {
+                IOUtils.closeWhileHandlingException(shards);
+            }
+        }
+        return new MultiReader(shards, true);
+    }
+
+    /**
+     * Opens the forward index of an index, if it has one that is up to date.
+     *
+     * @return the forward index, or null
+     */
+    static ForwardIndex openForwardIndex(Path indexPath, IndexReader reader) throws IOException {
+        final Path path = indexPath.resolve(ForwardIndex.DIRECTORY);
+        if (!Files.exists(path.resolve(ForwardIndex.META))) {
+            return null;
+        }
+        final ForwardIndex forward;
+        try {
+            forward = ForwardIndex.open(path);
+        } catch (IndexFormatTooOldException e) {
+            LOG.warn("Ignoring the forward index written by an older version, rebuild it: " + e.getMessage());
+            return null;
+        }
+        if (!forward.isCurrent(reader)) {
+            LOG.warn("Ignoring the forward index of " + forward.maxDoc() + " documents, written for another version of the index");
+            forward.close();
+            return null;
+        }
+        return forward;
+    }
+
+    /**
+     * Opens the collection statistics of an index, if it has ones that are up to date.
+     *
+     * @return the statistics, or null
+     */
+    static IndexStatistics openIndexStatistics(Path indexPath, IndexReader reader) throws IOException {
+        final Path path = indexPath.resolve(IndexStatistics.DIRECTORY);
+        if (!Files.exists(path.resolve(IndexStatistics.META))) {
+            return null;
+        }
+        final IndexStatistics stats;
+        try {
+            stats = IndexStatistics.open(path);
+        } catch (IndexFormatTooOldException e) {
+            LOG.warn("Ignoring the statistics written by an older version, rebuild them: " + e.getMessage());
+            return null;
+        }
+        if (!stats.isCurrent(reader)) {
+            LOG.warn("Ignoring the statistics of " + stats.maxDoc() + " documents, written for another version of the index");
+            stats.close();
+            return null;
+        }
+        return stats;
+    }
+
+    /**
+     * @return the shards of an index built with shards and not merged, in order
+     * @throws IndexNotFoundException if there are none
+     */
+    static List<Path> shardPaths(Path indexPath) throws IOException {
+        List<Path> shardPaths = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(indexPath, RiseBuildIndex.SHARD_PREFIX + "*")) {
+            for (Path shardPath : stream) {
+                shardPaths.add(shardPath);
+            }
+        }
+        if (shardPaths.isEmpty()) {
+            throw new IndexNotFoundException("no index or index shards found in " + indexPath);
+        }
+        Collections.sort(shardPaths);
+        return shardPaths;
     }
 
     public TopDocs search(String searchQuery)
             throws IOException, ParseException{
+        final long start = System.nanoTime();
         query = queryParser.parse(searchQuery);
-        return indexSearcher.search(query, LuceneConstants.MAX_SEARCH);
+        final long parseNanos = System.nanoTime() - start;
+        metrics.parsed(parseNanos);
+        return search(query, LuceneConstants.MAX_SEARCH, searchQuery, parseNanos);
+    }
+
+    /**
+     * Parses a query with the parser of the calling thread, safe to call concurrently.
+     */
+    public Query parse(String searchQuery) throws ParseException {
+        final long start = System.nanoTime();
+        final Query parsed = queryParsers.get().parse(searchQuery);
+        metrics.parsed(System.nanoTime() - start);
+        return parsed;
+    }
+
+    /**
+     * Searches the top k documents, unlike {@link #search(String)} it is safe to call from several
+     * threads at once.
+     */
+    public TopDocs search(String searchQuery, int k)
+            throws IOException, ParseException {
+        final long start = System.nanoTime();
+        final Query parsed = parse(searchQuery);
+        return search(parsed, k, searchQuery, System.nanoTime() - start);
+    }
+
+    /**
+     * Searches the top k documents of a parsed query, through the result cache if there is one.
+     * With feedback, the query is searched a first time for the feedback documents, and the
+     * expanded query is searched for the top k.
+     */
+    public TopDocs search(Query parsedQuery, int k) throws IOException {
+        return search(parsedQuery, k, null, 0);
+    }
+
+    /**
+     * Searches a query and records its latency, as one search whether or not it is expanded.
+     */
+    private TopDocs search(Query parsedQuery, int k, String text, long parseNanos) throws IOException {
+        final long start = System.nanoTime();
+        final TopDocs hits = searchExpanded(parsedQuery, k);
+        metrics.searched(indexSearcher.getSimilarity(true).toString(), parsedQuery, text, parseNanos,
+                System.nanoTime() - start, hits.totalHits);
+        return hits;
+    }
+
+    private TopDocs searchExpanded(Query parsedQuery, int k) throws IOException {
+        final PseudoRelevanceFeedback fb = feedback;
+        if (fb == null) {
+            return searchOnce(parsedQuery, k);
+        }
+        final TopDocs firstPass = searchOnce(parsedQuery, fb.getFeedbackDocs());
+        return searchOnce(fb.expand(indexSearcher, parsedQuery, firstPass, forwardIndex), k);
+    }
+
+    /**
+     * @return the query expanded with the feedback documents of its first search, or the query
+     * itself if there is no feedback
+     */
+    public Query expand(Query parsedQuery) throws IOException {
+        final PseudoRelevanceFeedback fb = feedback;
+        if (fb == null) {
+            return parsedQuery;
+        }
+        return fb.expand(indexSearcher, parsedQuery, searchOnce(parsedQuery, fb.getFeedbackDocs()), forwardIndex);
+    }
+
+    private TopDocs searchOnce(Query parsedQuery, int k) throws IOException {
+        final QueryResultCache cache = resultCache;
+        return cache == null ? indexSearcher.search(parsedQuery, k) : cache.search(indexSearcher, parsedQuery, k);
+    }
+
+    /**
+     * Expand the queries with pseudo-relevance feedback.
+     *
+     * @param feedback the feedback, null to search the queries as they are
+     * @throws IllegalStateException if the index has neither a forward index that is up to date nor
+     *                               term vectors, to read the feedback documents from
+     */
+    public void setFeedback(PseudoRelevanceFeedback feedback) {
+        if (feedback != null && !PseudoRelevanceFeedback.hasVectors(reader, forwardIndex)) {
+            throw new IllegalStateException("The feedback reads the documents from the forward index or the term vectors,"
+                    + " the index has neither: build it with --forwardIndex or --docVectors");
+        }
+        this.feedback = feedback;
+    }
+
+    public PseudoRelevanceFeedback getFeedback() {
+        return feedback;
+    }
+
+    /**
+     * @return the forward index of the documents, or null if the index has none that is up to date
+     */
+    public ForwardIndex getForwardIndex() {
+        return forwardIndex;
+    }
+
+    /**
+     * @return the collection statistics sidecar, or null if the index has none that is up to date
+     */
+    public IndexStatistics getIndexStatistics() {
+        return indexStatistics;
+    }
+
+    /**
+     * Serve repeated searches from a result cache, which may be shared by several searchers.
+     *
+     * @param cache the cache, null to search every time
+     */
+    public void setResultCache(QueryResultCache cache) {
+        this.resultCache = cache;
+    }
+
+    public QueryResultCache getResultCache() {
+        return resultCache;
+    }
+
+    /**
+     * @return the analysis of the queries, the one of the index
+     */
+    public RiseAnalyzer getAnalyzer() {
+        return analyzer;
+    }
+
+    /**
+     * @return the latencies of the parsing, searches and fetches of this searcher
+     */
+    public SearchMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return the external id of a document, from the doc values of the id
+     */
+    public String getDocno(int doc) throws IOException {
+        final long start = System.nanoTime();
+        final String docno = docnoLookup.docno(doc);
+        metrics.fetched(System.nanoTime() - start);
+        return docno;
+    }
+
+    /**
+     * @return the external ids of the hits, in the order of the hits
+     */
+    public String[] getDocnos(ScoreDoc[] hits) throws IOException {
+        final long start = System.nanoTime();
+        final String[] docnos = docnoLookup.docnos(hits);
+        metrics.fetched(System.nanoTime() - start);
+        return docnos;
+    }
+
+    /**
+     * @return the internal id of the document with the given external id, or -1 if it is not in the index
+     */
+    public int getInternalId(String docno) throws IOException {
+        return docnoLookup.internalId(docno);
     }
 
     public Document getDocument(ScoreDoc scoreDoc)
             throws CorruptIndexException, IOException{
-        return indexSearcher.doc(scoreDoc.doc);
+        final long start = System.nanoTime();
+        final Document document = indexSearcher.doc(scoreDoc.doc);
+        metrics.fetched(System.nanoTime() - start);
+        return document;
     }
 
     public void close() throws IOException{
+        metrics.unregister();
+        if (segmentExecutor != null) {
+            segmentExecutor.shutdown();
+        }
+        if (forwardIndex != null) {
+            forwardIndex.close();
+        }
+        if (indexStatistics != null) {
+            indexStatistics.close();
+        }
         reader.close();
+        IOUtils.close(directories);
     }
 }
\ No newline at end of file
@@ -0,0 +1,102 @@
+package info.rires.index;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+
+/*
+Single query latency with serial and with concurrent segment search.
+Runs the topics one at a time, over a few rounds after a warm up round, through a serial Searcher
+and through Searchers searching the segments on 2, 4, ... threads up to the given count, and
+prints the mean, median and 95th percentile latency of each.
+
+usage: SegmentSearchComparison [-rounds N] [-threads N] [-k K] [-field title|desc] index topics
+ */
+public final class SegmentSearchComparison {
+
+    private SegmentSearchComparison() {
+    }
+
+    /**
+     * @return the latencies in nanoseconds of all the searches after the warm up round
+     */
+    private static long[] measure(Searcher searcher, List<String> queries, int rounds, int k)
+            throws IOException, ParseException {
+        long[] latencies = new long[rounds * queries.size()];
+        int n = 0;
+        // the first round warms up
+        for (int round = 0; round <= rounds; round++) {
+            for (String query : queries) {
+                long start = System.nanoTime();
+                searcher.search(query, k);
+                long elapsed = System.nanoTime() - start;
+                if (round > 0)
+                    latencies[n++] = elapsed;
+            }
+        }
+        return latencies;
+    }
+
+    private static void print(String name, long[] latencies) {
+        Arrays.sort(latencies);
+        double mean = 0;
+        for (long l : latencies)
+            mean += l;
+        mean /= latencies.length;
+        System.out.println(String.format("%-10s mean %8.2f ms  p50 %8.2f ms  p95 %8.2f ms",
+                name, mean / 1e6, latencies[latencies.length / 2] / 1e6,
+                latencies[(int) Math.min(latencies.length - 1, Math.ceil(latencies.length * 0.95) - 1)] / 1e6));
+    }
+
+    public static void main(String[] args) throws IOException, ParseException {
+        int rounds = 5;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int k = BatchSearch.RUN_DEPTH;
+        String field = "title";
+        List<String> paths = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if ("-rounds".equals(args[i]))
+                rounds = Integer.parseInt(args[++i]);
+            else if ("-threads".equals(args[i]))
+                threads = Integer.parseInt(args[++i]);
+            else if ("-k".equals(args[i]))
+                k = Integer.parseInt(args[++i]);
+            else if ("-field".equals(args[i]))
+                field = args[++i];
+            else
+                paths.add(args[i]);
+        }
+        if (paths.size() != 2) {
+            System.out.println("usage: SegmentSearchComparison [-rounds N] [-threads N] [-k K] [-field title|desc] index topics");
+            return;
+        }
+
+        List<String> queries = new ArrayList<>();
+        for (Map.Entry<String, String> topic : TrecTopics.read(Paths.get(paths.get(1)), field).entrySet())
+            queries.add(QueryParser.escape(topic.getValue()));
+
+        Searcher serial = new Searcher(paths.get(0));
+        try {
+            System.out.println(queries.size() + " queries, " + serial.reader.leaves().size() + " segments in "
+                    + SlicedIndexSearcher.groupSlices(serial.reader.leaves()).length + " slices, top " + k);
+            print("serial", measure(serial, queries, rounds, k));
+        } finally {
+            serial.close();
+        }
+
+        for (int t = 2; t <= threads; t *= 2) {
+            Searcher parallel = new Searcher(paths.get(0), t);
+            try {
+                print(t + " threads", measure(parallel, queries, rounds, k));
+            } finally {
+                parallel.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package info.rires.index;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexReaderContext;
+import org.apache.lucene.index.MultiReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ReferenceManager;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.store.Directory;
+
+/**
+ * {@link SearcherManager} for an index built with shards and not merged: searches a MultiReader
+ * over one DirectoryReader per shard and, on refresh, only reopens the shards that changed.
+ */
+final class ShardSearcherManager extends ReferenceManager<IndexSearcher> {
+
+    private final SearcherFactory searcherFactory;
+
+    ShardSearcherManager(List<Directory> shards, SearcherFactory searcherFactory) throws IOException {
+        this.searcherFactory = searcherFactory;
+        DirectoryReader[] readers = new DirectoryReader[shards.size()];
+        try {
+            for (int i = 0; i < readers.length; i++) {
+                readers[i] = DirectoryReader.open(shards.get(i));
+            }
+            current = newSearcher(readers, null);
+        } finally {
+            // the MultiReader holds its own reference
+            for (DirectoryReader reader : readers) {
+                if (reader != null) {
+                    reader.decRef();
+                }
+            }
+        }
+    }
+
+    @Override
+    protected IndexSearcher refreshIfNeeded(IndexSearcher referenceToRefresh) throws IOException {
+        final IndexReader previous = referenceToRefresh.getIndexReader();
+        // the direct children of the MultiReader are the shards
+        final List<IndexReaderContext> shards = previous.getContext().children();
+        final DirectoryReader[] readers = new DirectoryReader[shards.size()];
+        final boolean[] reopened = new boolean[readers.length];
+        boolean changed = false;
+        try {
+            for (int i = 0; i < readers.length; i++) {
+                DirectoryReader shard = (DirectoryReader) shards.get(i).reader();
+                DirectoryReader newer = DirectoryReader.openIfChanged(shard);
+                reopened[i] = newer != null;
+                readers[i] = reopened[i] ? newer : shard;
+                changed |= reopened[i];
+            }
+            return changed ? newSearcher(readers, previous) : null;
+        } finally {
+            for (int i = 0; i < readers.length; i++) {
+                if (reopened[i]) {
+                    readers[i].decRef();
+                }
+            }
+        }
+    }
+
+    private IndexSearcher newSearcher(DirectoryReader[] readers, IndexReader previous) throws IOException {
+        // not closing the shards, the MultiReader takes a reference to each and releases it
+        return SearcherManager.getSearcher(searcherFactory, new MultiReader(readers, false), previous);
+    }
+
+    @Override
+    protected boolean tryIncRef(IndexSearcher reference) {
+        return reference.getIndexReader().tryIncRef();
+    }
+
+    @Override
+    protected void decRef(IndexSearcher reference) throws IOException {
+        reference.getIndexReader().decRef();
+    }
+
+    @Override
+    protected int getRefCount(IndexSearcher reference) {
+        return reference.getIndexReader().getRefCount();
+    }
+}
@@ -0,0 +1,135 @@
+package info.rires.index;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.index.FilterLeafReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.SegmentReader;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.util.IOUtils;
+import org.apache.lucene.util.StringHelper;
+
+/**
+ * The files written next to an index, e.g. by {@link ForwardIndexWriter}: every file starts with a
+ * codec header and ends with a checksum footer, as the files of the index do.
+ */
+final class SidecarFiles {
+
+    /** The suffix of a meta file being written. */
+    static final String PENDING = ".tmp";
+
+    private SidecarFiles() {
+    }
+
+    static IndexOutput create(Directory dir, String name, String codec, int version) throws IOException {
+        IndexOutput output = dir.createOutput(name, IOContext.DEFAULT);
+        try {
+            CodecUtil.writeHeader(output, codec, version);
+        } catch (IOException | RuntimeException e) {
+            IOUtils.closeWhileHandlingException(output);
+            throw e;
+        }
+        return output;
+    }
+
+    /**
+     * Opens a file and checks its header, and the structure of its footer but not the checksum of
+     * the whole file.
+     */
+    static IndexInput open(Directory dir, String name, String codec, int version) throws IOException {
+        IndexInput input = dir.openInput(name, IOContext.DEFAULT);
+        try {
+            CodecUtil.checkHeader(input, codec, version, version);
+            CodecUtil.retrieveChecksum(input);
+        } catch (IOException | RuntimeException e) {
+            IOUtils.closeWhileHandlingException(input);
+            throw e;
+        }
+        return input;
+    }
+
+    /**
+     * @return the data of a file opened by {@link #open}, between its header and its footer
+     */
+    static IndexInput data(IndexInput input, String codec) throws IOException {
+        final long header = CodecUtil.headerLength(codec);
+        return input.slice(input.toString(), header, input.length() - header - CodecUtil.footerLength());
+    }
+
+    /**
+     * Makes the files of a sidecar durable, then its meta file, written under its name with the
+     * {@link #PENDING} suffix, visible. A sidecar without its meta file is incomplete.
+     */
+    static void publish(Directory dir, Collection<String> files, String meta) throws IOException {
+        final List<String> sync = new ArrayList<>(files);
+        sync.add(meta + PENDING);
+        dir.sync(sync);
+        dir.rename(meta + PENDING, meta);
+        dir.syncMetaData();
+    }
+
+    /**
+     * Identifies the documents of a reader and their ids by the ids of its segments, in order. A
+     * segment gets a new random id whenever it is written, so a rebuilt or merged index has another
+     * identity even with the same number of documents, while deletions keep it.
+     *
+     * @return the digest of the segment ids, as a string
+     */
+    static String indexId(IndexReader reader) {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+        for (LeafReaderContext leaf : reader.leaves()) {
+            final LeafReader segment = FilterLeafReader.unwrap(leaf.reader());
+            if (!(segment instanceof SegmentReader))
+                throw new IllegalArgumentException("not a reader of segments: " + segment);
+            digest.update(((SegmentReader) segment).getSegmentInfo().info.getId());
+        }
+        return StringHelper.idToString(Arrays.copyOf(digest.digest(), StringHelper.ID_LENGTH));
+    }
+
+    /**
+     * Deletes a sidecar directory and its files, if there is one.
+     */
+    static void deleteDirectory(Path path) throws IOException {
+        if (!Files.isDirectory(path))
+            return;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(path)) {
+            for (Path file : files)
+                Files.delete(file);
+        }
+        Files.delete(path);
+    }
+
+    /**
+     * Deletes the given files of a directory, the ones it has.
+     */
+    static void delete(Directory dir, Iterable<String> names) throws IOException {
+        for (String name : names) {
+            for (String existing : dir.listAll()) {
+                if (existing.equals(name)) {
+                    dir.deleteFile(name);
+                    break;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package info.rires.index;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.IndexSearcher;
+
+/**
+ * IndexSearcher that searches the segments of a query concurrently on an executor.
+ *
+ * The default is one task per segment, which for an index that is not force merged spends more on
+ * handing out tiny segments than on scoring them. Segments are grouped instead: large segments get
+ * a slice of their own, smaller ones are packed together, largest first, up to
+ * {@link #MAX_DOCS_PER_SLICE} documents or {@link #MAX_SEGMENTS_PER_SLICE} segments per slice.
+ */
+public class SlicedIndexSearcher extends IndexSearcher {
+
+    // constants, slices() is called from the super constructor
+    static final int MAX_DOCS_PER_SLICE = 250_000;
+    static final int MAX_SEGMENTS_PER_SLICE = 5;
+
+    public SlicedIndexSearcher(IndexReader reader, ExecutorService executor) {
+        super(reader, executor);
+    }
+
+    @Override
+    protected LeafSlice[] slices(List<LeafReaderContext> leaves) {
+        return groupSlices(leaves);
+    }
+
+    static LeafSlice[] groupSlices(List<LeafReaderContext> leaves) {
+        List<LeafReaderContext> sorted = new ArrayList<>(leaves);
+        Collections.sort(sorted, new Comparator<LeafReaderContext>() {
+            @Override
+            public int compare(LeafReaderContext a, LeafReaderContext b) {
+                return Integer.compare(b.reader().maxDoc(), a.reader().maxDoc());
+            }
+        });
+
+        List<LeafSlice> slices = new ArrayList<>();
+        List<LeafReaderContext> group = new ArrayList<>();
+        long groupDocs = 0;
+        for (LeafReaderContext leaf : sorted) {
+            int maxDoc = leaf.reader().maxDoc();
+            if (maxDoc >= MAX_DOCS_PER_SLICE) {
+                slices.add(new LeafSlice(leaf));
+                continue;
+            }
+            group.add(leaf);
+            groupDocs += maxDoc;
+            if (groupDocs >= MAX_DOCS_PER_SLICE || group.size() == MAX_SEGMENTS_PER_SLICE) {
+                slices.add(new LeafSlice(group.toArray(new LeafReaderContext[0])));
+                group.clear();
+                groupDocs = 0;
+            }
+        }
+        if (!group.isEmpty()) {
+            slices.add(new LeafSlice(group.toArray(new LeafReaderContext[0])));
+        }
+        return slices.toArray(new LeafSlice[0]);
+    }
+}
@@ -0,0 +1,117 @@
+package info.rires.index;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of the stems of terms, shared by all the threads analyzing with the same
+ * {@link RiseAnalyzer}. Text repeats the same few thousand terms over and over, so most tokens
+ * are stemmed once.
+ *
+ * The cache is a direct mapped table: a term has a single slot, given by the hash of its chars,
+ * and a new term replaces whatever was there. The entries are immutable and published through
+ * their final fields, so the slots are read and written without locks, a racing put only losing
+ * an entry. Looking up a term reads the chars of the token in place and returns the stem array of
+ * the entry, without allocating.
+ */
+final class StemCache {
+
+    /** Longer terms are rare, they are stemmed every time rather than take room in the cache. */
+    static final int MAX_TERM_LENGTH = 32;
+
+    private static final class Entry {
+        final int hash;
+        final char[] term;
+        // the term itself if it is its own stem
+        final char[] stem;
+
+        Entry(int hash, char[] term, char[] stem) {
+            this.hash = hash;
+            this.term = term;
+            this.stem = stem;
+        }
+    }
+
+    private final Entry[] entries;
+    private final int mask;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param size the number of entries, rounded up to a power of two
+     */
+    StemCache(int size) {
+        int capacity = Integer.highestOneBit(Math.max(2, size - 1)) << 1;
+        entries = new Entry[capacity];
+        mask = capacity - 1;
+    }
+
+    private static int hash(char[] term, int length) {
+        int h = 0;
+        for (int i = 0; i < length; i++) {
+            h = 31 * h + term[i];
+        }
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * @return the stem of a term, to be copied and not modified, or null if it is not cached
+     */
+    char[] get(char[] term, int length) {
+        if (length > MAX_TERM_LENGTH)
+            return null;
+        final int hash = hash(term, length);
+        final Entry entry = entries[hash & mask];
+        if (entry != null && entry.hash == hash && entry.term.length == length) {
+            final char[] cached = entry.term;
+            int i = 0;
+            while (i < length && cached[i] == term[i]) {
+                i++;
+            }
+            if (i == length) {
+                hits.increment();
+                return entry.stem;
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    void put(char[] term, int length, char[] stem, int stemLength) {
+        if (length > MAX_TERM_LENGTH)
+            return;
+        final char[] key = new char[length];
+        System.arraycopy(term, 0, key, 0, length);
+        char[] value = key;
+        if (stemLength != length || !equals(key, stem, stemLength)) {
+            value = new char[stemLength];
+            System.arraycopy(stem, 0, value, 0, stemLength);
+        }
+        final int hash = hash(key, length);
+        entries[hash & mask] = new Entry(hash, key, value);
+    }
+
+    private static boolean equals(char[] a, char[] b, int length) {
+        for (int i = 0; i < length; i++) {
+            if (a[i] != b[i])
+                return false;
+        }
+        return true;
+    }
+
+    long hits() {
+        return hits.sum();
+    }
+
+    long misses() {
+        return misses.sum();
+    }
+
+    @Override
+    public String toString() {
+        final long h = hits.sum();
+        final long m = misses.sum();
+        return String.format(Locale.ROOT, "%d entries, %d hits, %d misses, hit rate %.1f%%",
+                entries.length, h, m, h + m == 0 ? 0 : 100.0 * h / (h + m));
+    }
+}
@@ -0,0 +1,133 @@
+package info.rires.index;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.store.RandomAccessInput;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.IOUtils;
+
+/**
+ * The sorted terms of a field, numbered by their rank, as written by the sidecars of an index. A
+ * term is found by binary search and read from the memory mapped file, so the dictionary takes no
+ * heap. The sidecars written from the same index agree on the term ids.
+ */
+final class TermDictionary implements Closeable {
+
+    static final String INDEX = "terms.idx";
+    static final String DATA = "terms.dat";
+    static final String INDEX_CODEC = "RiseTermsIndex";
+    static final String DATA_CODEC = "RiseTerms";
+    static final int VERSION = 0;
+
+    /**
+     * Writes the terms, which must be added in order.
+     */
+    static final class Writer implements Closeable {
+        private final IndexOutput index;
+        private final IndexOutput data;
+        private final long base;
+        private int size = 0;
+
+        Writer(Directory dir) throws IOException {
+            index = SidecarFiles.create(dir, INDEX, INDEX_CODEC, VERSION);
+            data = SidecarFiles.create(dir, DATA, DATA_CODEC, VERSION);
+            base = data.getFilePointer();
+        }
+
+        /**
+         * @return the id of the term
+         */
+        int add(BytesRef term) throws IOException {
+            index.writeLong(data.getFilePointer() - base);
+            data.writeVInt(term.length);
+            data.writeBytes(term.bytes, term.offset, term.length);
+            return size++;
+        }
+
+        int size() {
+            return size;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                index.writeLong(data.getFilePointer() - base);
+                CodecUtil.writeFooter(index);
+                CodecUtil.writeFooter(data);
+            } finally {
+                IOUtils.close(index, data);
+            }
+        }
+    }
+
+    private final int size;
+    private final IndexInput indexInput;
+    private final IndexInput dataInput;
+    private final RandomAccessInput offsets;
+    private final IndexInput terms;
+
+    TermDictionary(Directory dir, int size) throws IOException {
+        this.size = size;
+        IndexInput indexInput = null, dataInput = null;
+        boolean success = false;
+        try {
+            indexInput = SidecarFiles.open(dir, INDEX, INDEX_CODEC, VERSION);
+            dataInput = SidecarFiles.open(dir, DATA, DATA_CODEC, VERSION);
+            offsets = SidecarFiles.data(indexInput, INDEX_CODEC).randomAccessSlice(0, 8L * (size + 1));
+            terms = SidecarFiles.data(dataInput, DATA_CODEC);
+            success = true;
+        } finally {
+            if (!success)
+                IOUtils.closeWhileHandlingException(indexInput, dataInput);
+        }
+        this.indexInput = indexInput;
+        this.dataInput = dataInput;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return the term with the given id
+     */
+    BytesRef term(int termId) throws IOException {
+        if (termId < 0 || termId >= size)
+            throw new IllegalArgumentException("term " + termId + " is out of the dictionary of " + size + " terms");
+        final IndexInput input = terms.clone();
+        input.seek(offsets.readLong(8L * termId));
+        final BytesRef term = new BytesRef(input.readVInt());
+        input.readBytes(term.bytes, 0, term.bytes.length);
+        term.length = term.bytes.length;
+        return term;
+    }
+
+    /**
+     * @return the id of a term, or -1 if it is not in the dictionary
+     */
+    int termId(BytesRef term) throws IOException {
+        int lo = 0, hi = size - 1;
+        while (lo <= hi) {
+            final int mid = (lo + hi) >>> 1;
+            final int cmp = term(mid).compareTo(term);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOUtils.close(indexInput, dataInput);
+    }
+}
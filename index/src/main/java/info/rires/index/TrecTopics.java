@@ -0,0 +1,72 @@
+package info.rires.index;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reads TREC topic files, both the classic format of the ad hoc tracks
+ * (&lt;top&gt; &lt;num&gt; Number: 301 &lt;title&gt; ... &lt;desc&gt; Description: ...) and the xml
+ * format of the web tracks (&lt;topic number="1"&gt; &lt;query&gt;...&lt;/query&gt; &lt;description&gt;...).
+ */
+public final class TrecTopics {
+
+    private static final Pattern TOP = Pattern.compile("<top>(.*?)</top>", Pattern.DOTALL);
+    private static final Pattern TOPIC = Pattern.compile("<topic\\s[^>]*number=\"([^\"]+)\"[^>]*>(.*?)</topic>", Pattern.DOTALL);
+
+    private TrecTopics() {
+    }
+
+    /**
+     * @param field "title" for the short queries, "desc" for the descriptions
+     * @return the query text by topic number, in the order of the file
+     */
+    public static Map<String, String> read(Path topicsFile, String field) throws IOException {
+        if (!"title".equals(field) && !"desc".equals(field))
+            throw new IllegalArgumentException("Unknown topic field: " + field + ", expected title or desc");
+        final String text = new String(Files.readAllBytes(topicsFile), StandardCharsets.UTF_8);
+        final boolean title = "title".equals(field);
+
+        final Map<String, String> topics = new LinkedHashMap<>();
+        Matcher m = TOPIC.matcher(text);
+        while (m.find()) {
+            String query = element(m.group(2), title ? "query" : "description", null);
+            if (query != null)
+                topics.put(m.group(1).trim(), query);
+        }
+        if (!topics.isEmpty())
+            return topics;
+
+        m = TOP.matcher(text);
+        while (m.find()) {
+            String top = m.group(1);
+            String num = element(top, "num", "Number:");
+            String query = element(top, title ? "title" : "desc", title ? "Topic:" : "Description:");
+            if (num != null && query != null)
+                topics.put(num, query);
+        }
+        return topics;
+    }
+
+    /**
+     * @return the text following a tag up to the next tag, without the label, whitespace
+     * normalized, or null if the tag is missing or empty
+     */
+    private static String element(String block, String tag, String label) {
+        int start = block.indexOf("<" + tag + ">");
+        if (start < 0)
+            return null;
+        start += tag.length() + 2;
+        int end = block.indexOf('<', start);
+        String value = (end < 0 ? block.substring(start) : block.substring(start, end)).trim();
+        if (label != null && value.startsWith(label))
+            value = value.substring(label.length());
+        value = value.replaceAll("\\s+", " ").trim();
+        return value.isEmpty() ? null : value;
+    }
+}